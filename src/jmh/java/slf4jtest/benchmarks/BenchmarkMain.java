@@ -0,0 +1,42 @@
+package slf4jtest.benchmarks;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+
+/**
+ * Runs the selected benchmarks once for each requested thread count so that scaling shows up side by side.
+ * <p>
+ * System properties: jmh.threads (eg "1,2,4,8"), jmh.include (regex of benchmarks) and jmh.results (a directory
+ * receiving one JSON result file per thread count).
+ */
+public class BenchmarkMain {
+
+    public static void main(String[] args) throws RunnerException {
+        String include = System.getProperty("jmh.include", ".*");
+        String results = System.getProperty("jmh.results");
+
+        for (String t : System.getProperty("jmh.threads", "1").split(",")) {
+            int threads = Integer.parseInt(t.trim());
+
+            ChainedOptionsBuilder options = new OptionsBuilder()
+                    .include(include)
+                    .threads(threads)
+                    // the 10M row captures need room
+                    .jvmArgsAppend("-Xmx6g");
+
+            if (results != null) {
+                new File(results).mkdirs();
+                options = options
+                        .resultFormat(ResultFormatType.JSON)
+                        .result(new File(results, "threads-" + threads + ".json").getPath());
+            }
+
+            new Runner(options.build()).run();
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package slf4jtest.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import slf4jtest.LogLevel;
+import slf4jtest.NoopOutputStream;
+import slf4jtest.Settings;
+import slf4jtest.TestLogger;
+import slf4jtest.TestLoggerFactory;
+
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The console path writing to sinks that throw the output away.
+ * "discard" is recognised by Settings and skips the console work, "noopStream" is an opaque PrintStream so the
+ * suppression checks, layout and encoding all run; the difference is the cost of the console pipeline.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConsoleBenchmarks {
+
+    @Param({"discard", "noopStream"})
+    public String sink;
+
+    private TestLoggerFactory factory;
+    private TestLogger logger;
+
+    @Setup
+    public void setup() {
+        Settings settings = Settings.instance()
+                .enable(LogLevel.InfoLevel)
+                .suppressPrinting(".*never printed.*");
+
+        if ("discard".equals(sink)) {
+            settings = settings.discard(LogLevel.InfoLevel);
+        } else {
+            settings = settings.redirectPrintStream(LogLevel.InfoLevel, new PrintStream(NoopOutputStream.Instance));
+        }
+
+        factory = settings.buildLogging();
+        logger = factory.getLogger("bench");
+    }
+
+    @TearDown(Level.Iteration)
+    public void clear() {
+        factory.clear();
+    }
+
+    @Benchmark
+    public void info() {
+        logger.info("order {} for {}", 42, "bob");
+    }
+}
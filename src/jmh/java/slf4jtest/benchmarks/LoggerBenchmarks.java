@@ -0,0 +1,72 @@
+package slf4jtest.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.slf4j.Logger;
+import slf4jtest.LogLevel;
+import slf4jtest.Settings;
+import slf4jtest.TestLogger;
+import slf4jtest.TestLoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The per call cost of the logger: proxy dispatch, level checks, formatting and capture.
+ * Console printing is off here, see ConsoleBenchmarks for that.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoggerBenchmarks {
+
+    private TestLoggerFactory factory;
+    private TestLogger logger;
+    private final Exception failure = new Exception("benchmark failure");
+
+    @Setup
+    public void setup() {
+        factory = Settings.instance()
+                .printingEnabled(false)
+                .enable(LogLevel.InfoLevel)
+                .buildLogging();
+        logger = factory.getLogger("bench");
+    }
+
+    // keeps the capture from growing without bound over the run
+    @TearDown(Level.Iteration)
+    public void clear() {
+        factory.clear();
+    }
+
+    @Benchmark
+    public Logger getLogger() {
+        return factory.getLogger("bench");
+    }
+
+    @Benchmark
+    public boolean isInfoEnabled() {
+        return logger.isInfoEnabled();
+    }
+
+    @Benchmark
+    public boolean isDebugEnabled() {
+        return logger.isDebugEnabled();
+    }
+
+    @Benchmark
+    public void infoEnabled() {
+        logger.info("order {} for {} at {}", 42, "bob", 3.5);
+    }
+
+    @Benchmark
+    public void infoDisabled() {
+        logger.debug("order {} for {} at {}", 42, "bob", 3.5);
+    }
+
+    @Benchmark
+    public void errorWithThrowable() {
+        logger.error("order {} failed", 42, failure);
+    }
+}
@@ -0,0 +1,75 @@
+package slf4jtest.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import slf4jtest.LogMessage;
+import slf4jtest.Settings;
+import slf4jtest.TestLogger;
+import slf4jtest.TestLoggerFactory;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * The cost of the assertion api over captures of increasing size.
+ * The probes never match so every query is a full scan, the worst case for a failing assertion.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class QueryBenchmarks {
+
+    // rows are spread over this many loggers so the factory wide queries have something to merge
+    private static final int Loggers = 10;
+
+    @Param({"10000", "1000000", "10000000"})
+    public int rows;
+
+    @Param({"heap", "columnar"})
+    public String store;
+
+    private TestLoggerFactory factory;
+    private TestLogger logger;
+    private final Pattern missing = Pattern.compile(".*not logged.*", Pattern.DOTALL);
+
+    @Setup(Level.Trial)
+    public void populate() {
+        factory = Settings.instance()
+                .printingEnabled(false)
+                .enableAll()
+                .columnarCapture(store.equals("columnar"))
+                .buildLogging();
+        for (int i = 0; i < rows; i++) {
+            factory.getLogger("bench" + (i % Loggers)).info("order {} processed in {}ms", i, i % 97);
+        }
+        logger = factory.getLogger("bench0");
+    }
+
+    @Benchmark
+    public boolean loggerMatches() {
+        return logger.matches(missing);
+    }
+
+    @Benchmark
+    public boolean loggerContains() {
+        return logger.contains("not logged");
+    }
+
+    @Benchmark
+    public boolean factoryMatches() {
+        return factory.matches(missing);
+    }
+
+    @Benchmark
+    public boolean factoryContains() {
+        return factory.contains(slf4jtest.LogLevel.InfoLevel, "not logged");
+    }
+
+    @Benchmark
+    public Collection<LogMessage> factoryLines() {
+        return factory.lines();
+    }
+}
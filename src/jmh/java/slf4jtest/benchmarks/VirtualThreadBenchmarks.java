@@ -0,0 +1,102 @@
+package slf4jtest.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import slf4jtest.LogLevel;
+import slf4jtest.NoopOutputStream;
+import slf4jtest.Settings;
+import slf4jtest.TestLogger;
+import slf4jtest.TestLoggerFactory;
+
+import java.io.PrintStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 100k virtual threads released together, each logging a few messages, reported as messages per millisecond.
+ * "inline" prints to an opaque PrintStream on the logging thread, "background" hands the lines to
+ * Settings.printInBackground's writer and waits for it to catch up at the end of each invocation.
+ * <p>
+ * Needs java 21 to mean anything; on older JVMs the tasks run on a pool of platform threads, one per core.
+ * Run with -Pjmh.threads=1, the concurrency comes from the virtual threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class VirtualThreadBenchmarks {
+
+    private static final int Threads = 100_000;
+    private static final int MessagesPerThread = 10;
+
+    @Param({"off", "inline", "background"})
+    public String console;
+
+    @Param({"heap", "columnar"})
+    public String store;
+
+    private TestLoggerFactory factory;
+    private TestLogger logger;
+
+    @Setup
+    public void setup() {
+        Settings settings = Settings.instance()
+                .enable(LogLevel.InfoLevel)
+                .columnarCapture(store.equals("columnar"));
+        if (console.equals("off")) {
+            settings = settings.printingEnabled(false);
+        } else {
+            settings = settings
+                    .redirectPrintStream(LogLevel.InfoLevel, new PrintStream(NoopOutputStream.Instance))
+                    .printInBackground(console.equals("background"));
+        }
+        factory = settings.buildLogging();
+        logger = factory.getLogger("bench");
+    }
+
+    // each invocation captures a million messages
+    @TearDown(Level.Invocation)
+    public void clear() {
+        factory.clear();
+    }
+
+    @TearDown
+    public void close() {
+        factory.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Threads * MessagesPerThread)
+    public void log() throws Exception {
+        ExecutorService executor = newVirtualThreadPerTaskExecutor();
+        CountDownLatch start = new CountDownLatch(1);
+        for (int t = 0; t < Threads; t++) {
+            int thread = t;
+            executor.execute(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < MessagesPerThread; i++) {
+                    logger.info("order {} step {}", thread, i);
+                }
+            });
+        }
+        start.countDown();
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.HOURS);
+        factory.awaitPrinting();
+    }
+
+    private static ExecutorService newVirtualThreadPerTaskExecutor() throws Exception {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (NoSuchMethodException e) {
+            return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package slf4jtest;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/* Appends the messages captured in this JVM to memory-mapped segment files in a directory that several JVMs share,
+ * eg forked Gradle test workers, see Settings.aggregateTo and TestLoggerFactory.replayAggregate.
+ *
+ * All the factories of a JVM aggregating to the same directory share one Aggregator, and each JVM writes files of its
+ * own, so there is no locking between processes. A file is in the binary export format, the Magic then RecordCodec
+ * records, and is mapped at its full size up front so the unwritten tail reads as zeros, which readers take as the end.
+ * The body of a record goes in before its length, so neither a concurrent reader nor a JVM dying part way through sees
+ * half a record. Nothing is deleted; clean the directory before the build.
+ *
+ * Appending runs on the logging thread, so an error, eg a full disk, must not reach the code under test: the first
+ * one is kept, aggregation stops, and check() reports it from TestLoggerFactory.close and replayAggregate.
+ */
+final class Aggregator {
+    static final String Suffix = ".slf4jtest";
+    private static final int SegmentBytes = 16 << 20;
+    private static final ConcurrentHashMap<Path, Aggregator> ByDirectory = new ConcurrentHashMap<>();
+
+    private final Path directory;
+    // unique to this JVM among the writers to the directory
+    private final String name;
+    private final ReentrantLock lock = new ReentrantLock();
+    private MappedByteBuffer segment;
+    private int position;
+    private int files;
+    private volatile UncheckedIOException failure;
+
+    Aggregator(Path directory, String name) {
+        this.directory = directory;
+        this.name = name;
+    }
+
+    /* the aggregator of this JVM for the directory, null if there isn't one */
+    static Aggregator existing(Path directory) {
+        return ByDirectory.get(directory.toAbsolutePath().normalize());
+    }
+
+    static Aggregator forDirectory(Path directory) {
+        return ByDirectory.computeIfAbsent(directory.toAbsolutePath().normalize(),
+                d -> new Aggregator(d, ManagementFactory.getRuntimeMXBean().getName().replaceAll("[^A-Za-z0-9._-]", "_")
+                        + "-" + System.currentTimeMillis()));
+    }
+
+    void append(LogMessage message) {
+        if (failure != null)
+            return;
+        // encoded outside the lock, the only work under it is the copy
+        ByteBuffer record = RecordCodec.encode(message);
+        int size = record.remaining();
+        lock.lock();
+        try {
+            if (failure != null)
+                return;
+            // leaving room for the terminating zero length
+            if (segment == null || segment.capacity() - position < size + 4)
+                next(size);
+            ByteBuffer body = segment.duplicate();
+            body.position(position + 4);
+            record.position(4);
+            body.put(record);
+            segment.putInt(position, record.getInt(0));
+            position += size;
+        } catch (IOException e) {
+            stop(e);
+        } catch (InternalError e) {
+            // how a write to a mapping fails when the disk is full
+            stop(new IOException(e));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void stop(IOException e) {
+        failure = new UncheckedIOException("aggregating captured logging in " + directory + " stopped, the aggregate"
+                + " is missing everything logged since", e);
+        segment = null;
+    }
+
+    /* throws the error that stopped aggregation, if any */
+    void check() {
+        UncheckedIOException e = failure;
+        if (e != null)
+            throw e;
+    }
+
+    private void next(int recordSize) throws IOException {
+        Files.createDirectories(directory);
+        Path path = directory.resolve(name + "-" + files++ + Suffix);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(SegmentBytes, 8 + recordSize + 4));
+        }
+        segment.putLong(0, LogExport.Magic);
+        position = 8;
+    }
+}
@@ -0,0 +1,145 @@
+package slf4jtest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/* Collects the per call site costs reported by TestLoggerFactory.analysis(), shared by all loggers of a factory.
+ *
+ * - argument toString() is done here, timed, ahead of MessageFormatter so the formatter only sees strings
+ * - a call to a disabled level whose message has no {} placeholder and is a different String instance from the
+ *   previous call at the same site was most likely concatenated by the caller; a constant message is the same
+ *   instance every time. Enough of these and the site is suspected of concatenation.
+ * - isXxxEnabled() remembers the calling method on the current thread, so the next call at that level from the
+ *   same method counts as guarded
+ */
+class CallSiteAnalysis {
+    private final int concatenationThreshold;
+    private final ConcurrentMap<String, Site> sites = new ConcurrentHashMap<>();
+    private final ThreadLocal<String[]> guards = ThreadLocal.withInitial(() -> new String[LogLevel.All.size()]);
+
+    CallSiteAnalysis(int concatenationThreshold) {
+        this.concatenationThreshold = concatenationThreshold;
+    }
+
+    /* an isXxxEnabled() call */
+    void guarded(LogLevel level) {
+        StackWalker.StackFrame frame = CallerLocations.callerFrame();
+        if (frame != null)
+            guards.get()[level.ordinal] = method(frame);
+    }
+
+    /* a call to a disabled level */
+    void dropped(LogLevel level, String message) {
+        Site site = site(level);
+        if (site == null)
+            return;
+
+        site.dropped.increment();
+        if (message != null && !message.contains("{}")) {
+            site.unparameterised.increment();
+            if (message != site.lastMessage)
+                site.fresh.increment();
+            site.lastMessage = message;
+        }
+    }
+
+    /* a call to an enabled level; returns the site so argument rendering can be charged to it */
+    Site logged(LogLevel level) {
+        Site site = site(level);
+        if (site != null)
+            site.logged.increment();
+        return site;
+    }
+
+    /* the arguments with all but nulls, strings, arrays and throwables replaced by their toString().
+     * a toString() that throws is left for MessageFormatter to report as it normally would
+     */
+    static Object[] render(Site site, Object[] arguments) {
+        if (site == null || arguments == null)
+            return arguments;
+
+        Object[] rendered = arguments.clone();
+        for (int i = 0; i < rendered.length; i++) {
+            Object arg = rendered[i];
+            if (arg == null || arg instanceof String || arg instanceof Throwable || arg.getClass().isArray())
+                continue;
+
+            long start = System.nanoTime();
+            try {
+                rendered[i] = arg.toString();
+            } catch (RuntimeException e) {
+                // leave the original
+            } finally {
+                site.toStringNanos.add(System.nanoTime() - start);
+                site.toStringCalls.increment();
+            }
+        }
+        return rendered;
+    }
+
+    LogAnalysis report() {
+        List<CallSiteCost> costs = new ArrayList<>();
+        for (Site site : sites.values()) {
+            long fresh = site.fresh.sum();
+            costs.add(new CallSiteCost(new CallerLocation(site.frame), site.level,
+                    site.logged.sum(), site.guardedCalls.sum(),
+                    site.dropped.sum(), site.unparameterised.sum(),
+                    site.toStringCalls.sum(), site.toStringNanos.sum(),
+                    fresh >= concatenationThreshold));
+        }
+        return new LogAnalysis(costs);
+    }
+
+    void clear() {
+        sites.clear();
+    }
+
+    private Site site(LogLevel level) {
+        StackWalker.StackFrame frame = CallerLocations.callerFrame();
+        if (frame == null)
+            return null;
+
+        String method = method(frame);
+        String key = method + ":" + frame.getLineNumber() + ":" + level;
+        Site site = sites.get(key);
+        if (site == null) {
+            Site newSite = new Site(frame, level);
+            site = sites.putIfAbsent(key, newSite);
+            if (site == null)
+                site = newSite;
+        }
+
+        String[] guarding = guards.get();
+        if (method.equals(guarding[level.ordinal])) {
+            site.guardedCalls.increment();
+            guarding[level.ordinal] = null;
+        }
+        return site;
+    }
+
+    private static String method(StackWalker.StackFrame frame) {
+        return frame.getClassName() + "." + frame.getMethodName();
+    }
+
+    static final class Site {
+        final StackWalker.StackFrame frame;
+        final LogLevel level;
+        final LongAdder logged = new LongAdder();
+        final LongAdder guardedCalls = new LongAdder();
+        final LongAdder dropped = new LongAdder();
+        final LongAdder unparameterised = new LongAdder();
+        final LongAdder fresh = new LongAdder();
+        final LongAdder toStringCalls = new LongAdder();
+        final LongAdder toStringNanos = new LongAdder();
+        // only compared by identity, a racy read just costs one miscount
+        volatile String lastMessage;
+
+        Site(StackWalker.StackFrame frame, LogLevel level) {
+            this.frame = frame;
+            this.level = level;
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package slf4jtest;
+
+import lombok.Data;
+
+/** What one logging call site cost, see TestLoggerFactory.analysis() */
+@Data
+public class CallSiteCost {
+    public final CallerLocation location;
+    public final LogLevel level;
+    /* calls while the level was enabled */
+    public final long calls;
+    /* calls, enabled or not, that came after an isXxxEnabled() check in the same method */
+    public final long guardedCalls;
+    /* calls while the level was disabled */
+    public final long disabledCalls;
+    /* calls while the level was disabled whose message had no {} placeholder */
+    public final long unparameterisedDisabledCalls;
+    /* argument toString() calls made while formatting, and the time they took */
+    public final long toStringCalls;
+    public final long toStringNanos;
+    /* the site keeps sending fresh unparameterised messages to a disabled level, eg debug("x=" + x) */
+    public final boolean suspectedConcatenation;
+}
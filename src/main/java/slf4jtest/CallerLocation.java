@@ -0,0 +1,42 @@
+package slf4jtest;
+
+/** Where a captured logging call was made from.
+ * Wraps the StackWalker frame of the caller; the method name, file and line are only resolved when first asked for.
+ * Locations read back from a spill file or an export are held already resolved.
+ */
+public class CallerLocation {
+    private final StackWalker.StackFrame frame;
+    private final StackTraceElement element;
+
+    CallerLocation(StackWalker.StackFrame frame) {
+        this.frame = frame;
+        this.element = null;
+    }
+
+    CallerLocation(String className, String methodName, String fileName, int lineNumber) {
+        this.frame = null;
+        this.element = new StackTraceElement(className, methodName, fileName, lineNumber);
+    }
+
+    public String getClassName() {
+        return frame != null ? frame.getClassName() : element.getClassName();
+    }
+
+    public String getMethodName() {
+        return frame != null ? frame.getMethodName() : element.getMethodName();
+    }
+
+    public String getFileName() {
+        return frame != null ? frame.getFileName() : element.getFileName();
+    }
+
+    /* the line number or a negative value if unavailable */
+    public int getLineNumber() {
+        return frame != null ? frame.getLineNumber() : element.getLineNumber();
+    }
+
+    @Override
+    public String toString() {
+        return getClassName() + "." + getMethodName() + "(" + getFileName() + ":" + getLineNumber() + ")";
+    }
+}
@@ -0,0 +1,47 @@
+package slf4jtest;
+
+import java.util.EnumSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/* Finds the CallerLocation of logging calls for one logger, sampling every n'th call.
+ * The walk stops at a bounded number of frames; frames are only resolved as far as needed to step over the
+ * TestLogger and any SLF4J fluent api frames above it.
+ */
+class CallerLocations {
+    // deep enough for the capture path, the TestLogger and the SLF4J fluent builder
+    static final int MaxFrames = 24;
+
+    private static final StackWalker walker =
+            StackWalker.getInstance(EnumSet.of(StackWalker.Option.RETAIN_CLASS_REFERENCE), MaxFrames);
+
+    private final int everyNth;
+    private final AtomicLong calls = new AtomicLong();
+
+    CallerLocations(int everyNth) {
+        this.everyNth = everyNth;
+    }
+
+    /* the caller of the logger or null if this call isn't sampled or the caller is too deep to find */
+    CallerLocation locate() {
+        if (everyNth > 1 && calls.getAndIncrement() % everyNth != 0)
+            return null;
+
+        StackWalker.StackFrame frame = callerFrame();
+        return frame != null ? new CallerLocation(frame) : null;
+    }
+
+    /* the frame that called into the logger or null if it is too deep to find */
+    static StackWalker.StackFrame callerFrame() {
+        return walker.walk(frames -> frames
+                .limit(MaxFrames)
+                .dropWhile(f -> !isLoggerFrame(f))
+                .dropWhile(CallerLocations::isLoggerFrame)
+                .findFirst()
+                .orElse(null));
+    }
+
+    private static boolean isLoggerFrame(StackWalker.StackFrame frame) {
+        Class<?> c = frame.getDeclaringClass();
+        return c == TestLoggerImpl.class || c == RoutingLogger.class || frame.getClassName().startsWith("org.slf4j.");
+    }
+}
@@ -0,0 +1,99 @@
+package slf4jtest;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/** How much of one level's logging a logger captures, see Settings.capturePolicy.
+ * The messages a policy passes over are not captured, and not formatted unless their level is printed, but they are
+ * still counted, as LoggerMetrics.counted, so the log volume budgets see every call while what is kept drops by
+ * orders of magnitude. The console still shows them all.
+ */
+public abstract class CapturePolicy {
+
+    private CapturePolicy() {
+    }
+
+    /** capture the first message and every n'th one after it */
+    public static CapturePolicy everyNth(int n) {
+        return firstThenEveryNth(0, n);
+    }
+
+    /** capture the first messages, then every n'th of the rest */
+    public static CapturePolicy firstThenEveryNth(int first, int n) {
+        if (first < 0 || n < 1)
+            throw new IllegalArgumentException("cannot keep the first " + first + " then every " + n + "th");
+        return new Counting(first, n);
+    }
+
+    /** capture at most messagesPerSecond a second, in bursts of up to as many; a token bucket */
+    public static CapturePolicy perSecond(int messagesPerSecond) {
+        if (messagesPerSecond < 1)
+            throw new IllegalArgumentException("cannot keep " + messagesPerSecond + " messages a second");
+        return new TokenBucket(messagesPerSecond);
+    }
+
+    /* the state of the policy for one logger's messages at one level */
+    interface Sampler {
+        /* whether to capture this message */
+        boolean capture();
+    }
+
+    abstract Sampler sampler();
+
+    private static final class Counting extends CapturePolicy {
+        private final int first;
+        private final int n;
+
+        Counting(int first, int n) {
+            this.first = first;
+            this.n = n;
+        }
+
+        Sampler sampler() {
+            AtomicLong seen = new AtomicLong();
+            return () -> {
+                long i = seen.getAndIncrement();
+                return i < first || (i - first) % n == 0;
+            };
+        }
+
+        @Override
+        public String toString() {
+            return first == 0 ? "everyNth(" + n + ")" : "firstThenEveryNth(" + first + ", " + n + ")";
+        }
+    }
+
+    /* as a generic cell rate algorithm: a single time at which the bucket would next be full, moved on by a compare
+     * and set, so there is no lock and no refill thread
+     */
+    private static final class TokenBucket extends CapturePolicy {
+        private final int perSecond;
+        private final long interval;
+        private final long burst;
+
+        TokenBucket(int perSecond) {
+            this.perSecond = perSecond;
+            this.interval = 1_000_000_000L / perSecond;
+            this.burst = interval * (perSecond - 1);
+        }
+
+        Sampler sampler() {
+            AtomicLong full = new AtomicLong(System.nanoTime());
+            return () -> {
+                long now = System.nanoTime();
+                while (true) {
+                    long at = full.get();
+                    long from = Math.max(at, now);
+                    if (from - now > burst)
+                        return false;
+                    if (full.compareAndSet(at, from + interval))
+                        return true;
+                }
+            };
+        }
+
+        @Override
+        public String toString() {
+            return "perSecond(" + perSecond + ")";
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package slf4jtest;
+
+import java.util.Iterator;
+
+/* Where a logger keeps its captured messages.
+ * Rows are numbered in the order they were appended, from 0 since the last clear(); clearUpTo doesn't renumber.
+ * The indexes refer to rows by number so a store is free to keep something more compact than the LogMessage itself.
+ */
+interface CaptureStore extends Iterable<LogMessage> {
+
+    /* add a row, returning its number */
+    long append(LogMessage message);
+
+    /* the row with the given number, or null if there is no such row (eg it was cleared) */
+    LogMessage get(long row);
+
+    /* the number of rows appended since the last clear(), less any cleared by clearUpTo */
+    long size();
+
+    /* the number of rows appended since the last clear(), ie the number the next row will get */
+    long end();
+
+    /* the rows in order; rows appended during iteration may or may not be seen */
+    Iterator<LogMessage> iterator();
+
+    /* whether the text of any row at the given level, or at any level if null, contains the substring */
+    boolean contains(LogLevel level, String substring);
+
+    /* the rows with a sequence up to and including cut, as they are now; neither appends nor clears change what it returns.
+     * it is only complete if every message up to the cut has been appended, see InFlight.
+     */
+    Iterable<LogMessage> upTo(long cut);
+
+    /* drop the rows with a sequence up to and including cut, keeping any later ones */
+    void clearUpTo(long cut);
+
+    /* empty the store for reuse by a pooled factory, keeping whatever it has allocated; nothing may be appended
+     * concurrently with a sequence up to and including cut. views taken by upTo are no longer valid.
+     */
+    void reset(long cut);
+
+    void clear();
+}
@@ -0,0 +1,402 @@
+package slf4jtest;
+
+import org.slf4j.Marker;
+import org.slf4j.event.KeyValuePair;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.ReentrantLock;
+
+/* A CaptureStore for very large captures, see Settings.columnarCapture.
+ *
+ * Rows are kept in chunks of primitive columns: level (with the top bit set for a virtual thread), time stamp,
+ * sequence, thread id and an id from the factory's thread name dictionary, with the text as UTF-8 in a byte arena
+ * per chunk. The logger name is held once by the store.
+ * Arguments go in the arena after the text, each as its String.valueOf in UTF-8 after an int length, as the binary
+ * export holds them, so a row doesn't keep the objects it was passed reachable; they are read back as strings.
+ * The MDC, markers, key value pairs and caller location are only kept, in a sparse column, for rows that have any.
+ * LogMessages are rebuilt each time a row is read.
+ *
+ * Appends are serialised by a lock rather than a monitor, so a virtual thread waiting on it can unmount; a row
+ * becomes visible to readers when size is published.
+ * clearUpTo hides rows below a sequence floor and drops chunks with nothing left in them, replacing the chunk array
+ * so that views taken by upTo keep what they saw.
+ */
+class ColumnarStore implements CaptureStore {
+    static final int ChunkBits = 12;
+    static final int ChunkSize = 1 << ChunkBits;
+    private static final int InitialArena = 64 * 1024;
+    private static final int Virtual = 0x80;
+
+    private final String logName;
+    private final NameDictionary threadNames;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private volatile Chunk[] chunks = new Chunk[0];
+    private volatile long size;
+    // rows with a sequence up to the floor have been cleared by clearUpTo, removed of them
+    private volatile long floor;
+    private volatile long removed;
+
+    ColumnarStore(String logName, NameDictionary threadNames) {
+        this.logName = logName;
+        this.threadNames = threadNames;
+    }
+
+    private static final class Chunk {
+        final byte[] levels = new byte[ChunkSize];
+        final long[] timeStamps = new long[ChunkSize];
+        final long[] sequences = new long[ChunkSize];
+        final long[] threadIds = new long[ChunkSize];
+        final int[] threads = new int[ChunkSize];
+        // end of each row's text in the arena, the start being the end of the previous row
+        final int[] textEnds = new int[ChunkSize];
+        volatile byte[] arena = new byte[InitialArena];
+        int arenaUsed;
+        // sparse columns, only allocated once a row in the chunk needs them
+        // end of each row's arguments in the arena, after its text
+        volatile int[] argumentEnds;
+        volatile Extras[] extras;
+
+        int textStart(int i) {
+            return i == 0 ? 0 : rowEnd(i - 1);
+        }
+
+        int rowEnd(int i) {
+            int[] ends = argumentEnds;
+            return ends != null ? ends[i] : textEnds[i];
+        }
+    }
+
+    private static final class Extras {
+        final Map<String, String> mdc;
+        final List<Marker> markers;
+        final List<KeyValuePair> keyValuePairs;
+        final CallerLocation callerLocation;
+
+        Extras(LogMessage m) {
+            this.mdc = m.mdc;
+            this.markers = m.markers;
+            this.keyValuePairs = m.keyValuePairs;
+            this.callerLocation = m.callerLocation;
+        }
+
+        static boolean needed(LogMessage m) {
+            return !m.mdc.isEmpty() || !m.markers.isEmpty() || !m.keyValuePairs.isEmpty() || m.callerLocation != null;
+        }
+    }
+
+    public long append(LogMessage message) {
+        int thread = threadNames.id(message.threadName);
+        byte[] text = message.text.getBytes(StandardCharsets.UTF_8);
+        byte[][] arguments = utf8(message.arguments);
+
+        lock.lock();
+        try {
+            long row = size;
+            Chunk chunk = chunk(row);
+            int i = (int) (row & (ChunkSize - 1));
+
+            chunk.levels[i] = (byte) (message.level.ordinal | (message.virtualThread ? Virtual : 0));
+            chunk.timeStamps[i] = message.timeStamp;
+            chunk.sequences[i] = message.sequence;
+            chunk.threadIds[i] = message.threadId;
+            chunk.threads[i] = thread;
+
+            // a chunk reused after a reset starts its arena again
+            int start = i == 0 ? 0 : chunk.arenaUsed;
+            int end = start + text.length;
+            for (byte[] arg : arguments) {
+                end += 4 + arg.length;
+            }
+            if (end > chunk.arena.length || end < 0) {
+                chunk.arena = Arrays.copyOf(chunk.arena, arenaSize(chunk.arena.length, end));
+            }
+            byte[] arena = chunk.arena;
+            System.arraycopy(text, 0, arena, start, text.length);
+            int p = start + text.length;
+            chunk.textEnds[i] = p;
+            for (byte[] arg : arguments) {
+                putInt(arena, p, arg.length);
+                System.arraycopy(arg, 0, arena, p + 4, arg.length);
+                p += 4 + arg.length;
+            }
+            chunk.arenaUsed = p;
+
+            if (arguments.length > 0 && chunk.argumentEnds == null) {
+                // the rows before this one end with their text
+                chunk.argumentEnds = Arrays.copyOf(chunk.textEnds, ChunkSize);
+            }
+            if (chunk.argumentEnds != null)
+                chunk.argumentEnds[i] = p;
+            if (Extras.needed(message)) {
+                if (chunk.extras == null)
+                    chunk.extras = new Extras[ChunkSize];
+                chunk.extras[i] = new Extras(message);
+            } else if (chunk.extras != null) {
+                chunk.extras[i] = null;
+            }
+
+            // publishes the row
+            size = row + 1;
+            return row;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static byte[][] utf8(List<Object> arguments) {
+        byte[][] utf8 = new byte[arguments.size()][];
+        for (int i = 0; i < utf8.length; i++) {
+            utf8[i] = String.valueOf(arguments.get(i)).getBytes(StandardCharsets.UTF_8);
+        }
+        return utf8;
+    }
+
+    private static void putInt(byte[] b, int at, int v) {
+        b[at] = (byte) (v >>> 24);
+        b[at + 1] = (byte) (v >>> 16);
+        b[at + 2] = (byte) (v >>> 8);
+        b[at + 3] = (byte) v;
+    }
+
+    private static int getInt(byte[] b, int at) {
+        return (b[at] & 0xff) << 24 | (b[at + 1] & 0xff) << 16 | (b[at + 2] & 0xff) << 8 | (b[at + 3] & 0xff);
+    }
+
+    private static List<Object> arguments(byte[] arena, int from, int to) {
+        if (from == to)
+            return Collections.emptyList();
+        List<Object> arguments = new ArrayList<>();
+        for (int p = from; p < to; ) {
+            int n = getInt(arena, p);
+            arguments.add(new String(arena, p + 4, n, StandardCharsets.UTF_8));
+            p += 4 + n;
+        }
+        return Collections.unmodifiableList(arguments);
+    }
+
+    private Chunk chunk(long row) {
+        int c = (int) (row >>> ChunkBits);
+        if (c == chunks.length) {
+            Chunk[] grown = Arrays.copyOf(chunks, c + 1);
+            grown[c] = new Chunk();
+            chunks = grown;
+        } else if (chunks[c] == null) {
+            // let go of by clearUpTo, and wanted again after a reset
+            Chunk[] replaced = chunks.clone();
+            replaced[c] = new Chunk();
+            chunks = replaced;
+        }
+        return chunks[c];
+    }
+
+    private static int arenaSize(int current, int needed) {
+        long size = Math.max((long) current * 2, needed);
+        if (needed < 0 || needed > Integer.MAX_VALUE - 8)
+            throw new IllegalStateException("a chunk of " + ChunkSize + " rows has more than 2GB of text");
+        return (int) Math.min(size, Integer.MAX_VALUE - 8);
+    }
+
+    public LogMessage get(long row) {
+        return read(chunks, size, floor, Long.MAX_VALUE, row);
+    }
+
+    private LogMessage read(Chunk[] chunks, long rows, long floor, long cut, long row) {
+        if (row < 0 || row >= rows)
+            return null;
+        int c = (int) (row >>> ChunkBits);
+        if (c >= chunks.length || chunks[c] == null)
+            return null;
+
+        Chunk chunk = chunks[c];
+        int i = (int) (row & (ChunkSize - 1));
+        long sequence = chunk.sequences[i];
+        if (sequence <= floor || sequence > cut)
+            return null;
+
+        byte[] arena = chunk.arena;
+        int start = chunk.textStart(i);
+        int textEnd = chunk.textEnds[i];
+        String text = new String(arena, start, textEnd - start, StandardCharsets.UTF_8);
+        List<Object> arguments = arguments(arena, textEnd, chunk.rowEnd(i));
+        LogLevel level = LogLevel.All.get(chunk.levels[i] & ~Virtual);
+        String threadName = threadNames.name(chunk.threads[i]);
+        long threadId = chunk.threadIds[i];
+        boolean virtual = (chunk.levels[i] & Virtual) != 0;
+
+        Extras[] extras = chunk.extras;
+        Extras e = extras != null ? extras[i] : null;
+        if (e == null) {
+            return new LogMessage(logName, level, text, chunk.timeStamps[i], threadName, threadId, virtual,
+                    Collections.<String, String>emptyMap(), Collections.<Marker>emptyList(),
+                    arguments, Collections.<KeyValuePair>emptyList(), null, sequence);
+        }
+        return new LogMessage(logName, level, text, chunk.timeStamps[i], threadName, threadId, virtual,
+                e.mdc, e.markers, arguments, e.keyValuePairs, e.callerLocation, sequence);
+    }
+
+    public long size() {
+        return size - removed;
+    }
+
+    public long end() {
+        return size;
+    }
+
+    public Iterator<LogMessage> iterator() {
+        return new Rows(null, 0, 0, Long.MAX_VALUE);
+    }
+
+    public Iterable<LogMessage> upTo(long cut) {
+        Chunk[] frozen = chunks;
+        long rows = size;
+        long cleared = floor;
+        return () -> new Rows(frozen, rows, cleared, cut);
+    }
+
+    /* the rows of the live store, or of a frozen set of chunks */
+    private final class Rows implements Iterator<LogMessage> {
+        private final Chunk[] frozen;
+        private final long end;
+        private final long floor;
+        private final long cut;
+        private long row;
+        private LogMessage nextRow;
+
+        Rows(Chunk[] frozen, long end, long floor, long cut) {
+            this.frozen = frozen;
+            this.end = end;
+            this.floor = floor;
+            this.cut = cut;
+        }
+
+        public boolean hasNext() {
+            while (nextRow == null && row < (frozen != null ? end : size)) {
+                nextRow = frozen != null ? read(frozen, end, floor, cut, row++) : get(row++);
+            }
+            return nextRow != null;
+        }
+
+        public LogMessage next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            LogMessage m = nextRow;
+            nextRow = null;
+            return m;
+        }
+    }
+
+    /* searches the UTF-8 directly, without rebuilding any LogMessage; a UTF-8 substring match is a character match */
+    public boolean contains(LogLevel level, String substring) {
+        byte[] needle = substring.getBytes(StandardCharsets.UTF_8);
+        long rows = size;
+        long cleared = floor;
+        Chunk[] current = chunks;
+        for (int c = 0; c < current.length && (long) c << ChunkBits < rows; c++) {
+            Chunk chunk = current[c];
+            if (chunk == null)
+                continue;
+            byte[] arena = chunk.arena;
+            int n = (int) Math.min(ChunkSize, rows - ((long) c << ChunkBits));
+            for (int i = 0; i < n; i++) {
+                if (level != null && (chunk.levels[i] & ~Virtual) != level.ordinal)
+                    continue;
+                if (chunk.sequences[i] <= cleared)
+                    continue;
+                if (indexOf(arena, chunk.textStart(i), chunk.textEnds[i], needle))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean indexOf(byte[] haystack, int from, int to, byte[] needle) {
+        if (needle.length == 0)
+            return true;
+        byte first = needle[0];
+        int last = to - needle.length;
+        outer:
+        for (int i = from; i <= last; i++) {
+            if (haystack[i] != first)
+                continue;
+            for (int j = 1; j < needle.length; j++) {
+                if (haystack[i + j] != needle[j])
+                    continue outer;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    public void clearUpTo(long cut) {
+        lock.lock();
+        try {
+            clearRowsUpTo(cut);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void clearRowsUpTo(long cut) {
+        long from = floor;
+        if (cut <= from)
+            return;
+
+        long rows = size;
+        long count = 0;
+        Chunk[] kept = null;
+        for (int c = 0; c < chunks.length; c++) {
+            Chunk chunk = chunks[c];
+            if (chunk == null)
+                continue;
+            int n = (int) Math.min(ChunkSize, rows - ((long) c << ChunkBits));
+            boolean empty = n == ChunkSize;
+            for (int i = 0; i < n; i++) {
+                long sequence = chunk.sequences[i];
+                if (sequence > cut)
+                    empty = false;
+                else if (sequence > from)
+                    count++;
+            }
+            if (empty) {
+                if (kept == null)
+                    kept = chunks.clone();
+                kept[c] = null;
+            }
+        }
+        if (kept != null)
+            chunks = kept;
+        removed += count;
+        floor = cut;
+    }
+
+    /* keeps the chunks and their arenas to be written over */
+    public void reset(long cut) {
+        lock.lock();
+        try {
+            size = 0;
+            removed = 0;
+            floor = Math.max(floor, cut);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void clear() {
+        lock.lock();
+        try {
+            chunks = new Chunk[0];
+            size = 0;
+            removed = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
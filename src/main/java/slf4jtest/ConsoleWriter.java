@@ -0,0 +1,101 @@
+package slf4jtest;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/* Prints console lines on a thread of its own, see Settings.printInBackground.
+ *
+ * Loggers add to a lock free queue and carry on, so they never take a PrintStream's monitor or wait on its I/O; on
+ * virtual threads that would pin the carrier. One writer keeps the lines of all the factory's loggers in the order
+ * they were handed over. The writer is a daemon thread, started by the first line, that parks when there is nothing
+ * to print; a logger only unparks it when it has said it is about to park.
+ */
+class ConsoleWriter {
+    private static final class Line {
+        final LoggerExtensionsImpl logger;
+        final LogMessage message;
+
+        Line(LoggerExtensionsImpl logger, LogMessage message) {
+            this.logger = logger;
+            this.message = message;
+        }
+    }
+
+    private final ConcurrentLinkedQueue<Line> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicBoolean started = new AtomicBoolean();
+    private volatile long printed;
+    private volatile boolean parked;
+    private volatile boolean closed;
+    private volatile Thread writer;
+
+    void submit(LoggerExtensionsImpl logger, LogMessage message) {
+        submitted.incrementAndGet();
+        queue.offer(new Line(logger, message));
+        if (!started.get() && started.compareAndSet(false, true))
+            start();
+        else if (parked)
+            LockSupport.unpark(writer);
+    }
+
+    private void start() {
+        Thread t = new Thread(this::run, "slf4jtest-console");
+        t.setDaemon(true);
+        writer = t;
+        t.start();
+    }
+
+    private void run() {
+        while (true) {
+            Line line = queue.poll();
+            if (line != null) {
+                try {
+                    line.logger.print(line.message);
+                } catch (RuntimeException e) {
+                    // as a failing PrintStream would have on the logging thread, but without killing the writer
+                    e.printStackTrace();
+                }
+                printed++;
+                continue;
+            }
+            if (closed)
+                return;
+            parked = true;
+            // look again, a line added before parked was set won't have unparked us
+            if (queue.isEmpty() && !closed)
+                LockSupport.park(this);
+            parked = false;
+        }
+    }
+
+    /* wait until every line handed over before the call has been printed */
+    void await() {
+        long target = submitted.get();
+        while (printed < target) {
+            Thread w = writer;
+            if (w != null && !w.isAlive())
+                return;
+            LockSupport.parkNanos(100_000);
+        }
+    }
+
+    /* print what is queued and stop the writer; lines handed over afterwards are printed by a new writer */
+    void close() {
+        await();
+        closed = true;
+        Thread w = writer;
+        if (w != null) {
+            LockSupport.unpark(w);
+            try {
+                w.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        writer = null;
+        closed = false;
+        started.set(false);
+    }
+}
@@ -0,0 +1,9 @@
+package slf4jtest;
+
+/** File formats of TestLoggerFactory.export */
+public enum ExportFormat {
+    /* one JSON object per message, for reading by people and by jq */
+    JsonLines,
+    /* the compact binary records also used for spilling, for loading back with TestLoggerFactory.replay */
+    Binary
+}
@@ -0,0 +1,112 @@
+package slf4jtest;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/* state shared by all the loggers of one TestLoggerFactory */
+class FactoryContext {
+    // what console and golden file times are relative to, restarted when a pooled factory is reset
+    volatile long startTime = System.currentTimeMillis();
+    // null unless Settings.analyse is on
+    final CallSiteAnalysis analysis;
+    // thread names of the rows held by columnar stores
+    final NameDictionary threadNames = new NameDictionary();
+    // source of LogMessage.sequence
+    final AtomicLong sequence = new AtomicLong();
+    // messages numbered but not yet stored
+    final InFlight inFlight = new InFlight();
+    // null unless Settings.printInBackground is on
+    final ConsoleWriter console;
+    // null unless Settings.aggregateTo is set
+    final Aggregator aggregator;
+
+    private final Settings settings;
+    private final TestLoggerFactory factory;
+    // created on first spill
+    private Path spillDirectory;
+    private final ReentrantLock spillLock = new ReentrantLock();
+
+    FactoryContext(Settings settings, TestLoggerFactory factory) {
+        this.settings = settings;
+        this.factory = factory;
+        this.analysis = settings.analysisThreshold > 0 ? new CallSiteAnalysis(settings.analysisThreshold) : null;
+        this.console = settings.printInBackground ? new ConsoleWriter() : null;
+        this.aggregator = settings.aggregateDirectory != null ? Aggregator.forDirectory(settings.aggregateDirectory) : null;
+    }
+
+    CaptureStore newStore(Settings settings, String logName) {
+        if (settings.spillThreshold > 0)
+            return new SpillStore(this, logName, settings.spillThreshold);
+        if (settings.columnarCapture)
+            return new ColumnarStore(logName, threadNames);
+        return new HeapStore();
+    }
+
+    /* a temp directory of this factory's own for spill segments */
+    Path spillDirectory() throws IOException {
+        // a lock rather than a monitor as this is file I/O on a logging thread
+        spillLock.lock();
+        try {
+            if (spillDirectory == null) {
+                Path parent = settings.spillDirectory != null
+                        ? settings.spillDirectory
+                        : Paths.get(System.getProperty("java.io.tmpdir"));
+                Files.createDirectories(parent);
+                spillDirectory = Files.createTempDirectory(parent, "slf4jtest-");
+                // the segments in it are deleted as they are dropped and by close(), not registered one by one
+                spillDirectory.toFile().deleteOnExit();
+            }
+            return spillDirectory;
+        } finally {
+            spillLock.unlock();
+        }
+    }
+
+    /* the message for a failed assertion; with Settings.dumpOnFailure the capture is exported first and the message
+     * says where to find it
+     */
+    String failure(String message) {
+        if (settings.dumpDirectory == null)
+            return message;
+
+        // created up front with a unique name, as other factories and forked JVMs may dump to the same directory
+        String prefix = "slf4jtest-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + "-";
+        Path file = settings.dumpDirectory.resolve(prefix + "*.jsonl");
+        try {
+            Files.createDirectories(settings.dumpDirectory);
+            file = Files.createTempFile(settings.dumpDirectory, prefix, ".jsonl");
+            factory.export(file, ExportFormat.JsonLines);
+            return message + System.lineSeparator() + "captured logging written to " + file.toAbsolutePath();
+        } catch (RuntimeException | IOException e) {
+            return message + System.lineSeparator() + "captured logging could not be written to " + file + ": " + e;
+        }
+    }
+
+    /* remove the spill directory, the stores must have been cleared first; any segment they could not delete goes too */
+    void close() {
+        spillLock.lock();
+        try {
+            if (spillDirectory == null)
+                return;
+            try (DirectoryStream<Path> left = Files.newDirectoryStream(spillDirectory)) {
+                for (Path segment : left) {
+                    Files.deleteIfExists(segment);
+                }
+            }
+            Files.deleteIfExists(spillDirectory);
+            spillDirectory = null;
+        } catch (IOException e) {
+            throw new UncheckedIOException("cannot delete " + spillDirectory, e);
+        } finally {
+            spillLock.unlock();
+        }
+    }
+}
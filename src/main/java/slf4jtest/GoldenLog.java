@@ -0,0 +1,171 @@
+package slf4jtest;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/* Compares the capture, normalised line by line, with a golden file, see TestLoggerFactory.assertMatchesGolden.
+ *
+ * Both sides are streamed: messages are normalised as they are read and the golden file is memory-mapped and decoded a
+ * line at a time, so neither is held in memory. Lines are compared in step, there is no realignment, so a line added
+ * or dropped part way through shows as differences from there on; the comparison stops at the first few.
+ * Golden files are UTF-8 with one line per line of normalised text; \r\n line ends are accepted so a checkout on
+ * Windows still matches.
+ */
+final class GoldenLog {
+    static final int MaxDifferences = 5;
+    // matching lines shown before a difference
+    static final int ContextLines = 2;
+
+    private GoldenLog() {
+    }
+
+    /* writes the normalised capture as a golden file, returning the number of lines */
+    static long write(Iterator<LogMessage> rows, LogNormaliser normaliser, long startTime, Path golden) throws IOException {
+        Path parent = golden.toAbsolutePath().getParent();
+        if (parent != null)
+            Files.createDirectories(parent);
+        CapturedLines actual = new CapturedLines(rows, normaliser, startTime);
+        long lines = 0;
+        try (BufferedWriter out = Files.newBufferedWriter(golden, StandardCharsets.UTF_8)) {
+            for (String line = actual.next(); line != null; line = actual.next()) {
+                out.write(line);
+                out.write('\n');
+                lines++;
+            }
+        }
+        return lines;
+    }
+
+    /* the failure, or null if the normalised capture matches the golden file */
+    static String compare(Iterator<LogMessage> rows, LogNormaliser normaliser, long startTime, Path golden) throws IOException {
+        GoldenLines expected = new GoldenLines(golden);
+        CapturedLines actual = new CapturedLines(rows, normaliser, startTime);
+        ArrayDeque<String> context = new ArrayDeque<>(ContextLines);
+        StringBuilder report = new StringBuilder();
+        int differences = 0;
+        long line = 0;
+
+        while (differences < MaxDifferences) {
+            String e = expected.next();
+            String a = actual.next();
+            line++;
+            if (e == null && a == null)
+                break;
+
+            if (e != null && e.equals(a)) {
+                if (context.size() == ContextLines)
+                    context.removeFirst();
+                context.addLast(e);
+                continue;
+            }
+
+            differences++;
+            report.append(System.lineSeparator()).append("line ").append(line).append(':');
+            for (String c : context) {
+                report.append(System.lineSeparator()).append("    ").append(c);
+            }
+            context.clear();
+            if (e == null) {
+                report.append(System.lineSeparator()).append("  - (end of the golden file, ")
+                        .append(1 + actual.skipRest()).append(" more lines captured)")
+                        .append(System.lineSeparator()).append("  + ").append(a);
+                break;
+            }
+            report.append(System.lineSeparator()).append("  - ").append(e);
+            if (a == null) {
+                report.append(System.lineSeparator()).append("  + (end of the capture, ")
+                        .append(1 + expected.skipRest()).append(" more lines expected)");
+                break;
+            }
+            report.append(System.lineSeparator()).append("  + ").append(a);
+        }
+
+        if (differences == 0)
+            return null;
+        String header = "log does not match golden file " + golden + ", showing the first " + differences
+                + (differences == 1 ? " difference" : " differences");
+        return header + report;
+    }
+
+    /* the lines of the normalised capture, a message with line breaks giving several */
+    private static final class CapturedLines {
+        private final Iterator<LogMessage> rows;
+        private final LogNormaliser normaliser;
+        private final long startTime;
+        private String[] pending = new String[0];
+        private int next;
+
+        CapturedLines(Iterator<LogMessage> rows, LogNormaliser normaliser, long startTime) {
+            this.rows = rows;
+            this.normaliser = normaliser;
+            this.startTime = startTime;
+        }
+
+        /* the next line, null at the end */
+        String next() {
+            while (next == pending.length) {
+                if (!rows.hasNext())
+                    return null;
+                pending = normaliser.normalise(rows.next(), startTime).split("\r?\n", -1);
+                next = 0;
+            }
+            return pending[next++];
+        }
+
+        long skipRest() {
+            long n = 0;
+            while (next() != null) {
+                n++;
+            }
+            return n;
+        }
+    }
+
+    /* the lines of a golden file, decoded from a mapping of it. the mapping outlives the channel */
+    private static final class GoldenLines {
+        private final MappedByteBuffer map;
+        private int pos;
+
+        GoldenLines(Path golden) throws IOException {
+            try (FileChannel channel = FileChannel.open(golden, StandardOpenOption.READ)) {
+                long size = channel.size();
+                if (size > Integer.MAX_VALUE)
+                    throw new IOException(golden + " is larger than 2GB");
+                map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+        }
+
+        /* the next line, null at the end; a line end at the very end of the file doesn't start another line */
+        String next() {
+            int limit = map.capacity();
+            if (pos == limit)
+                return null;
+            int end = pos;
+            while (end < limit && map.get(end) != '\n') {
+                end++;
+            }
+            int textEnd = end > pos && map.get(end - 1) == '\r' ? end - 1 : end;
+            ByteBuffer text = map.duplicate();
+            text.limit(textEnd).position(pos);
+            pos = end < limit ? end + 1 : end;
+            return StandardCharsets.UTF_8.decode(text).toString();
+        }
+
+        long skipRest() {
+            long n = 0;
+            while (next() != null) {
+                n++;
+            }
+            return n;
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package slf4jtest;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/* The default CaptureStore, holding the LogMessages themselves.
+ * Appends reserve a row number with a single atomic increment and fill the slot in a chunk, so concurrent loggers
+ * don't contend; a reserved row that hasn't been filled yet is skipped by readers. Growing takes a lock rather than a
+ * monitor so that a virtual thread waiting on it can unmount.
+ * clearUpTo hides rows below a sequence floor and lets go of chunks with nothing left in them. The chunk array is
+ * replaced rather than changed so that views taken by upTo keep what they saw.
+ */
+class HeapStore implements CaptureStore {
+    static final int ChunkBits = 10;
+    static final int ChunkSize = 1 << ChunkBits;
+
+    private final AtomicLong next = new AtomicLong();
+    private final ReentrantLock lock = new ReentrantLock();
+    private volatile AtomicReferenceArray<LogMessage>[] chunks = chunks(0);
+    // rows with a sequence up to the floor have been cleared by clearUpTo, removed of them
+    private volatile long floor;
+    private volatile long removed;
+
+    public long append(LogMessage message) {
+        long row = next.getAndIncrement();
+        chunk(row).set((int) (row & (ChunkSize - 1)), message);
+        return row;
+    }
+
+    private AtomicReferenceArray<LogMessage> chunk(long row) {
+        int c = (int) (row >>> ChunkBits);
+        AtomicReferenceArray<LogMessage>[] current = chunks;
+        if (c < current.length && current[c] != null)
+            return current[c];
+        return grow(c);
+    }
+
+    private AtomicReferenceArray<LogMessage> grow(int c) {
+        lock.lock();
+        try {
+            AtomicReferenceArray<LogMessage>[] current = chunks;
+            if (c >= current.length) {
+                AtomicReferenceArray<LogMessage>[] grown = chunks(Math.max(c + 1, current.length * 2));
+                System.arraycopy(current, 0, grown, 0, current.length);
+                for (int i = current.length; i < grown.length; i++) {
+                    grown[i] = new AtomicReferenceArray<>(ChunkSize);
+                }
+                chunks = grown;
+                current = grown;
+            } else if (current[c] == null) {
+                // let go of by clearUpTo, and wanted again after a reset
+                current = current.clone();
+                current[c] = new AtomicReferenceArray<>(ChunkSize);
+                chunks = current;
+            }
+            return current[c];
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public LogMessage get(long row) {
+        return read(chunks, floor, Long.MAX_VALUE, row);
+    }
+
+    private static LogMessage read(AtomicReferenceArray<LogMessage>[] chunks, long floor, long cut, long row) {
+        int c = (int) (row >>> ChunkBits);
+        if (row < 0 || c >= chunks.length || chunks[c] == null)
+            return null;
+        LogMessage m = chunks[c].get((int) (row & (ChunkSize - 1)));
+        return m != null && m.sequence > floor && m.sequence <= cut ? m : null;
+    }
+
+    public long size() {
+        return next.get() - removed;
+    }
+
+    public long end() {
+        return next.get();
+    }
+
+    public Iterator<LogMessage> iterator() {
+        return new Rows(null, 0, Long.MAX_VALUE);
+    }
+
+    public Iterable<LogMessage> upTo(long cut) {
+        AtomicReferenceArray<LogMessage>[] frozen = chunks;
+        long rows = next.get();
+        long cleared = floor;
+        return () -> new Rows(frozen, rows, cleared, cut);
+    }
+
+    /* the rows of the live store, or of a frozen set of chunks */
+    private final class Rows implements Iterator<LogMessage> {
+        private final AtomicReferenceArray<LogMessage>[] frozen;
+        private final long end;
+        private final long floor;
+        private final long cut;
+        private long row;
+        private LogMessage nextRow;
+
+        Rows(AtomicReferenceArray<LogMessage>[] frozen, long end, long cut) {
+            this(frozen, end, HeapStore.this.floor, cut);
+        }
+
+        Rows(AtomicReferenceArray<LogMessage>[] frozen, long end, long floor, long cut) {
+            this.frozen = frozen;
+            this.end = end;
+            this.floor = floor;
+            this.cut = cut;
+        }
+
+        public boolean hasNext() {
+            while (nextRow == null && row < (frozen != null ? end : next.get())) {
+                nextRow = frozen != null ? read(frozen, floor, cut, row++) : get(row++);
+            }
+            return nextRow != null;
+        }
+
+        public LogMessage next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            LogMessage m = nextRow;
+            nextRow = null;
+            return m;
+        }
+    }
+
+    public boolean contains(LogLevel level, String substring) {
+        for (LogMessage m : this) {
+            if ((level == null || m.level == level) && m.text.contains(substring))
+                return true;
+        }
+        return false;
+    }
+
+    public void clearUpTo(long cut) {
+        lock.lock();
+        try {
+            clearRowsUpTo(cut);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void clearRowsUpTo(long cut) {
+        long from = floor;
+        if (cut <= from)
+            return;
+
+        long rows = next.get();
+        long count = 0;
+        AtomicReferenceArray<LogMessage>[] current = chunks;
+        AtomicReferenceArray<LogMessage>[] kept = null;
+        for (int c = 0; c < current.length && (long) c << ChunkBits < rows; c++) {
+            AtomicReferenceArray<LogMessage> chunk = current[c];
+            if (chunk == null)
+                continue;
+            boolean empty = true;
+            for (int i = 0; i < ChunkSize; i++) {
+                LogMessage m = chunk.get(i);
+                if (m == null || m.sequence > cut)
+                    empty = false;
+                else if (m.sequence > from)
+                    count++;
+            }
+            // every slot is filled, so no appender will come back to it
+            if (empty) {
+                if (kept == null)
+                    kept = current.clone();
+                kept[c] = null;
+            }
+        }
+        if (kept != null)
+            chunks = kept;
+        removed += count;
+        floor = cut;
+    }
+
+    /* keeps the chunks; rows left over from before are hidden by the floor until they are written again */
+    public void reset(long cut) {
+        lock.lock();
+        try {
+            next.set(0);
+            removed = 0;
+            floor = Math.max(floor, cut);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void clear() {
+        lock.lock();
+        try {
+            chunks = chunks(0);
+            next.set(0);
+            removed = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static AtomicReferenceArray<LogMessage>[] chunks(int n) {
+        return new AtomicReferenceArray[n];
+    }
+}
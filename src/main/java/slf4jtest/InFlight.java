@@ -0,0 +1,61 @@
+package slf4jtest;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/* Tracks the messages between taking a sequence number and landing in their store, so that a cut can be taken
+ * without stopping the loggers, see TestLoggerFactory.snapshot().
+ *
+ * Loggers count themselves in and out of one of two epochs. cut() reads the sequence, moves new arrivals to the
+ * other epoch and waits for the old one to drain; anything numbered at or below the cut entered before the cut was
+ * read, so in the old epoch, and has been appended once it has drained. A logger that counted itself into an epoch
+ * that moved on meanwhile counts itself out and in again, before it takes a sequence number.
+ *
+ * Each epoch's count is striped by thread, a thread always using the same stripe, so a stripe is never negative and
+ * reading it as zero means nobody on it is in flight. Stripes are a cache line apart.
+ */
+class InFlight {
+    private static final int Stripes = 16;
+    private static final int Spacing = 8;
+
+    private final AtomicLongArray counts = new AtomicLongArray(2 * Stripes * Spacing);
+    private volatile int epoch;
+
+    /* returns the slot to give back to exit() */
+    int enter() {
+        int stripe = (int) Thread.currentThread().getId() & (Stripes - 1);
+        while (true) {
+            int e = epoch;
+            int slot = slot(e & 1, stripe);
+            counts.incrementAndGet(slot);
+            // unchanged, so a cut flipping the epoch from now on will wait for this slot; otherwise a cut may already
+            // have found the slot empty and the next one would only wait for the other epoch
+            if (epoch == e)
+                return slot;
+            counts.decrementAndGet(slot);
+        }
+    }
+
+    void exit(int slot) {
+        counts.decrementAndGet(slot);
+    }
+
+    /* the highest sequence number such that every message up to and including it is in its store */
+    synchronized long cut(AtomicLong sequence) {
+        long cut = sequence.get();
+        int old = epoch & 1;
+        epoch++;
+        for (int stripe = 0; stripe < Stripes; stripe++) {
+            int slot = slot(old, stripe);
+            // a producer can be descheduled mid flight, so give way rather than spin
+            while (counts.get(slot) != 0) {
+                Thread.yield();
+            }
+        }
+        return cut;
+    }
+
+    private static int slot(int epoch, int stripe) {
+        return (epoch * Stripes + stripe) * Spacing;
+    }
+}
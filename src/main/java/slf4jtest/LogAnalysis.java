@@ -0,0 +1,52 @@
+package slf4jtest;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/** The logging call sites seen by an analysing TestLoggerFactory, most expensive first; see Settings.analyse */
+@Data
+public class LogAnalysis {
+    /* ranked by time spent in argument toString(), then by suspected concatenation, then by unparameterised
+     * disabled calls
+     */
+    public final List<CallSiteCost> sites;
+
+    LogAnalysis(List<CallSiteCost> sites) {
+        List<CallSiteCost> ranked = new ArrayList<>(sites);
+        ranked.sort(Comparator.comparingLong((CallSiteCost c) -> c.toStringNanos).reversed()
+                .thenComparing((CallSiteCost c) -> !c.suspectedConcatenation)
+                .thenComparing(Comparator.comparingLong((CallSiteCost c) -> c.unparameterisedDisabledCalls).reversed()));
+        this.sites = Collections.unmodifiableList(ranked);
+    }
+
+    /* the sites suspected of building messages for disabled levels by concatenation */
+    public List<CallSiteCost> suspectedConcatenation() {
+        List<CallSiteCost> suspects = new ArrayList<>();
+        for (CallSiteCost c : sites) {
+            if (c.suspectedConcatenation) suspects.add(c);
+        }
+        return suspects;
+    }
+
+    /* the n most expensive sites */
+    public List<CallSiteCost> top(int n) {
+        return sites.subList(0, Math.min(n, sites.size()));
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-6s %10s %10s %10s %10s %10s %12s %-6s %s%n",
+                "level", "calls", "guarded", "disabled", "unparam", "toStrings", "toStringUs", "concat", "site"));
+        for (CallSiteCost c : sites) {
+            sb.append(String.format("%-6s %10d %10d %10d %10d %10d %12d %-6s %s%n",
+                    c.level, c.calls, c.guardedCalls, c.disabledCalls, c.unparameterisedDisabledCalls,
+                    c.toStringCalls, c.toStringNanos / 1_000, c.suspectedConcatenation ? "yes" : "", c.location));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,73 @@
+package slf4jtest;
+
+/* the log volume assertions.
+ * they read the record time counters rather than the captured rows so checking stays cheap after millions of calls.
+ */
+final class LogBudget {
+
+    private LogBudget() {
+    }
+
+    static void assertAtMostMessages(Iterable<MetricsCounters> counters, long max) {
+        long logged = logged(counters);
+        if (logged > max) {
+            throw new AssertionError("log budget exceeded: " + logged + " messages logged, budget is " + max);
+        }
+    }
+
+    static void assertAtMostMessagesPerOperation(Iterable<MetricsCounters> counters, long operations, double maxPerOperation) {
+        if (operations <= 0) {
+            throw new IllegalArgumentException("operations must be positive but was " + operations);
+        }
+        long logged = logged(counters);
+        if (logged > operations * maxPerOperation) {
+            throw new AssertionError("log budget exceeded: " + logged + " messages logged in " + operations
+                    + " operations, " + ((double) logged / operations) + " per operation, budget is " + maxPerOperation);
+        }
+    }
+
+    static void assertAtMostBytes(Iterable<MetricsCounters> counters, LogLevel atOrAbove, long maxBytes) {
+        long bytes = 0;
+        for (MetricsCounters c : counters) {
+            for (LogLevel l : LogLevel.All) {
+                if (l.ordinal <= atOrAbove.ordinal)
+                    bytes += c.textBytes(l);
+            }
+        }
+        if (bytes > maxBytes) {
+            throw new AssertionError("log budget exceeded: " + bytes + " bytes of text logged at " + atOrAbove
+                    + " and above, budget is " + maxBytes);
+        }
+    }
+
+    /* counts only the dropped calls with a finished message, no {} placeholder and no arguments, see
+     * TestLoggerImpl.dropped; {} formats cost nothing when the level is disabled
+     */
+    static void assertNotCalledWhenDisabled(Iterable<MetricsCounters> counters, LogLevel level) {
+        long built = 0;
+        for (MetricsCounters c : counters) {
+            built += c.builtCount(level);
+        }
+        if (built > 0) {
+            throw new AssertionError(built + " calls were made at " + level + " while it was disabled with a finished"
+                    + " message, eg built by concatenation; guard them with is" + capitalised(level) + "Enabled()"
+                    + " or pass the values as {} arguments so the message is not built");
+        }
+    }
+
+    // whether captured or only counted, the code under test logged them
+    private static long logged(Iterable<MetricsCounters> counters) {
+        long logged = 0;
+        for (MetricsCounters c : counters) {
+            for (LogLevel l : LogLevel.All) {
+                logged += c.capturedCount(l) + c.countedCount(l);
+            }
+        }
+        return logged;
+    }
+
+    private static String capitalised(LogLevel level) {
+        String name = level.toString();
+        return name.charAt(0) + name.substring(1).toLowerCase();
+    }
+}
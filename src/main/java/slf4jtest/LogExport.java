@@ -0,0 +1,180 @@
+package slf4jtest;
+
+import org.slf4j.Marker;
+import org.slf4j.event.KeyValuePair;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/* Writes captured messages to a file one at a time through a FileChannel, so an export never holds more than one
+ * encoded message and the write buffer in memory.
+ *
+ * A binary export is the 8 byte Magic followed by RecordCodec records and an int 0.
+ */
+final class LogExport {
+    // "SLF4JT" and a format version
+    static final long Magic = 0x534c46344a540002L;
+    private static final int BufferSize = 64 * 1024;
+
+    private LogExport() {
+    }
+
+    /* returns the number of messages written */
+    static long write(Iterator<LogMessage> rows, Path file, ExportFormat format) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BufferSize);
+            if (format == ExportFormat.Binary)
+                buffer.putLong(Magic);
+
+            StringBuilder json = new StringBuilder();
+            long written = 0;
+            while (rows.hasNext()) {
+                LogMessage m = rows.next();
+                if (format == ExportFormat.Binary) {
+                    put(channel, buffer, RecordCodec.encode(m));
+                } else {
+                    json.setLength(0);
+                    json(m, json).append('\n');
+                    put(channel, buffer, ByteBuffer.wrap(json.toString().getBytes(StandardCharsets.UTF_8)));
+                }
+                written++;
+            }
+            if (format == ExportFormat.Binary)
+                put(channel, buffer, ByteBuffer.allocate(4).putInt(0).flip());
+
+            buffer.flip();
+            drain(channel, buffer);
+            return written;
+        }
+    }
+
+    private static void put(FileChannel channel, ByteBuffer buffer, ByteBuffer bytes) throws IOException {
+        if (bytes.remaining() > buffer.remaining()) {
+            buffer.flip();
+            drain(channel, buffer);
+            buffer.clear();
+            if (bytes.remaining() > buffer.remaining()) {
+                // bigger than the buffer, write it as it is
+                drain(channel, bytes);
+                return;
+            }
+        }
+        buffer.put(bytes);
+    }
+
+    private static void drain(FileChannel channel, ByteBuffer bytes) throws IOException {
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+    }
+
+    static StringBuilder json(LogMessage m, StringBuilder out) {
+        out.append("{\"seq\":").append(m.sequence)
+                .append(",\"time\":").append(m.timeStamp)
+                .append(",\"level\":\"").append(m.level).append('"')
+                .append(",\"logger\":");
+        string(m.logName, out).append(",\"thread\":");
+        string(m.threadName, out).append(",\"threadId\":").append(m.threadId);
+        if (m.virtualThread)
+            out.append(",\"virtual\":true");
+        out.append(",\"text\":");
+        string(m.text, out);
+
+        if (!m.mdc.isEmpty()) {
+            out.append(",\"mdc\":{");
+            String sep = "";
+            for (Map.Entry<String, String> e : m.mdc.entrySet()) {
+                out.append(sep);
+                string(e.getKey(), out).append(':');
+                string(e.getValue(), out);
+                sep = ",";
+            }
+            out.append('}');
+        }
+        if (!m.markers.isEmpty()) {
+            out.append(",\"markers\":[");
+            String sep = "";
+            for (Marker marker : m.markers) {
+                out.append(sep);
+                string(marker.getName(), out);
+                sep = ",";
+            }
+            out.append(']');
+        }
+        if (!m.arguments.isEmpty()) {
+            out.append(",\"arguments\":");
+            strings(m.arguments, out);
+        }
+        if (!m.keyValuePairs.isEmpty()) {
+            out.append(",\"keyValues\":{");
+            String sep = "";
+            for (KeyValuePair kv : m.keyValuePairs) {
+                out.append(sep);
+                string(kv.key, out).append(':');
+                string(String.valueOf(kv.value), out);
+                sep = ",";
+            }
+            out.append('}');
+        }
+        if (m.callerLocation != null) {
+            CallerLocation c = m.callerLocation;
+            out.append(",\"caller\":{\"class\":");
+            string(c.getClassName(), out).append(",\"method\":");
+            string(c.getMethodName(), out).append(",\"file\":");
+            string(c.getFileName(), out).append(",\"line\":").append(c.getLineNumber()).append('}');
+        }
+        return out.append('}');
+    }
+
+    private static void strings(List<Object> values, StringBuilder out) {
+        out.append('[');
+        String sep = "";
+        for (Object v : values) {
+            out.append(sep);
+            string(String.valueOf(v), out);
+            sep = ",";
+        }
+        out.append(']');
+    }
+
+    static StringBuilder string(String s, StringBuilder out) {
+        if (s == null)
+            return out.append("null");
+        out.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        out.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+            }
+        }
+        return out.append('"');
+    }
+}
@@ -0,0 +1,246 @@
+package slf4jtest;
+
+import org.slf4j.Marker;
+import org.slf4j.event.KeyValuePair;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.TemporalAccessor;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/** The layout of a plain text log, for TestLoggerFactory.replay.
+ *
+ * Written as a logback style pattern, eg "%d{yyyy-MM-dd HH:mm:ss.SSS} %-5level [%thread] %logger - %msg%n".
+ * Understood conversions are %d / %date with an optional DateTimeFormatter pattern (local time zone), %r / %relative,
+ * %p / %le / %level, %t / %thread, %c / %lo / %logger, %m / %msg / %message and %X{key} / %mdc{key};
+ * any other conversion matches loosely and is ignored. A date with only a time of day, eg %d{HH:mm:ss.SSS}, is
+ * taken to be on 1970-01-01, and one with only a day at its midnight. Lines that don't match the layout, or whose
+ * date doesn't parse, eg stack traces, are appended to the text of the message before them.
+ */
+public class LogLayout {
+    private static final Pattern Conversion = Pattern.compile("%(-?\\d+)?(\\.-?\\d+)?([a-zA-Z]+)(\\{([^}]*)\\})?");
+    private static final String DefaultDate = "yyyy-MM-dd HH:mm:ss,SSS";
+
+    /* the layout TestLogger prints to the console */
+    public static final LogLayout Console = of("%r %level [%thread] %logger - %msg");
+
+    private final String pattern;
+    private final Pattern regex;
+    private final DateTimeFormatter dateFormat;
+    private final List<String> mdcKeys;
+    private final Set<String> groups;
+
+    private LogLayout(String pattern, Pattern regex, DateTimeFormatter dateFormat, List<String> mdcKeys, Set<String> groups) {
+        this.pattern = pattern;
+        this.regex = regex;
+        this.dateFormat = dateFormat;
+        this.mdcKeys = mdcKeys;
+        this.groups = groups;
+    }
+
+    public static LogLayout of(String pattern) {
+        StringBuilder regex = new StringBuilder("^");
+        DateTimeFormatter dateFormat = null;
+        List<String> mdcKeys = new ArrayList<>();
+        List<String> groups = new ArrayList<>();
+
+        Matcher m = Conversion.matcher(pattern);
+        int literal = 0;
+        while (m.find()) {
+            regex.append(literal(pattern.substring(literal, m.start())));
+            literal = m.end();
+
+            boolean padded = m.group(1) != null || m.group(2) != null;
+            String word = m.group(3);
+            String option = m.group(5);
+            String group;
+            switch (word) {
+                case "d":
+                case "date":
+                    group = "(?<date>.+?)";
+                    dateFormat = DateTimeFormatter.ofPattern(
+                            option == null || option.isEmpty() || option.equals("ISO8601") ? DefaultDate : option);
+                    break;
+                case "r":
+                case "relative":
+                    group = "(?<relative>\\d+)";
+                    break;
+                case "p":
+                case "le":
+                case "level":
+                    group = "(?<level>[A-Za-z]+)";
+                    break;
+                case "t":
+                case "thread":
+                    group = "(?<thread>.*?)";
+                    break;
+                case "c":
+                case "lo":
+                case "logger":
+                    group = "(?<logger>\\S+)";
+                    break;
+                case "m":
+                case "msg":
+                case "message":
+                    group = "(?<msg>.*)";
+                    break;
+                case "X":
+                case "mdc":
+                    if (option == null || option.isEmpty()) {
+                        group = ".*?";
+                    } else {
+                        group = "(?<mdc" + mdcKeys.size() + ">.*?)";
+                        mdcKeys.add(option.split(":-")[0]);
+                    }
+                    break;
+                case "n":
+                    group = "";
+                    break;
+                default:
+                    group = ".*?";
+            }
+            String name = group.startsWith("(?<") ? group.substring(3, group.indexOf('>')) : null;
+            if (name != null) {
+                if (groups.contains(name))
+                    throw new IllegalArgumentException("%" + word + " appears twice in " + pattern);
+                groups.add(name);
+            }
+            regex.append(padded ? " *" + group + " *" : group);
+        }
+        regex.append(literal(pattern.substring(literal)));
+        regex.append("$");
+
+        if (!groups.contains("msg"))
+            throw new IllegalArgumentException("no %msg in " + pattern);
+        return new LogLayout(pattern, Pattern.compile(regex.toString(), Pattern.DOTALL), dateFormat,
+                Collections.unmodifiableList(mdcKeys), new HashSet<>(groups));
+    }
+
+    private static String literal(String s) {
+        s = s.replace("%%", "%");
+        return s.isEmpty() ? "" : Pattern.quote(s);
+    }
+
+    /* a parser for one log; not thread safe */
+    Parser parser() {
+        return new Parser();
+    }
+
+    class Parser {
+        private final Map<String, String> names = new LinkedHashMap<>();
+        private String lastDate;
+        private long lastTime;
+
+        /* the fields of a line that starts a message, null for a continuation line */
+        Matcher match(String line) {
+            Matcher m = regex.matcher(line);
+            if (!m.matches())
+                return null;
+            try {
+                time(m);
+            } catch (DateTimeParseException e) {
+                return null;
+            }
+            return m;
+        }
+
+        LogMessage message(Matcher m, String text, long sequence) {
+            String logger = group(m, "logger");
+            String thread = group(m, "thread");
+            String level = group(m, "level");
+
+            Map<String, String> mdc = Collections.emptyMap();
+            if (!mdcKeys.isEmpty()) {
+                mdc = new LinkedHashMap<>();
+                for (int i = 0; i < mdcKeys.size(); i++) {
+                    String value = m.group("mdc" + i);
+                    if (!value.isEmpty())
+                        mdc.put(mdcKeys.get(i), value);
+                }
+                mdc = Collections.unmodifiableMap(mdc);
+            }
+
+            return new LogMessage(
+                    logger != null ? shared(logger) : "",
+                    level != null ? level(level) : LogLevel.InfoLevel,
+                    text,
+                    time(m),
+                    thread != null ? shared(thread) : "", 0, false,
+                    mdc, Collections.<Marker>emptyList(), Collections.emptyList(),
+                    Collections.<KeyValuePair>emptyList(), null, sequence);
+        }
+
+        private String group(Matcher m, String name) {
+            return groups.contains(name) ? m.group(name) : null;
+        }
+
+        // logger and thread names recur on every line
+        private String shared(String name) {
+            String s = names.putIfAbsent(name, name);
+            return s != null ? s : name;
+        }
+
+        private long time(Matcher m) {
+            String relative = group(m, "relative");
+            if (relative != null)
+                return Long.parseLong(relative);
+
+            String date = group(m, "date");
+            if (date == null)
+                return 0;
+            if (!date.equals(lastDate)) {
+                lastTime = dateTime(dateFormat.parseBest(date, LocalDateTime::from, LocalTime::from, LocalDate::from))
+                        .atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+                lastDate = date;
+            }
+            return lastTime;
+        }
+
+        private LocalDateTime dateTime(TemporalAccessor parsed) {
+            if (parsed instanceof LocalTime)
+                return ((LocalTime) parsed).atDate(LocalDate.EPOCH);
+            if (parsed instanceof LocalDate)
+                return ((LocalDate) parsed).atStartOfDay();
+            return (LocalDateTime) parsed;
+        }
+    }
+
+    private static LogLevel level(String name) {
+        switch (name.toUpperCase(Locale.ROOT)) {
+            case "ERROR":
+            case "SEVERE":
+            case "FATAL":
+                return LogLevel.ErrorLevel;
+            case "WARN":
+            case "WARNING":
+                return LogLevel.WarnLevel;
+            case "DEBUG":
+            case "FINE":
+                return LogLevel.DebugLevel;
+            case "TRACE":
+            case "FINER":
+            case "FINEST":
+                return LogLevel.TraceLevel;
+            default:
+                return LogLevel.InfoLevel;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return pattern;
+    }
+}
@@ -1,5 +1,7 @@
 package slf4jtest;
 
+import org.slf4j.event.Level;
+
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -7,34 +9,38 @@ import java.util.List;
 /** enum */
 public abstract class LogLevel {
 
-    private LogLevel() {
+    // position within All, handy for per level lookup tables
+    final int ordinal;
+
+    private LogLevel(int ordinal) {
+        this.ordinal = ordinal;
     }
 
-    public static final LogLevel ErrorLevel = new LogLevel() {
+    public static final LogLevel ErrorLevel = new LogLevel(0) {
         @Override
         public String toString() {
             return "ERROR";
         }
     };
-    public static final LogLevel WarnLevel = new LogLevel() {
+    public static final LogLevel WarnLevel = new LogLevel(1) {
         @Override
         public String toString() {
             return "WARN";
         }
     };
-    public static final LogLevel InfoLevel = new LogLevel() {
+    public static final LogLevel InfoLevel = new LogLevel(2) {
         @Override
         public String toString() {
             return "INFO";
         }
     };
-    public static final LogLevel DebugLevel = new LogLevel() {
+    public static final LogLevel DebugLevel = new LogLevel(3) {
         @Override
         public String toString() {
             return "DEBUG";
         }
     };
-    public static final LogLevel TraceLevel = new LogLevel() {
+    public static final LogLevel TraceLevel = new LogLevel(4) {
         @Override
         public String toString() {
             return "TRACE";
@@ -50,6 +56,17 @@ public abstract class LogLevel {
         throw new IllegalArgumentException("invalid slf4jtest.LogLevel " + name);
     }
 
+    /* the equivalent of an SLF4J 2 event level */
+    static LogLevel from(Level level) {
+        switch (level) {
+            case ERROR: return ErrorLevel;
+            case WARN: return WarnLevel;
+            case INFO: return InfoLevel;
+            case DEBUG: return DebugLevel;
+            default: return TraceLevel;
+        }
+    }
+
     public static final List<LogLevel> All = Collections.unmodifiableList(new ArrayList<LogLevel>() {{
         add(ErrorLevel);
         add(WarnLevel);
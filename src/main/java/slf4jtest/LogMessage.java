@@ -2,18 +2,77 @@ package slf4jtest;
 
 import lombok.Data;
 
+import org.slf4j.Marker;
+import org.slf4j.event.KeyValuePair;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
 @Data
 public class LogMessage {
     public final String logName;
     public final LogLevel level;
     public final String text;
-    public final long timeStamp = System.currentTimeMillis();
-    public final String threadName = Thread.currentThread().getName();
+    public final long timeStamp;
+    public final String threadName;
+    /* Thread.getId() of the logging thread, which unlike the name is set for virtual threads too; 0 if not known */
+    public final long threadId;
+    /* whether the logging thread was a virtual thread */
+    public final boolean virtualThread;
+    /* immutable MDC snapshot, empty unless Settings.captureMdc is enabled; consecutive messages with an
+     * unchanged MDC share the same instance */
+    public final Map<String, String> mdc;
+    /* the markers passed with the logging call, as the same references */
+    public final List<Marker> markers;
+    /* the arguments substituted into the message, unformatted; excludes a trailing Throwable */
+    public final List<Object> arguments;
+    /* key value pairs added through the fluent api, eg atInfo().addKeyValue("orderId", 42); not part of text */
+    public final List<KeyValuePair> keyValuePairs;
+    /* where the logging call was made, null unless Settings.captureCallerLocation is enabled and the call was sampled */
+    public final CallerLocation callerLocation;
+    /* the order in which the factory recorded the message across all its loggers, from 1; 0 if not recorded */
+    public final long sequence;
 
     public LogMessage(String logName, LogLevel level, String formattedMessage) {
+        this(logName, level, formattedMessage, System.currentTimeMillis(), Thread.currentThread(),
+                Collections.<String, String>emptyMap(), Collections.<Marker>emptyList(),
+                Collections.emptyList(), Collections.<KeyValuePair>emptyList(), null, 0);
+    }
+
+    LogMessage(String logName, LogLevel level, String formattedMessage, long timeStamp, Thread thread,
+               Map<String, String> mdc, List<Marker> markers,
+               List<Object> arguments, List<KeyValuePair> keyValuePairs, CallerLocation callerLocation, long sequence) {
+        this(logName, level, formattedMessage, timeStamp, thread.getName(), Threads.id(thread), Threads.isVirtual(thread),
+                mdc, markers, arguments, keyValuePairs, callerLocation, sequence);
+    }
+
+    LogMessage(String logName, LogLevel level, String formattedMessage, long timeStamp,
+               String threadName, long threadId, boolean virtualThread,
+               Map<String, String> mdc, List<Marker> markers,
+               List<Object> arguments, List<KeyValuePair> keyValuePairs, CallerLocation callerLocation, long sequence) {
         this.logName = logName;
         this.level = level;
         this.text = formattedMessage;
+        this.timeStamp = timeStamp;
+        this.threadName = threadName;
+        this.threadId = threadId;
+        this.virtualThread = virtualThread;
+        this.mdc = mdc;
+        this.markers = markers;
+        this.arguments = arguments;
+        this.keyValuePairs = keyValuePairs;
+        this.callerLocation = callerLocation;
+        this.sequence = sequence;
+    }
+
+    /* the value of the first key value pair with the given key, or null */
+    public Object keyValue(String key) {
+        for (KeyValuePair kv : keyValuePairs) {
+            if (kv.key.equals(key))
+                return kv.value;
+        }
+        return null;
     }
 
     @Override
@@ -0,0 +1,67 @@
+package slf4jtest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/** How captured messages are turned into the lines of a golden file, see TestLoggerFactory.assertMatchesGolden.
+ *
+ * A line is laid out as on the console, "time LEVEL [thread] logger - text", a message with line breaks in its text
+ * giving several lines. The standard normaliser writes the time as &lt;time&gt; and the thread as &lt;thread&gt;, as
+ * both change from run to run; replace(regex, replacement) masks anything else that does, eg generated ids.
+ */
+public class LogNormaliser {
+    private final boolean keepTimes;
+    private final boolean keepThreads;
+    private final List<Pattern> patterns;
+    private final List<String> replacements;
+
+    private LogNormaliser(boolean keepTimes, boolean keepThreads, List<Pattern> patterns, List<String> replacements) {
+        this.keepTimes = keepTimes;
+        this.keepThreads = keepThreads;
+        this.patterns = Collections.unmodifiableList(patterns);
+        this.replacements = Collections.unmodifiableList(replacements);
+    }
+
+    public static LogNormaliser standard() {
+        return new LogNormaliser(false, false, new ArrayList<Pattern>(), new ArrayList<String>());
+    }
+
+    /* keep the milliseconds since the factory started, as the console shows them */
+    public LogNormaliser keepTimes() {
+        return new LogNormaliser(true, keepThreads, patterns, replacements);
+    }
+
+    /* keep thread names, eg for a component whose threads are named deterministically */
+    public LogNormaliser keepThreadNames() {
+        return new LogNormaliser(keepTimes, true, patterns, replacements);
+    }
+
+    /* replace every match of the regex in each line, as String.replaceAll, after any earlier replacements */
+    public LogNormaliser replace(String regex, String replacement) {
+        List<Pattern> newPatterns = new ArrayList<>(patterns);
+        newPatterns.add(Pattern.compile(regex));
+        List<String> newReplacements = new ArrayList<>(replacements);
+        newReplacements.add(replacement);
+
+        return new LogNormaliser(keepTimes, keepThreads, newPatterns, newReplacements);
+    }
+
+    /* the normalised message, possibly several lines */
+    String normalise(LogMessage message, long startTime) {
+        String thread = keepThreads ? LoggerExtensionsImpl.threadName(message) : "<thread>";
+        String line = keepTimes
+                ? LoggerExtensionsImpl.layout(message, message.timeStamp - startTime, thread)
+                : LoggerExtensionsImpl.layout(message, "<time>", thread);
+        for (int i = 0; i < patterns.size(); i++) {
+            line = patterns.get(i).matcher(line).replaceAll(replacements.get(i));
+        }
+        return line;
+    }
+
+    @Override
+    public String toString() {
+        return "LogNormaliser(keepTimes=" + keepTimes + ", keepThreadNames=" + keepThreads + ", replace=" + patterns + ")";
+    }
+}
@@ -0,0 +1,58 @@
+package slf4jtest;
+
+import java.util.Iterator;
+import java.util.List;
+
+/* the ordering assertions, see TestLoggerFactory.assertSequence and assertNotBetween.
+ * each is a small state machine fed the capture of all loggers once, in the order it was logged, that stops reading
+ * as soon as the answer is known. they return why they failed, or null, so the factory can dump before throwing.
+ */
+final class LogOrder {
+
+    private LogOrder() {
+    }
+
+    static String sequence(Iterator<LogMessage> rows, List<Predicate<LogMessage>> steps) {
+        int step = 0;
+        LogMessage last = null;
+        while (step < steps.size() && rows.hasNext()) {
+            LogMessage row = rows.next();
+            if (steps.get(step).matches(row)) {
+                step++;
+                last = row;
+            }
+        }
+        if (step == steps.size())
+            return null;
+
+        String failure = "sequence not logged: step " + (step + 1) + " of " + steps.size() + " " + steps.get(step)
+                + " was not matched";
+        if (last != null)
+            failure += " by any message after step " + step + " matched " + describe(last);
+        return failure;
+    }
+
+    // a window opened by start and not yet closed by end runs to the end of the capture
+    static String notBetween(Iterator<LogMessage> rows, Predicate<LogMessage> start, Predicate<LogMessage> unwanted,
+                             Predicate<LogMessage> end) {
+        LogMessage opened = null;
+        while (rows.hasNext()) {
+            LogMessage row = rows.next();
+            if (opened != null) {
+                if (end.matches(row)) {
+                    opened = null;
+                } else if (unwanted.matches(row)) {
+                    return describe(row) + " matched " + unwanted + " between " + describe(opened) + " matching "
+                            + start + " and the next message matching " + end;
+                }
+            }
+            if (opened == null && start.matches(row))
+                opened = row;
+        }
+        return null;
+    }
+
+    private static String describe(LogMessage m) {
+        return "#" + m.sequence + " " + m.logName + " " + m.level + " \"" + m.text + "\"";
+    }
+}
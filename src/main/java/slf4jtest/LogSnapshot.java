@@ -0,0 +1,96 @@
+package slf4jtest;
+
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/** Everything the loggers of a TestLoggerFactory had captured as of one instant, see TestLoggerFactory.snapshot().
+ * It holds every message with a LogMessage.sequence up to and including the snapshot's sequence and nothing later,
+ * whatever the loggers do afterwards, including clear().
+ */
+public class LogSnapshot {
+    /* the last message numbered before the snapshot was taken */
+    public final long sequence;
+
+    // by logger name
+    private final Map<String, Iterable<LogMessage>> loggers;
+
+    LogSnapshot(long sequence, Map<String, Iterable<LogMessage>> loggers) {
+        this.sequence = sequence;
+        this.loggers = loggers;
+    }
+
+    public Set<String> loggerNames() {
+        return loggers.keySet();
+    }
+
+    /* the messages of every logger in the order they were logged */
+    public Collection<LogMessage> lines() {
+        return view(new ArrayList<>(loggers.values()));
+    }
+
+    /* the messages of one logger, empty if it hadn't been created */
+    public Collection<LogMessage> lines(String logName) {
+        Iterable<LogMessage> rows = loggers.get(logName);
+        return view(rows != null ? Collections.singletonList(rows) : Collections.<Iterable<LogMessage>>emptyList());
+    }
+
+    // read only and read as iterated, as the stores may build each LogMessage as it is read
+    private static Collection<LogMessage> view(List<Iterable<LogMessage>> sources) {
+        return new AbstractCollection<LogMessage>() {
+            private int size = -1;
+
+            public Iterator<LogMessage> iterator() {
+                return new SequencedRows(sources);
+            }
+
+            public int size() {
+                if (size < 0) {
+                    int n = 0;
+                    for (Iterable<LogMessage> rows : sources) {
+                        for (LogMessage ignored : rows) {
+                            n++;
+                        }
+                    }
+                    size = n;
+                }
+                return size;
+            }
+        };
+    }
+
+    public boolean contains(String substring) {
+        return matches(m -> m.text.contains(substring));
+    }
+
+    public boolean contains(LogLevel level, String substring) {
+        return matches(m -> m.level == level && m.text.contains(substring));
+    }
+
+    /* Pattern.DOTALL style, as LoggerExtensions.matches(String) */
+    public boolean matches(String regex) {
+        Pattern pat = Pattern.compile(regex, Pattern.DOTALL);
+        return matches(m -> pat.matcher(m.text).matches());
+    }
+
+    public boolean matches(Predicate<LogMessage> predicate) {
+        for (Iterable<LogMessage> rows : loggers.values()) {
+            for (LogMessage m : rows) {
+                if (predicate.matches(m))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return "LogSnapshot(sequence=" + sequence + ", loggers=" + loggers.keySet() + ")";
+    }
+}
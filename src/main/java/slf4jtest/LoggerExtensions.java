@@ -1,6 +1,7 @@
 package slf4jtest;
 
 import java.util.Collection;
+import java.util.Map;
 import java.util.regex.Pattern;
 
 interface LoggerExtensions {
@@ -8,6 +9,41 @@ interface LoggerExtensions {
     /* access to the underlying detailed LogMessage objects */
     Collection<LogMessage> lines();
 
+    /* the captured LogMessages whose MDC snapshot maps key to value; served from an index rather than a scan.
+     * empty unless Settings.captureMdc is enabled
+     */
+    Collection<LogMessage> linesWithMdc(String key, String value);
+
+    /* the captured LogMessages that carry the given key value pair, compared with equals rather than as text */
+    Collection<LogMessage> linesWithKeyValue(String key, Object value);
+
+    /* the captured LogMessages carrying the named marker, directly or as a reference of one of their markers.
+     * served from an index so only the marked rows are touched
+     */
+    Collection<LogMessage> linesWithMarker(String markerName);
+
+    /* the number of captured LogMessages carrying the named marker, in constant time */
+    long countWithMarker(String markerName);
+
+    /* the number of messages logged with the given format template, the String before any {} were filled in,
+     * including those that were only counted. 0 unless Settings.deduplicateTemplates is on
+     */
+    long countWithTemplate(String template);
+
+    /* the captured samples of the given format template, see Settings.deduplicateTemplates */
+    Collection<LogMessage> linesWithTemplate(String template);
+
+    /* the number of messages logged with each format template, most frequent first, see countWithTemplate */
+    Map<String, Long> templateCounts();
+
+    /* the captured LogMessages with a timeStamp from from to to, inclusive, in milliseconds since the epoch.
+     * served from an index of timestamps so only the rows logged around the window are touched
+     */
+    Collection<LogMessage> linesBetween(long from, long to);
+
+    /* whether a LogMessage with a timeStamp from from to to, inclusive, satisfies the predicate; as linesBetween */
+    boolean matchesBetween(long from, long to, Predicate<LogMessage> predicate);
+
     /* verify that a regex matches the logging of some log level level*/
     boolean matches(Predicate<LogMessage> regex);
 
@@ -30,6 +66,11 @@ interface LoggerExtensions {
     /* verify that a predicate matches */
     boolean assertMatches(Predicate<LogMessage> predicate) throws Error;
 
+    /* verify that a predicate matches; a failure lists the messages closest to the probe, the text the predicate is
+     * after, for predicates such as lambdas whose toString doesn't say, see Settings.nearMatches
+     */
+    boolean assertMatches(Predicate<LogMessage> predicate, String probe) throws Error;
+
     /* verify that the logging for some log level contains the substring.
      * does a String.contains(String) style comparison
      */
@@ -40,6 +81,26 @@ interface LoggerExtensions {
      */
     boolean contains(LogLevel level, String substring);
 
-    /* erase the captured logging */
+    /* fail if more than max messages were captured since the last clear().
+     * like the other budget assertions this reads counters kept at record time, so it is cheap however much was logged
+     */
+    void assertAtMostMessages(long max) throws Error;
+
+    /* fail if the messages captured since the last clear() exceed maxPerOperation for each of the given operations */
+    void assertAtMostMessagesPerOperation(long operations, double maxPerOperation) throws Error;
+
+    /* fail if the formatted text captured at the given level and the more severe ones exceeds maxBytes,
+     * UTF-8 encoded
+     */
+    void assertAtMostBytes(LogLevel atOrAbove, long maxBytes) throws Error;
+
+    /* fail if anything was logged at the level while it was disabled with a finished message, one with no {}
+     * placeholder and no arguments. such calls were dropped, so any message text the caller built for them, eg by
+     * concatenation, was wasted work; {} formats with their arguments cost nothing and pass. a constant message is
+     * counted too, as it can't be told apart from a built one when it arrives
+     */
+    void assertNotCalledWhenDisabled(LogLevel level) throws Error;
+
+    /* erase the captured logging, and restart the metrics */
     void clear();
 }
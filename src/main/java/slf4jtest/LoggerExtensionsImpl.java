@@ -1,81 +1,287 @@
 package slf4jtest;
 
+import org.slf4j.Marker;
+import org.slf4j.event.KeyValuePair;
+
 import java.io.PrintStream;
+import java.util.AbstractCollection;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.regex.Pattern;
 
 class LoggerExtensionsImpl implements LoggerExtensions {
-    private final Settings settings;
-    private final long startTime;
-    private final Queue<LogMessage> rows = new ConcurrentLinkedQueue<>();
+    final Settings settings;
+    final String logName;
+    private final FactoryContext context;
+    final CaptureStore rows;
+    // a message's sequence is taken with its row so a logger's rows are in sequence order, as SequencedRows needs
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private final MdcSnapshots mdcSnapshots;
+    private final MdcIndex mdcIndex = new MdcIndex();
+    private final MarkerIndex markerIndex = new MarkerIndex();
+    private final TimeIndex timeIndex = new TimeIndex();
+    // null unless Settings.deduplicateTemplates is on
+    private final Templates templates;
+    // by LogLevel.ordinal, null where there is no Settings.capturePolicy
+    private final CapturePolicy[] policies = new CapturePolicy[LogLevel.All.size()];
+    private final CapturePolicy.Sampler[] samplers = new CapturePolicy.Sampler[LogLevel.All.size()];
+    private final CallerLocations callerLocations;
+    final MetricsCounters metrics;
 
-    LoggerExtensionsImpl(Settings settings, long startTime) {
+    LoggerExtensionsImpl(Settings settings, String logName, FactoryContext context) {
         this.settings = settings;
-        this.startTime = startTime;
+        this.logName = logName;
+        this.context = context;
+        this.rows = context.newStore(settings, logName);
+        this.mdcSnapshots = settings.mdcAdapter != null ? new MdcSnapshots(settings.mdcAdapter) : null;
+        int everyNth = settings.callerLocationEveryNth(logName);
+        this.callerLocations = everyNth > 0 ? new CallerLocations(everyNth) : null;
+        this.metrics = new MetricsCounters(settings.printSuppressions.size());
+        this.templates = settings.templateSamples > 0 ? new Templates(settings.templateSamples) : null;
+        for (LogLevel l : LogLevel.All) {
+            policies[l.ordinal] = settings.capturePolicy(logName, l);
+        }
+        restartSamplers();
+    }
+
+    private void restartSamplers() {
+        for (int l = 0; l < policies.length; l++) {
+            samplers[l] = policies[l] != null ? policies[l].sampler() : null;
+        }
     }
 
-    void record(LogMessage message) {
-        doLogging(message);
+    /* apply the level's Settings.capturePolicy and Settings.deduplicateTemplates, before anything else is done with a
+     * message; false if it is only to be counted, in which case it is not recorded, and not even formatted unless the
+     * level is printed. the policies decide what is captured, never what reaches the console
+     */
+    boolean captures(LogLevel level, String template) {
+        CapturePolicy.Sampler sampler = samplers[level.ordinal];
+        if (sampler != null && !sampler.capture()) {
+            if (templates != null)
+                templates.counted(template);
+        } else if (templates == null || templates.occurred(template)) {
+            return true;
+        }
+        metrics.counted(level);
+        return false;
+    }
+
+    /* capture and print a message; one that is only counted is printed, without a row or a sequence */
+    void record(boolean capture, LogLevel level, String template, String text, List<Marker> markers, List<Object> arguments, List<KeyValuePair> keyValuePairs) {
+        if (!settings.isEnabled(level))
+            return;
+
+        Map<String, String> mdc = mdcSnapshots != null ? mdcSnapshots.capture() : Collections.<String, String>emptyMap();
+        if (!capture) {
+            doConsole(new LogMessage(logName, level, text, System.currentTimeMillis(), Thread.currentThread(),
+                    mdc, markers, arguments, keyValuePairs, null, 0));
+            return;
+        }
+        CallerLocation caller = callerLocations != null ? callerLocations.locate() : null;
+        LogMessage message;
+        long row;
+        int slot = context.inFlight.enter();
+        try {
+            appendLock.lock();
+            try {
+                message = new LogMessage(logName, level, text, System.currentTimeMillis(), Thread.currentThread(),
+                        mdc, markers, arguments, keyValuePairs, caller, context.sequence.incrementAndGet());
+                row = rows.append(message);
+            } finally {
+                appendLock.unlock();
+            }
+            doLogging(row, message, template);
+        } finally {
+            context.inFlight.exit(slot);
+        }
+        if (context.aggregator != null)
+            context.aggregator.append(message);
         doConsole(message);
     }
 
-    private void doLogging(LogMessage message) {
-        if (settings.isEnabled(message.level))
-            rows.add(message);
+    /* store a message read back from a log, bypassing the level checks and the console */
+    void replay(LogMessage message) {
+        doLogging(rows.append(message), message, null);
+    }
+
+    /* index a stored row */
+    private void doLogging(long row, LogMessage message, String template) {
+        if (templates != null && template != null)
+            templates.sampled(template, row);
+        metrics.captured(message);
+        timeIndex.add(row, message.timeStamp);
+        if (!message.mdc.isEmpty())
+            mdcIndex.add(row, message.mdc);
+        if (!message.markers.isEmpty())
+            markerIndex.add(row, message.markers);
     }
 
     private void doConsole(LogMessage message) {
-        boolean levelIsEnabled = settings.isEnabled(message.level);
-        boolean messageIsntSuppressed = !isPrintSuppressed(message);
+        // covers printing disabled, level disabled and discarded levels
+        if (!settings.isPrinting(message.level))
+            return;
 
-        if (levelIsEnabled && settings.printingEnabled && messageIsntSuppressed) {
-            PrintStream out = settings.printStreams.get(message.level);
-            out.println(layout(message));
-            out.flush();
+        if (!isPrintSuppressed(message)) {
+            if (context.console != null)
+                context.console.submit(this, message);
+            else
+                print(message);
         }
     }
 
+    /* on the logging thread, or on the ConsoleWriter's */
+    void print(LogMessage message) {
+        PrintStream out = settings.printStreams.get(message.level);
+        String line = layout(message);
+
+        long start = System.nanoTime();
+        out.println(line);
+        out.flush();
+        metrics.printed(System.nanoTime() - start);
+    }
+
     private String layout(LogMessage message) {
-        long delta = message.timeStamp - startTime;
-        return delta +
+        return layout(message, message.timeStamp - context.startTime, threadName(message));
+    }
+
+    /* the console line with the time in milliseconds and the thread as given, see LogNormaliser.
+     * the time stays a long so printing doesn't allocate a String for it
+     */
+    static String layout(LogMessage message, long time, String thread) {
+        return time +
                 " " + message.level +
-                " [" + message.threadName + "] " +
+                " [" + thread + "] " +
                 message.logName +
-                " - " + message.text;
+                " - " + keyValues(message) + message.text;
+    }
+
+    /* the console line with a token such as <time> in place of the time */
+    static String layout(LogMessage message, String time, String thread) {
+        return time + layout(message, 0, thread).substring(1);
+    }
+
+    // virtual threads are usually unnamed
+    static String threadName(LogMessage message) {
+        if (!message.threadName.isEmpty())
+            return message.threadName;
+        return (message.virtualThread ? "virtual-" : "#") + message.threadId;
+    }
+
+    private static String keyValues(LogMessage message) {
+        if (message.keyValuePairs.isEmpty())
+            return "";
+        StringBuilder sb = new StringBuilder();
+        for (KeyValuePair kv : message.keyValuePairs) {
+            sb.append(kv.key).append('=').append(kv.value).append(' ');
+        }
+        return sb.toString();
     }
 
     private boolean isPrintSuppressed(LogMessage msg) {
-        for (Predicate<LogMessage> predicate : settings.printSuppressions) {
-            if (predicate.matches(msg))
+        List<Predicate<LogMessage>> suppressions = settings.printSuppressions;
+        for (int rule = 0; rule < suppressions.size(); rule++) {
+            if (suppressions.get(rule).matches(msg)) {
+                metrics.suppressed(rule);
                 return true;
+            }
         }
         return false;
     }
 
     public Collection<LogMessage> lines() {
-        return Collections.unmodifiableCollection(rows);
+        // a live read only view, as the store may build each LogMessage as it is read
+        return new AbstractCollection<LogMessage>() {
+            public Iterator<LogMessage> iterator() {
+                return rows.iterator();
+            }
+
+            public int size() {
+                return (int) Math.min(rows.size(), Integer.MAX_VALUE);
+            }
+        };
+    }
+
+    public Collection<LogMessage> linesWithMdc(String key, String value) {
+        return resolve(mdcIndex.rows(key, value));
+    }
+
+    private Collection<LogMessage> resolve(Collection<Long> rowNumbers) {
+        List<LogMessage> resolved = new ArrayList<>(rowNumbers.size());
+        for (Long row : rowNumbers) {
+            LogMessage m = rows.get(row);
+            if (m != null)
+                resolved.add(m);
+        }
+        return Collections.unmodifiableList(resolved);
+    }
+
+    public Collection<LogMessage> linesWithKeyValue(String key, Object value) {
+        List<LogMessage> matched = new ArrayList<>();
+        for (LogMessage row : rows) {
+            for (KeyValuePair kv : row.keyValuePairs) {
+                if (kv.key.equals(key) && Objects.equals(kv.value, value)) {
+                    matched.add(row);
+                    break;
+                }
+            }
+        }
+        return Collections.unmodifiableList(matched);
+    }
+
+    public Collection<LogMessage> linesWithMarker(String markerName) {
+        return resolve(markerIndex.rows(markerName));
+    }
+
+    public long countWithMarker(String markerName) {
+        return markerIndex.count(markerName);
+    }
+
+    public long countWithTemplate(String template) {
+        return templates != null ? templates.count(template) : 0;
+    }
+
+    public Collection<LogMessage> linesWithTemplate(String template) {
+        return templates != null ? resolve(templates.rows(template)) : Collections.<LogMessage>emptyList();
+    }
+
+    public Map<String, Long> templateCounts() {
+        return templates != null ? Collections.unmodifiableMap(templates.counts()) : Collections.<String, Long>emptyMap();
+    }
+
+    public Collection<LogMessage> linesBetween(long from, long to) {
+        List<LogMessage> found = new ArrayList<>();
+        timeIndex.rows(from, to, row -> {
+            LogMessage m = rows.get(row);
+            if (m != null && m.timeStamp >= from && m.timeStamp <= to)
+                found.add(m);
+            return true;
+        });
+        return Collections.unmodifiableList(found);
+    }
+
+    public boolean matchesBetween(long from, long to, Predicate<LogMessage> predicate) {
+        return !timeIndex.rows(from, to, row -> {
+            LogMessage m = rows.get(row);
+            return m == null || m.timeStamp < from || m.timeStamp > to || !predicate.matches(m);
+        });
     }
 
     /*
     * does a String.contains(String) style comparison
     */
     public boolean contains(String substring) {
-        return matches(new Predicate<LogMessage>() {
-            public boolean matches(LogMessage lm) {
-                return lm.text.contains(substring);
-            }
-        });
+        return rows.contains(null, substring);
     }
 
     public boolean contains(LogLevel level, String substring) {
-        return matches(new Predicate<LogMessage>() {
-            public boolean matches(LogMessage lm) {
-                return lm.text.contains(substring) && lm.level == level;
-            }
-        });
+        return rows.contains(level, substring);
     }
 
     public boolean matches(final String regex) {
@@ -115,14 +321,78 @@ class LoggerExtensionsImpl implements LoggerExtensions {
     }
 
     public boolean assertMatches(Predicate<LogMessage> predicate) throws Error {
+        return assertMatches(predicate, null);
+    }
+
+    public boolean assertMatches(Predicate<LogMessage> predicate, String probe) throws Error {
         boolean matched = matches(predicate);
         if (!matched) {
-            throw new AssertionError("did not match " + predicate.toString());
+            throw new AssertionError(context.failure("did not match " + predicate.toString()
+                    + settings.nearMatches.report(rows.iterator(), tail(settings.nearMatches.count).iterator(),
+                    predicate, probe)));
         }
         return true;
     }
 
+    /* up to the last n rows, oldest first, read back from the end so no more than that are decoded */
+    List<LogMessage> tail(int n) {
+        ArrayDeque<LogMessage> tail = new ArrayDeque<>();
+        long end = rows.end();
+        long first = end - rows.size();
+        for (long row = end - 1; row >= first && tail.size() < n; row--) {
+            // null while in flight
+            LogMessage m = rows.get(row);
+            if (m != null)
+                tail.addFirst(m);
+        }
+        return new ArrayList<>(tail);
+    }
+
+    public void assertAtMostMessages(long max) throws Error {
+        LogBudget.assertAtMostMessages(Collections.singletonList(metrics), max);
+    }
+
+    public void assertAtMostMessagesPerOperation(long operations, double maxPerOperation) throws Error {
+        LogBudget.assertAtMostMessagesPerOperation(Collections.singletonList(metrics), operations, maxPerOperation);
+    }
+
+    public void assertAtMostBytes(LogLevel atOrAbove, long maxBytes) throws Error {
+        LogBudget.assertAtMostBytes(Collections.singletonList(metrics), atOrAbove, maxBytes);
+    }
+
+    public void assertNotCalledWhenDisabled(LogLevel level) throws Error {
+        LogBudget.assertNotCalledWhenDisabled(Collections.singletonList(metrics), level);
+    }
+
+    /* drop the rows with a sequence up to and including cut, keeping anything logged since; the metrics carry on */
+    synchronized void clearUpTo(long cut) {
+        rows.clearUpTo(cut);
+        mdcIndex.prune(row -> rows.get(row) != null);
+        markerIndex.prune(row -> rows.get(row) != null);
+        if (templates != null)
+            templates.prune(row -> rows.get(row) != null);
+    }
+
+    /* clear() for a pooled factory, see TestLoggerFactory.reset */
+    void reset(long cut) {
+        rows.reset(cut);
+        mdcIndex.clear();
+        markerIndex.clear();
+        timeIndex.clear();
+        if (templates != null)
+            templates.clear();
+        metrics.reset();
+        restartSamplers();
+    }
+
     public void clear() {
         rows.clear();
+        mdcIndex.clear();
+        markerIndex.clear();
+        timeIndex.clear();
+        if (templates != null)
+            templates.clear();
+        metrics.reset();
+        restartSamplers();
     }
 }
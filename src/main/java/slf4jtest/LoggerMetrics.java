@@ -0,0 +1,52 @@
+package slf4jtest;
+
+import lombok.Data;
+
+import java.util.List;
+import java.util.Map;
+
+/** A point in time copy of the counters of one TestLogger, see TestLoggerFactory.metrics() */
+@Data
+public class LoggerMetrics {
+    public final String logName;
+    /* messages recorded, per level */
+    public final Map<LogLevel, Long> captured;
+    /* messages logged at an enabled level but only counted, by Settings.deduplicateTemplates or a
+     * Settings.capturePolicy, per level
+     */
+    public final Map<LogLevel, Long> counted;
+    /* messages not recorded because their level was disabled, per level */
+    public final Map<LogLevel, Long> dropped;
+    /* messages kept off the console by each Settings.suppressPrinting rule, in the order the rules were added */
+    public final List<Long> suppressedByRule;
+    /* size of the text of the recorded messages, UTF-8 encoded */
+    public final long retainedTextBytes;
+    /* time spent formatting messages */
+    public final long formatNanos;
+    /* time spent writing to the print streams, including any time blocked on them */
+    public final long consoleNanos;
+
+    public long captured() {
+        return sum(captured);
+    }
+
+    public long counted() {
+        return sum(counted);
+    }
+
+    public long dropped() {
+        return sum(dropped);
+    }
+
+    public long suppressed() {
+        long total = 0;
+        for (Long l : suppressedByRule) total += l;
+        return total;
+    }
+
+    private static long sum(Map<LogLevel, Long> counts) {
+        long total = 0;
+        for (Long l : counts.values()) total += l;
+        return total;
+    }
+}
@@ -0,0 +1,84 @@
+package slf4jtest;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/** A point in time copy of the counters of every logger of a TestLoggerFactory, see TestLoggerFactory.metrics() */
+@Data
+public class LoggingMetrics {
+    /* by logger name */
+    public final Map<String, LoggerMetrics> loggers;
+
+    public long captured(LogLevel level) {
+        long total = 0;
+        for (LoggerMetrics m : loggers.values()) total += m.captured.get(level);
+        return total;
+    }
+
+    public long captured() {
+        long total = 0;
+        for (LoggerMetrics m : loggers.values()) total += m.captured();
+        return total;
+    }
+
+    public long counted() {
+        long total = 0;
+        for (LoggerMetrics m : loggers.values()) total += m.counted();
+        return total;
+    }
+
+    public long dropped() {
+        long total = 0;
+        for (LoggerMetrics m : loggers.values()) total += m.dropped();
+        return total;
+    }
+
+    public long suppressed() {
+        long total = 0;
+        for (LoggerMetrics m : loggers.values()) total += m.suppressed();
+        return total;
+    }
+
+    public long retainedTextBytes() {
+        long total = 0;
+        for (LoggerMetrics m : loggers.values()) total += m.retainedTextBytes;
+        return total;
+    }
+
+    public long formatNanos() {
+        long total = 0;
+        for (LoggerMetrics m : loggers.values()) total += m.formatNanos;
+        return total;
+    }
+
+    public long consoleNanos() {
+        long total = 0;
+        for (LoggerMetrics m : loggers.values()) total += m.consoleNanos;
+        return total;
+    }
+
+    /* the loggers ordered by the number of messages they were sent, captured, counted or dropped, busiest first */
+    public List<LoggerMetrics> busiest() {
+        List<LoggerMetrics> sorted = new ArrayList<>(loggers.values());
+        sorted.sort(Comparator.comparingLong((LoggerMetrics m) -> m.captured() + m.counted() + m.dropped()).reversed());
+        return Collections.unmodifiableList(sorted);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-40s %10s %10s %10s %10s %12s %10s %10s%n",
+                "logger", "captured", "counted", "dropped", "suppressed", "textBytes", "formatMs", "consoleMs"));
+        for (LoggerMetrics m : busiest()) {
+            sb.append(String.format("%-40s %10d %10d %10d %10d %12d %10d %10d%n",
+                    m.logName, m.captured(), m.counted(), m.dropped(), m.suppressed(), m.retainedTextBytes,
+                    m.formatNanos / 1_000_000, m.consoleNanos / 1_000_000));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,58 @@
+package slf4jtest;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/* takes a fresh snapshot of the factory's metrics for every attribute read */
+class LoggingMetricsBean implements LoggingMetricsMXBean {
+    private final TestLoggerFactory factory;
+
+    LoggingMetricsBean(TestLoggerFactory factory) {
+        this.factory = factory;
+    }
+
+    public long getCaptured() {
+        return factory.metrics().captured();
+    }
+
+    public long getCounted() {
+        return factory.metrics().counted();
+    }
+
+    public long getDropped() {
+        return factory.metrics().dropped();
+    }
+
+    public long getSuppressed() {
+        return factory.metrics().suppressed();
+    }
+
+    public long getRetainedTextBytes() {
+        return factory.metrics().retainedTextBytes();
+    }
+
+    public long getFormatNanos() {
+        return factory.metrics().formatNanos();
+    }
+
+    public long getConsoleNanos() {
+        return factory.metrics().consoleNanos();
+    }
+
+    public Map<String, Long> getCapturedByLevel() {
+        LoggingMetrics metrics = factory.metrics();
+        Map<String, Long> byLevel = new HashMap<>();
+        for (LogLevel l : LogLevel.All) {
+            byLevel.put(l.toString(), metrics.captured(l));
+        }
+        return byLevel;
+    }
+
+    public Map<String, Long> getMessagesByLogger() {
+        Map<String, Long> byLogger = new HashMap<>();
+        for (LoggerMetrics m : factory.metrics().loggers.values()) {
+            byLogger.put(m.logName, m.captured() + m.counted() + m.dropped());
+        }
+        return byLogger;
+    }
+}
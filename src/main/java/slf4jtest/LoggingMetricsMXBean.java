@@ -0,0 +1,26 @@
+package slf4jtest;
+
+import java.util.Map;
+
+/** JMX view of a TestLoggerFactory's metrics, see TestLoggerFactory.registerMBean */
+public interface LoggingMetricsMXBean {
+    long getCaptured();
+
+    long getCounted();
+
+    long getDropped();
+
+    long getSuppressed();
+
+    long getRetainedTextBytes();
+
+    long getFormatNanos();
+
+    long getConsoleNanos();
+
+    /* captured messages by level name */
+    Map<String, Long> getCapturedByLevel();
+
+    /* captured, counted and dropped messages by logger name */
+    Map<String, Long> getMessagesByLogger();
+}
@@ -0,0 +1,79 @@
+package slf4jtest;
+
+import org.slf4j.Marker;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongPredicate;
+
+/* index of captured row numbers by marker name.
+ * a row is indexed under each of its markers and under everything those markers reference, matching the
+ * semantics of Marker.contains(name).
+ */
+class MarkerIndex {
+    private final ConcurrentHashMap<String, Entry> byName = new ConcurrentHashMap<>();
+
+    private static class Entry {
+        final ConcurrentLinkedQueue<Long> rows = new ConcurrentLinkedQueue<>();
+        final LongAdder count = new LongAdder();
+    }
+
+    void add(long row, List<Marker> markers) {
+        Set<String> names = new HashSet<>();
+        for (Marker m : markers) {
+            collectNames(m, names);
+        }
+        for (String name : names) {
+            Entry e = byName.computeIfAbsent(name, n -> new Entry());
+            e.rows.add(row);
+            e.count.increment();
+        }
+    }
+
+    private static void collectNames(Marker marker, Set<String> names) {
+        if (!names.add(marker.getName()))
+            return;
+        if (marker.hasReferences()) {
+            Iterator<Marker> it = marker.iterator();
+            while (it.hasNext()) {
+                collectNames(it.next(), names);
+            }
+        }
+    }
+
+    Collection<Long> rows(String markerName) {
+        Entry e = byName.get(markerName);
+        if (e == null)
+            return Collections.emptyList();
+        return new ArrayList<>(e.rows);
+    }
+
+    long count(String markerName) {
+        Entry e = byName.get(markerName);
+        return e == null ? 0 : e.count.sum();
+    }
+
+    /* forget rows that are no longer live, eg after a clearUpTo */
+    void prune(LongPredicate live) {
+        for (Entry e : byName.values()) {
+            e.rows.removeIf(row -> {
+                if (live.test(row))
+                    return false;
+                e.count.decrement();
+                return true;
+            });
+        }
+    }
+
+    void clear() {
+        byName.clear();
+    }
+}
@@ -0,0 +1,48 @@
+package slf4jtest;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.LongPredicate;
+
+/* index of captured row numbers by MDC key and value */
+class MdcIndex {
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, Queue<Long>>> byKey = new ConcurrentHashMap<>();
+
+    void add(long row, Map<String, String> mdc) {
+        for (Map.Entry<String, String> e : mdc.entrySet()) {
+            if (e.getValue() == null)
+                continue;
+            byKey.computeIfAbsent(e.getKey(), k -> new ConcurrentHashMap<>())
+                    .computeIfAbsent(e.getValue(), v -> new ConcurrentLinkedQueue<>())
+                    .add(row);
+        }
+    }
+
+    Collection<Long> rows(String key, String value) {
+        Map<String, Queue<Long>> byValue = byKey.get(key);
+        if (byValue == null)
+            return Collections.emptyList();
+        Queue<Long> rows = byValue.get(value);
+        if (rows == null)
+            return Collections.emptyList();
+        return new ArrayList<>(rows);
+    }
+
+    /* forget rows that are no longer live, eg after a clearUpTo */
+    void prune(LongPredicate live) {
+        for (ConcurrentHashMap<String, Queue<Long>> byValue : byKey.values()) {
+            for (Queue<Long> rows : byValue.values()) {
+                rows.removeIf(row -> !live.test(row));
+            }
+        }
+    }
+
+    void clear() {
+        byKey.clear();
+    }
+}
@@ -0,0 +1,63 @@
+package slf4jtest;
+
+import org.slf4j.spi.MDCAdapter;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Collections;
+import java.util.Map;
+
+/* Takes MDC snapshots for a logger.
+ * Snapshots are copy-on-write: while the MDC content is unchanged the previous immutable snapshot is handed out again,
+ * so a run of messages under the same context shares a single map.
+ *
+ * Adapters that keep a read only copy-on-write map of their own, as logback's getPropertyMap() does, have that map
+ * handed out as the snapshot, so an unchanged context costs a thread local read. Other adapters are asked for a copy
+ * of their map on every call and it is compared with the thread's previous snapshot.
+ */
+class MdcSnapshots {
+    private final MDCAdapter adapter;
+    // the adapter's copy-on-write map, or null
+    private final MethodHandle propertyMap;
+    private final ThreadLocal<Map<String, String>> last = ThreadLocal.withInitial(Collections::emptyMap);
+
+    MdcSnapshots(MDCAdapter adapter) {
+        this.adapter = adapter;
+        this.propertyMap = propertyMap(adapter);
+    }
+
+    private static MethodHandle propertyMap(MDCAdapter adapter) {
+        try {
+            return MethodHandles.publicLookup().findVirtual(adapter.getClass(), "getPropertyMap",
+                    MethodType.methodType(Map.class)).asType(MethodType.methodType(Map.class, MDCAdapter.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    Map<String, String> capture() {
+        if (propertyMap != null) {
+            Map<String, String> current;
+            try {
+                current = (Map<String, String>) propertyMap.invokeExact(adapter);
+            } catch (Throwable e) {
+                throw new IllegalStateException("cannot read the MDC of " + adapter, e);
+            }
+            return current == null || current.isEmpty() ? Collections.<String, String>emptyMap() : current;
+        }
+
+        Map<String, String> current = adapter.getCopyOfContextMap();
+        if (current == null || current.isEmpty())
+            return Collections.emptyMap();
+
+        Map<String, String> previous = last.get();
+        if (previous.equals(current))
+            return previous;
+
+        Map<String, String> snapshot = Collections.unmodifiableMap(current);
+        last.set(snapshot);
+        return snapshot;
+    }
+}
@@ -0,0 +1,143 @@
+package slf4jtest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/* record time counters of a single logger.
+ * LongAdders keep concurrent logging threads from contending on the counters.
+ */
+class MetricsCounters {
+    private final LongAdder[] captured = adders(LogLevel.All.size());
+    // logged at an enabled level but not captured, see Settings.deduplicateTemplates and Settings.capturePolicy
+    private final LongAdder[] counted = adders(LogLevel.All.size());
+    private final LongAdder[] dropped = adders(LogLevel.All.size());
+    // dropped calls with a finished message, no {} placeholder and no arguments
+    private final LongAdder[] built = adders(LogLevel.All.size());
+    private final LongAdder[] suppressedByRule;
+    private final LongAdder[] textBytes = adders(LogLevel.All.size());
+    private final LongAdder formatNanos = new LongAdder();
+    private final LongAdder consoleNanos = new LongAdder();
+
+    MetricsCounters(int suppressionRules) {
+        this.suppressedByRule = adders(suppressionRules);
+    }
+
+    void captured(LogMessage message) {
+        captured[message.level.ordinal].increment();
+        textBytes[message.level.ordinal].add(utf8Length(message.text));
+    }
+
+    /* a message that was counted but not captured, see Settings.deduplicateTemplates */
+    void counted(LogLevel level) {
+        counted[level.ordinal].increment();
+    }
+
+    void dropped(LogLevel level) {
+        dropped[level.ordinal].increment();
+    }
+
+    void built(LogLevel level) {
+        built[level.ordinal].increment();
+    }
+
+    void suppressed(int rule) {
+        suppressedByRule[rule].increment();
+    }
+
+    void formatted(long nanos) {
+        formatNanos.add(nanos);
+    }
+
+    void printed(long nanos) {
+        consoleNanos.add(nanos);
+    }
+
+    long capturedCount(LogLevel level) {
+        return captured[level.ordinal].sum();
+    }
+
+    long countedCount(LogLevel level) {
+        return counted[level.ordinal].sum();
+    }
+
+    long droppedCount(LogLevel level) {
+        return dropped[level.ordinal].sum();
+    }
+
+    long builtCount(LogLevel level) {
+        return built[level.ordinal].sum();
+    }
+
+    long textBytes(LogLevel level) {
+        return textBytes[level.ordinal].sum();
+    }
+
+    long retainedTextBytes() {
+        long total = 0;
+        for (LongAdder a : textBytes) total += a.sum();
+        return total;
+    }
+
+    LoggerMetrics snapshot(String logName) {
+        Map<LogLevel, Long> capturedByLevel = new HashMap<>();
+        Map<LogLevel, Long> countedByLevel = new HashMap<>();
+        Map<LogLevel, Long> droppedByLevel = new HashMap<>();
+        for (LogLevel l : LogLevel.All) {
+            capturedByLevel.put(l, captured[l.ordinal].sum());
+            countedByLevel.put(l, counted[l.ordinal].sum());
+            droppedByLevel.put(l, dropped[l.ordinal].sum());
+        }
+        List<Long> suppressed = new ArrayList<>();
+        for (LongAdder a : suppressedByRule) {
+            suppressed.add(a.sum());
+        }
+
+        return new LoggerMetrics(logName,
+                Collections.unmodifiableMap(capturedByLevel),
+                Collections.unmodifiableMap(countedByLevel),
+                Collections.unmodifiableMap(droppedByLevel),
+                Collections.unmodifiableList(suppressed),
+                retainedTextBytes(),
+                formatNanos.sum(),
+                consoleNanos.sum());
+    }
+
+    void reset() {
+        for (LongAdder a : captured) a.reset();
+        for (LongAdder a : counted) a.reset();
+        for (LongAdder a : dropped) a.reset();
+        for (LongAdder a : built) a.reset();
+        for (LongAdder a : suppressedByRule) a.reset();
+        for (LongAdder a : textBytes) a.reset();
+        formatNanos.reset();
+        consoleNanos.reset();
+    }
+
+    /* the UTF-8 encoded size, counted without encoding */
+    static long utf8Length(String s) {
+        int n = s.length();
+        long bytes = n;
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x800) {
+                // a surrogate pair is 4 bytes for the two chars, anything else 3
+                bytes += Character.isSurrogate(c) ? 1 : 2;
+            } else if (c >= 0x80) {
+                bytes++;
+            }
+        }
+        return bytes;
+    }
+
+    private static LongAdder[] adders(int n) {
+        LongAdder[] adders = new LongAdder[n];
+        for (int i = 0; i < n; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+}
@@ -0,0 +1,46 @@
+package slf4jtest;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/* assigns small ids to recurring names, eg thread names, so stores can keep an int per row instead of a reference */
+class NameDictionary {
+    private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+    private volatile String[] names = new String[16];
+    private final ReentrantLock lock = new ReentrantLock();
+
+    int id(String name) {
+        Integer id = ids.get(name);
+        if (id != null)
+            return id;
+        return add(name);
+    }
+
+    // a lock rather than a monitor, the first message from each thread comes through here
+    private int add(String name) {
+        lock.lock();
+        try {
+            Integer id = ids.get(name);
+            if (id != null)
+                return id;
+
+            int newId = ids.size();
+            String[] current = names;
+            if (newId == current.length) {
+                current = Arrays.copyOf(current, current.length * 2);
+            }
+            current[newId] = name;
+            // publish the name before the id can be seen
+            names = current;
+            ids.put(name, newId);
+            return newId;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    String name(int id) {
+        return names[id];
+    }
+}
@@ -0,0 +1,164 @@
+package slf4jtest;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/* What a failed assertMatches says about the captured messages closest to what it was looking for, see
+ * Settings.nearMatches.
+ *
+ * Closeness is the overlap of the character trigrams of a message's text with those of the probe, the one given to
+ * assertMatches(predicate, probe) or else the predicate's toString read as a regex with the syntax taken out; each row
+ * costs one pass over its first few hundred characters. Reading stops at the row budget or the time budget, whichever
+ * comes first, so a failure against millions of rows still reports promptly.
+ * Anonymous predicates and lambdas have no useful toString, so without a probe the last messages logged are shown
+ * instead, read from the tail of each logger's capture rather than from the start.
+ */
+final class NearMatches {
+    static final NearMatches Default = new NearMatches(5, 1_000_000, 250);
+
+    private static final int MaxTextChars = 256;
+    private static final int ShownTextChars = 120;
+    // the clock is read once per this many rows
+    private static final int ClockEvery = 1024;
+
+    final int count;
+    final long maxRows;
+    final long maxMillis;
+
+    NearMatches(int count, long maxRows, long maxMillis) {
+        this.count = count;
+        this.maxRows = maxRows;
+        this.maxMillis = maxMillis;
+    }
+
+    private static final class Scored {
+        final double score;
+        final LogMessage message;
+
+        Scored(double score, LogMessage message) {
+            this.score = score;
+            this.message = message;
+        }
+    }
+
+    /* the lines to add to the failure, empty if there is nothing to say. rows are only read with a probe, the given
+     * one or the predicate's, and tail, the last count rows of each logger in order, only without
+     */
+    String report(Iterator<LogMessage> rows, Iterator<LogMessage> tail, Predicate<LogMessage> predicate, String probe) {
+        if (count <= 0)
+            return "";
+        String wanted = probe != null ? probe : probe(predicate);
+        if (wanted != null)
+            return rows.hasNext() ? closest(rows, wanted) : "";
+        return tail.hasNext() ? last(tail) : "";
+    }
+
+    private String closest(Iterator<LogMessage> rows, String probe) {
+        long[] wanted = trigrams(probe);
+        PriorityQueue<Scored> best = new PriorityQueue<>(count + 1, Comparator.comparingDouble((Scored s) -> s.score));
+        long deadline = System.nanoTime() + maxMillis * 1_000_000L;
+        long read = 0;
+        boolean stopped = false;
+        while (rows.hasNext()) {
+            if (read == maxRows || read % ClockEvery == 0 && read > 0 && System.nanoTime() > deadline) {
+                stopped = true;
+                break;
+            }
+            LogMessage m = rows.next();
+            read++;
+            double score = score(wanted, m.text);
+            if (best.size() < count) {
+                best.add(new Scored(score, m));
+            } else if (score > best.peek().score) {
+                best.poll();
+                best.add(new Scored(score, m));
+            }
+        }
+
+        List<Scored> ranked = new ArrayList<>(best);
+        ranked.sort(Comparator.comparingDouble((Scored s) -> -s.score).thenComparingLong(s -> s.message.sequence));
+        StringBuilder sb = header("closest", read, stopped);
+        for (Scored s : ranked) {
+            sb.append(System.lineSeparator()).append(String.format("  %.2f ", s.score)).append(describe(s.message));
+        }
+        return sb.toString();
+    }
+
+    // the tail holds at most count rows per logger, so it needs no budget
+    private String last(Iterator<LogMessage> tail) {
+        ArrayDeque<LogMessage> last = new ArrayDeque<>(count);
+        while (tail.hasNext()) {
+            if (last.size() == count)
+                last.removeFirst();
+            last.addLast(tail.next());
+        }
+
+        StringBuilder sb = new StringBuilder(System.lineSeparator()).append("the last ").append(last.size())
+                .append(" messages logged:");
+        for (LogMessage m : last) {
+            sb.append(System.lineSeparator()).append("  ").append(describe(m));
+        }
+        return sb.toString();
+    }
+
+    private StringBuilder header(String which, long read, boolean stopped) {
+        StringBuilder sb = new StringBuilder(System.lineSeparator()).append(which).append(" of the ").append(read)
+                .append(" messages read");
+        if (stopped)
+            sb.append(", stopped at the budget of ").append(maxRows).append(" rows or ").append(maxMillis).append("ms");
+        return sb.append(':');
+    }
+
+    private static String describe(LogMessage m) {
+        String text = m.text.length() > ShownTextChars ? m.text.substring(0, ShownTextChars) + "..." : m.text;
+        return "#" + m.sequence + " " + m.logName + " " + m.level + " \"" + text + "\"";
+    }
+
+    /* the text a predicate is after, or null if its toString doesn't say */
+    static String probe(Predicate<LogMessage> predicate) {
+        String s = String.valueOf(predicate);
+        if (s.contains("$$Lambda") || s.matches("[\\w.$]+@[0-9a-f]+"))
+            return null;
+        String literal = s.replaceAll("\\\\[a-zA-Z]|[\\\\.*+?^$()\\[\\]{}|]", " ").trim();
+        return literal.isEmpty() ? null : literal;
+    }
+
+    // 2 * shared / (wanted + seen), the Dice coefficient, counting a trigram of the text each time it occurs
+    private static double score(long[] wanted, String text) {
+        if (wanted.length == 0)
+            return 0;
+        int n = Math.min(text.length(), MaxTextChars);
+        if (n < 3)
+            return 0;
+        int seen = n - 2;
+        int shared = 0;
+        for (int i = 0; i < seen; i++) {
+            if (Arrays.binarySearch(wanted, trigram(text, i)) >= 0)
+                shared++;
+        }
+        return 2.0 * Math.min(shared, wanted.length) / (wanted.length + seen);
+    }
+
+    private static long[] trigrams(String text) {
+        int n = Math.min(text.length(), MaxTextChars);
+        if (n < 3)
+            return new long[0];
+        long[] trigrams = new long[n - 2];
+        for (int i = 0; i < trigrams.length; i++) {
+            trigrams[i] = trigram(text, i);
+        }
+        Arrays.sort(trigrams);
+        return Arrays.stream(trigrams).distinct().toArray();
+    }
+
+    private static long trigram(String text, int i) {
+        return (long) Character.toLowerCase(text.charAt(i)) << 32
+                | (long) Character.toLowerCase(text.charAt(i + 1)) << 16
+                | Character.toLowerCase(text.charAt(i + 2));
+    }
+}
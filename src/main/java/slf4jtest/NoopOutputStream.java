@@ -6,9 +6,14 @@ import java.io.PrintStream;
 
 /** Potentially useful for log suppression; eg by creating something like "new PrintStream(NoopOutputStream.Instance)"
  * and passing that to a redirect.
+ * Prefer NoopOutputStream.NoopPrintStream (or Settings.discard) as Settings recognises it and skips all console work
+ * for the redirected levels.
  * */
 public class NoopOutputStream extends OutputStream {
-    static OutputStream Instance = new NoopOutputStream();
+    public static final OutputStream Instance = new NoopOutputStream();
+
+    /** a PrintStream that discards everything; redirecting a level to this stream disables its console output */
+    public static final PrintStream NoopPrintStream = new PrintStream(Instance);
 
     /** use NoopOutputStream.Instance instead */
     private NoopOutputStream() {
@@ -18,4 +23,9 @@ public class NoopOutputStream extends OutputStream {
     public void write(int b) throws IOException {
         // noop
     }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        // noop
+    }
 }
@@ -0,0 +1,304 @@
+package slf4jtest;
+
+import org.slf4j.Marker;
+import org.slf4j.event.KeyValuePair;
+import org.slf4j.helpers.BasicMarkerFactory;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/* The binary form of a LogMessage used by spill segments and binary exports.
+ *
+ * A record is an int length, not counting itself, followed by
+ *   byte level (top bit set for a virtual thread), long timeStamp, long sequence, long threadId,
+ *   string logName, string threadName, string text,
+ *   int n + n (string key, string value) MDC entries,
+ *   int n + n string marker names,
+ *   int n + n string arguments,
+ *   int n + n (string key, string value) key value pairs,
+ *   byte 0, or byte 1 + string className, string methodName, string fileName, int lineNumber
+ * where a string is an int byte count, -1 for null, followed by UTF-8.
+ *
+ * Values that are not strings are kept by their String.valueOf, so a decoded message has the same text but its
+ * arguments and key values are strings, and its markers are detached markers without references.
+ * All reads are absolute so any number of readers can share a buffer.
+ */
+final class RecordCodec {
+    private static final BasicMarkerFactory Markers = new BasicMarkerFactory();
+
+    // offsets within a record
+    private static final int LevelOffset = 4;
+    private static final int SequenceOffset = LevelOffset + 1 + 8;
+    private static final int ThreadIdOffset = SequenceOffset + 8;
+    private static final int LoggerOffset = ThreadIdOffset + 8;
+    private static final int Virtual = 0x80;
+
+    private RecordCodec() {
+    }
+
+    /* the encoded message */
+    static ByteBuffer encode(LogMessage m) {
+        List<byte[]> strings = new ArrayList<>();
+        strings.add(utf8(m.logName));
+        strings.add(utf8(m.threadName));
+        strings.add(utf8(m.text));
+        for (Map.Entry<String, String> e : m.mdc.entrySet()) {
+            strings.add(utf8(e.getKey()));
+            strings.add(utf8(e.getValue()));
+        }
+        for (Marker marker : m.markers) {
+            strings.add(utf8(marker.getName()));
+        }
+        for (Object arg : m.arguments) {
+            strings.add(utf8(String.valueOf(arg)));
+        }
+        for (KeyValuePair kv : m.keyValuePairs) {
+            strings.add(utf8(kv.key));
+            strings.add(utf8(String.valueOf(kv.value)));
+        }
+        CallerLocation caller = m.callerLocation;
+        if (caller != null) {
+            strings.add(utf8(caller.getClassName()));
+            strings.add(utf8(caller.getMethodName()));
+            strings.add(utf8(caller.getFileName()));
+        }
+
+        int length = 1 + 8 + 8 + 8 + 4 * 4 + 1 + (caller != null ? 4 : 0);
+        for (byte[] s : strings) {
+            length += 4 + (s != null ? s.length : 0);
+        }
+
+        ByteBuffer out = ByteBuffer.allocate(4 + length);
+        out.putInt(length);
+        out.put((byte) (m.level.ordinal | (m.virtualThread ? Virtual : 0)));
+        out.putLong(m.timeStamp);
+        out.putLong(m.sequence);
+        out.putLong(m.threadId);
+
+        int s = 0;
+        putString(out, strings.get(s++));
+        putString(out, strings.get(s++));
+        putString(out, strings.get(s++));
+        out.putInt(m.mdc.size());
+        for (int i = 0; i < m.mdc.size(); i++) {
+            putString(out, strings.get(s++));
+            putString(out, strings.get(s++));
+        }
+        out.putInt(m.markers.size());
+        for (int i = 0; i < m.markers.size(); i++) {
+            putString(out, strings.get(s++));
+        }
+        out.putInt(m.arguments.size());
+        for (int i = 0; i < m.arguments.size(); i++) {
+            putString(out, strings.get(s++));
+        }
+        out.putInt(m.keyValuePairs.size());
+        for (int i = 0; i < m.keyValuePairs.size(); i++) {
+            putString(out, strings.get(s++));
+            putString(out, strings.get(s++));
+        }
+        if (caller == null) {
+            out.put((byte) 0);
+        } else {
+            out.put((byte) 1);
+            putString(out, strings.get(s++));
+            putString(out, strings.get(s++));
+            putString(out, strings.get(s++));
+            out.putInt(caller.getLineNumber());
+        }
+        out.flip();
+        return out;
+    }
+
+    /* the size of the record at pos including its length, 0 if there is no record there */
+    static int size(ByteBuffer in, int pos) {
+        if (pos + 4 > in.limit())
+            return 0;
+        int length = in.getInt(pos);
+        return length == 0 ? 0 : 4 + length;
+    }
+
+    static long sequence(ByteBuffer in, int pos) {
+        return in.getLong(pos + SequenceOffset);
+    }
+
+    static LogLevel level(ByteBuffer in, int pos) {
+        return LogLevel.All.get(in.get(pos + LevelOffset) & ~Virtual);
+    }
+
+    /* whether the text of the record at pos contains the UTF-8 needle, searched in place */
+    static boolean textContains(ByteBuffer in, int pos, byte[] needle) {
+        int p = skipString(in, skipString(in, pos + LoggerOffset));
+        int length = in.getInt(p);
+        int from = p + 4;
+        int last = from + length - needle.length;
+        outer:
+        for (int i = from; i <= last; i++) {
+            for (int j = 0; j < needle.length; j++) {
+                if (in.get(i + j) != needle[j])
+                    continue outer;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    static LogMessage decode(ByteBuffer in, int pos) {
+        return decode(in, pos, null);
+    }
+
+    /* as decode(in, pos), reusing the logger and thread name Strings of earlier records read with the same names */
+    static LogMessage decode(ByteBuffer in, int pos, Names names) {
+        int[] p = {pos + LevelOffset};
+        byte levelAndVirtual = in.get(p[0]);
+        LogLevel level = LogLevel.All.get(levelAndVirtual & ~Virtual);
+        p[0] += 1;
+        long timeStamp = in.getLong(p[0]);
+        p[0] += 8;
+        long sequence = in.getLong(p[0]);
+        p[0] += 8;
+        long threadId = in.getLong(p[0]);
+        p[0] += 8;
+        String logName = names != null ? names.get(in, p) : getString(in, p);
+        String threadName = names != null ? names.get(in, p) : getString(in, p);
+        String text = getString(in, p);
+
+        int n = getInt(in, p);
+        Map<String, String> mdc = Collections.emptyMap();
+        if (n > 0) {
+            mdc = new LinkedHashMap<>();
+            for (int i = 0; i < n; i++) {
+                mdc.put(getString(in, p), getString(in, p));
+            }
+            mdc = Collections.unmodifiableMap(mdc);
+        }
+
+        n = getInt(in, p);
+        List<Marker> markers = Collections.emptyList();
+        if (n > 0) {
+            markers = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                markers.add(Markers.getDetachedMarker(getString(in, p)));
+            }
+            markers = Collections.unmodifiableList(markers);
+        }
+
+        n = getInt(in, p);
+        List<Object> arguments = Collections.emptyList();
+        if (n > 0) {
+            arguments = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                arguments.add(getString(in, p));
+            }
+            arguments = Collections.unmodifiableList(arguments);
+        }
+
+        n = getInt(in, p);
+        List<KeyValuePair> keyValuePairs = Collections.emptyList();
+        if (n > 0) {
+            keyValuePairs = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                keyValuePairs.add(new KeyValuePair(getString(in, p), getString(in, p)));
+            }
+            keyValuePairs = Collections.unmodifiableList(keyValuePairs);
+        }
+
+        CallerLocation caller = null;
+        if (in.get(p[0]++) == 1) {
+            String className = getString(in, p);
+            String methodName = getString(in, p);
+            String fileName = getString(in, p);
+            caller = new CallerLocation(className, methodName, fileName, getInt(in, p));
+        }
+
+        return new LogMessage(logName, level, text, timeStamp, threadName, threadId, (levelAndVirtual & Virtual) != 0,
+                mdc, markers, arguments, keyValuePairs, caller, sequence);
+    }
+
+    /* a small cache of recently decoded names, compared as bytes in place so a hit allocates nothing; not thread safe */
+    static final class Names {
+        private static final int Size = 64;
+        private final byte[][] keys = new byte[Size][];
+        private final String[] values = new String[Size];
+
+        String get(ByteBuffer in, int[] p) {
+            int length = in.getInt(p[0]);
+            if (length < 0)
+                return getString(in, p);
+
+            int from = p[0] + 4;
+            int hash = length;
+            for (int i = 0; i < length; i++) {
+                hash = 31 * hash + in.get(from + i);
+            }
+            int slot = (hash ^ (hash >>> 16)) & (Size - 1);
+
+            byte[] key = keys[slot];
+            if (key != null && equal(key, in, from)) {
+                p[0] = from + length;
+                return values[slot];
+            }
+            String s = getString(in, p);
+            keys[slot] = s.getBytes(StandardCharsets.UTF_8);
+            values[slot] = s;
+            return s;
+        }
+
+        private static boolean equal(byte[] key, ByteBuffer in, int from) {
+            if (key.length != in.getInt(from - 4))
+                return false;
+            for (int i = 0; i < key.length; i++) {
+                if (key[i] != in.get(from + i))
+                    return false;
+            }
+            return true;
+        }
+    }
+
+    private static byte[] utf8(String s) {
+        return s == null ? null : s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void putString(ByteBuffer out, byte[] s) {
+        if (s == null) {
+            out.putInt(-1);
+        } else {
+            out.putInt(s.length);
+            out.put(s);
+        }
+    }
+
+    private static int skipString(ByteBuffer in, int pos) {
+        int length = in.getInt(pos);
+        return pos + 4 + Math.max(length, 0);
+    }
+
+    private static int getInt(ByteBuffer in, int[] p) {
+        int i = in.getInt(p[0]);
+        p[0] += 4;
+        return i;
+    }
+
+    private static String getString(ByteBuffer in, int[] p) {
+        int length = getInt(in, p);
+        if (length < 0)
+            return null;
+        String s;
+        if (in.hasArray()) {
+            s = new String(in.array(), in.arrayOffset() + p[0], length, StandardCharsets.UTF_8);
+        } else {
+            byte[] bytes = new byte[length];
+            ByteBuffer d = in.duplicate();
+            d.position(p[0]);
+            d.get(bytes);
+            s = new String(bytes, StandardCharsets.UTF_8);
+        }
+        p[0] += length;
+        return s;
+    }
+}
@@ -0,0 +1,193 @@
+package slf4jtest;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/* Reads logs back for TestLoggerFactory.replay and replayAggregate, handing each message to a sink that stores it
+ * directly.
+ */
+final class Replay {
+    // an Aggregator's segment file, <writer>-<n>.slf4jtest
+    private static final Pattern Segment = Pattern.compile("(.*)-(\\d+)" + Pattern.quote(Aggregator.Suffix));
+
+    private Replay() {
+    }
+
+    static boolean isBinaryExport(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < 8)
+                return false;
+            ByteBuffer magic = ByteBuffer.allocate(8);
+            while (magic.hasRemaining()) {
+                if (channel.read(magic) < 0)
+                    return false;
+            }
+            return magic.getLong(0) == LogExport.Magic;
+        }
+    }
+
+    /* decodes the records of a binary export straight from a mapping of the file; returns the highest sequence */
+    static long binary(Path file, Consumer<LogMessage> sink) throws IOException {
+        long maxSequence = 0;
+        Records records = new Records(file);
+        LogMessage m;
+        while ((m = records.next()) != null) {
+            maxSequence = Math.max(maxSequence, m.sequence);
+            sink.accept(m);
+        }
+        return maxSequence;
+    }
+
+    /* merges the binary files in time order, as written by several Aggregators, renumbering the messages from
+     * sequence. a writer's segments are read one after another, so its messages keep the order it wrote them in
+     * whatever their times, and each writer is read one record ahead. returns the number of messages
+     */
+    static long merged(List<Path> files, AtomicLong sequence, Consumer<LogMessage> sink) throws IOException {
+        PriorityQueue<Writer> heads = new PriorityQueue<>(Comparator
+                .comparingLong((Writer w) -> w.head.timeStamp)
+                .thenComparingInt(w -> w.order)
+                .thenComparingLong(w -> w.head.sequence));
+        int order = 0;
+        for (List<Path> segments : writers(files).values()) {
+            Writer writer = new Writer(segments, order++);
+            if (writer.advance())
+                heads.add(writer);
+        }
+        long count = 0;
+        Writer writer;
+        while ((writer = heads.poll()) != null) {
+            LogMessage m = writer.head;
+            sink.accept(new LogMessage(m.logName, m.level, m.text, m.timeStamp, m.threadName, m.threadId,
+                    m.virtualThread, m.mdc, m.markers, m.arguments, m.keyValuePairs, m.callerLocation,
+                    sequence.incrementAndGet()));
+            count++;
+            if (writer.advance())
+                heads.add(writer);
+        }
+        return count;
+    }
+
+    /* the files grouped by the Aggregator that wrote them, each group's segments in the order written */
+    static Map<String, List<Path>> writers(List<Path> files) {
+        Map<String, TreeMap<Long, Path>> segments = new TreeMap<>();
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            Matcher m = Segment.matcher(name);
+            // anything else is read as a writer of its own
+            if (m.matches())
+                segments.computeIfAbsent(m.group(1), w -> new TreeMap<>()).put(Long.parseLong(m.group(2)), file);
+            else
+                segments.computeIfAbsent(name, w -> new TreeMap<>()).put(0L, file);
+        }
+        Map<String, List<Path>> writers = new TreeMap<>();
+        for (Map.Entry<String, TreeMap<Long, Path>> e : segments.entrySet()) {
+            writers.put(e.getKey(), new ArrayList<>(e.getValue().values()));
+        }
+        return writers;
+    }
+
+    /* one writer's segments read as a single file, the next mapped when the last is used up */
+    private static final class Writer {
+        final List<Path> segments;
+        final int order;
+        int next;
+        Records records;
+        LogMessage head;
+
+        Writer(List<Path> segments, int order) {
+            this.segments = segments;
+            this.order = order;
+        }
+
+        boolean advance() throws IOException {
+            while (true) {
+                if (records == null) {
+                    if (next == segments.size())
+                        return false;
+                    records = new Records(segments.get(next++));
+                }
+                head = records.next();
+                if (head != null)
+                    return true;
+                records = null;
+            }
+        }
+    }
+
+    /* the records of a binary file, decoded from a mapping of it. the mapping outlives the channel */
+    private static final class Records {
+        final Path file;
+        final MappedByteBuffer map;
+        final RecordCodec.Names names = new RecordCodec.Names();
+        int pos = 8;
+
+        Records(Path file) throws IOException {
+            this.file = file;
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                long size = channel.size();
+                if (size > Integer.MAX_VALUE)
+                    throw new IOException(file + " is larger than 2GB");
+                if (size < 8)
+                    throw new IOException(file + " is not a binary export");
+                map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+            if (map.getLong(0) != LogExport.Magic)
+                throw new IOException(file + " is not a binary export");
+        }
+
+        /* the next message, null at the end */
+        LogMessage next() throws IOException {
+            int record = RecordCodec.size(map, pos);
+            if (record == 0)
+                return null;
+            if (pos + record > map.capacity())
+                throw new IOException(file + " is truncated at offset " + pos);
+            LogMessage m = RecordCodec.decode(map, pos, names);
+            pos += record;
+            return m;
+        }
+    }
+
+    /* parses a text log, joining continuation lines onto the message before them */
+    static void text(Path file, LogLayout layout, FactoryContext context, Consumer<LogMessage> sink) throws IOException {
+        LogLayout.Parser parser = layout.parser();
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            Matcher start = null;
+            StringBuilder text = new StringBuilder();
+            String line;
+            while ((line = in.readLine()) != null) {
+                Matcher m = parser.match(line);
+                if (m == null) {
+                    // eg a stack trace; lines before the first message are dropped
+                    if (start != null)
+                        text.append('\n').append(line);
+                    continue;
+                }
+                if (start != null)
+                    sink.accept(parser.message(start, text.toString(), context.sequence.incrementAndGet()));
+                start = m;
+                text.setLength(0);
+                text.append(m.group("msg"));
+            }
+            if (start != null)
+                sink.accept(parser.message(start, text.toString(), context.sequence.incrementAndGet()));
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package slf4jtest;
+
+/* which TestLoggerFactory the loggers of RoutingServiceProvider send each thread's calls to, see TestLoggerFactory.bind() */
+final class Routing {
+    // inherited by threads started while a factory is bound, as a test subject's own threads should log to its test
+    private static final InheritableThreadLocal<TestLoggerFactory> Bound = new InheritableThreadLocal<>();
+
+    // for calls from threads without a binding, eg a pool that was started before any test bound its factory
+    private static final class Unbound {
+        static final TestLoggerFactory Factory = new TestLoggerFactory();
+    }
+
+    private Routing() {
+    }
+
+    static TestLoggerFactory current() {
+        TestLoggerFactory factory = Bound.get();
+        return factory != null ? factory : Unbound.Factory;
+    }
+
+    static TestLoggerFactory unbound() {
+        return Unbound.Factory;
+    }
+
+    static TestLoggerFactory.Binding bind(TestLoggerFactory factory) {
+        TestLoggerFactory previous = Bound.get();
+        Bound.set(factory);
+        return new TestLoggerFactory.Binding(Thread.currentThread(), previous);
+    }
+
+    static void restore(TestLoggerFactory previous) {
+        if (previous != null)
+            Bound.set(previous);
+        else
+            Bound.remove();
+    }
+}
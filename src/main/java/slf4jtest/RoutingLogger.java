@@ -0,0 +1,394 @@
+package slf4jtest;
+
+import org.slf4j.Logger;
+import org.slf4j.Marker;
+import org.slf4j.event.Level;
+import org.slf4j.event.LoggingEvent;
+import org.slf4j.spi.LoggingEventAware;
+import org.slf4j.spi.LoggingEventBuilder;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/* The Logger handed out by RoutingServiceProvider; there is one per name for the life of the JVM as third party
+ * code keeps its loggers in static fields.
+ * Every call goes to the TestLogger of the same name in the TestLoggerFactory bound to the calling thread. Each
+ * factory caches its loggers by the id of the RoutingLogger, so once a factory has seen this logger a call costs the
+ * thread local read and an array read, however many threads are bound to different factories at once. Nothing here
+ * refers to a factory, so a finished test's capture isn't kept reachable for the life of the JVM.
+ */
+final class RoutingLogger implements Logger, LoggingEventAware {
+    private static final AtomicInteger Ids = new AtomicInteger();
+
+    private final String name;
+    private final int id = Ids.getAndIncrement();
+
+    RoutingLogger(String name) {
+        this.name = name;
+    }
+
+    private TestLogger target() {
+        return Routing.current().routed(id, name);
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    /* TRACE */
+
+    @Override
+    public boolean isTraceEnabled() {
+        return target().isTraceEnabled();
+    }
+
+    @Override
+    public boolean isTraceEnabled(Marker marker) {
+        return target().isTraceEnabled(marker);
+    }
+
+    @Override
+    public void trace(String msg) {
+        target().trace(msg);
+    }
+
+    @Override
+    public void trace(String format, Object arg) {
+        target().trace(format, arg);
+    }
+
+    @Override
+    public void trace(String format, Object arg1, Object arg2) {
+        target().trace(format, arg1, arg2);
+    }
+
+    @Override
+    public void trace(String format, Object... arguments) {
+        target().trace(format, arguments);
+    }
+
+    @Override
+    public void trace(String msg, Throwable t) {
+        target().trace(msg, t);
+    }
+
+    @Override
+    public void trace(Marker marker, String msg) {
+        target().trace(marker, msg);
+    }
+
+    @Override
+    public void trace(Marker marker, String format, Object arg) {
+        target().trace(marker, format, arg);
+    }
+
+    @Override
+    public void trace(Marker marker, String format, Object arg1, Object arg2) {
+        target().trace(marker, format, arg1, arg2);
+    }
+
+    @Override
+    public void trace(Marker marker, String format, Object... arguments) {
+        target().trace(marker, format, arguments);
+    }
+
+    @Override
+    public void trace(Marker marker, String msg, Throwable t) {
+        target().trace(marker, msg, t);
+    }
+
+    /* DEBUG */
+
+    @Override
+    public boolean isDebugEnabled() {
+        return target().isDebugEnabled();
+    }
+
+    @Override
+    public boolean isDebugEnabled(Marker marker) {
+        return target().isDebugEnabled(marker);
+    }
+
+    @Override
+    public void debug(String msg) {
+        target().debug(msg);
+    }
+
+    @Override
+    public void debug(String format, Object arg) {
+        target().debug(format, arg);
+    }
+
+    @Override
+    public void debug(String format, Object arg1, Object arg2) {
+        target().debug(format, arg1, arg2);
+    }
+
+    @Override
+    public void debug(String format, Object... arguments) {
+        target().debug(format, arguments);
+    }
+
+    @Override
+    public void debug(String msg, Throwable t) {
+        target().debug(msg, t);
+    }
+
+    @Override
+    public void debug(Marker marker, String msg) {
+        target().debug(marker, msg);
+    }
+
+    @Override
+    public void debug(Marker marker, String format, Object arg) {
+        target().debug(marker, format, arg);
+    }
+
+    @Override
+    public void debug(Marker marker, String format, Object arg1, Object arg2) {
+        target().debug(marker, format, arg1, arg2);
+    }
+
+    @Override
+    public void debug(Marker marker, String format, Object... arguments) {
+        target().debug(marker, format, arguments);
+    }
+
+    @Override
+    public void debug(Marker marker, String msg, Throwable t) {
+        target().debug(marker, msg, t);
+    }
+
+    /* INFO */
+
+    @Override
+    public boolean isInfoEnabled() {
+        return target().isInfoEnabled();
+    }
+
+    @Override
+    public boolean isInfoEnabled(Marker marker) {
+        return target().isInfoEnabled(marker);
+    }
+
+    @Override
+    public void info(String msg) {
+        target().info(msg);
+    }
+
+    @Override
+    public void info(String format, Object arg) {
+        target().info(format, arg);
+    }
+
+    @Override
+    public void info(String format, Object arg1, Object arg2) {
+        target().info(format, arg1, arg2);
+    }
+
+    @Override
+    public void info(String format, Object... arguments) {
+        target().info(format, arguments);
+    }
+
+    @Override
+    public void info(String msg, Throwable t) {
+        target().info(msg, t);
+    }
+
+    @Override
+    public void info(Marker marker, String msg) {
+        target().info(marker, msg);
+    }
+
+    @Override
+    public void info(Marker marker, String format, Object arg) {
+        target().info(marker, format, arg);
+    }
+
+    @Override
+    public void info(Marker marker, String format, Object arg1, Object arg2) {
+        target().info(marker, format, arg1, arg2);
+    }
+
+    @Override
+    public void info(Marker marker, String format, Object... arguments) {
+        target().info(marker, format, arguments);
+    }
+
+    @Override
+    public void info(Marker marker, String msg, Throwable t) {
+        target().info(marker, msg, t);
+    }
+
+    /* WARN */
+
+    @Override
+    public boolean isWarnEnabled() {
+        return target().isWarnEnabled();
+    }
+
+    @Override
+    public boolean isWarnEnabled(Marker marker) {
+        return target().isWarnEnabled(marker);
+    }
+
+    @Override
+    public void warn(String msg) {
+        target().warn(msg);
+    }
+
+    @Override
+    public void warn(String format, Object arg) {
+        target().warn(format, arg);
+    }
+
+    @Override
+    public void warn(String format, Object arg1, Object arg2) {
+        target().warn(format, arg1, arg2);
+    }
+
+    @Override
+    public void warn(String format, Object... arguments) {
+        target().warn(format, arguments);
+    }
+
+    @Override
+    public void warn(String msg, Throwable t) {
+        target().warn(msg, t);
+    }
+
+    @Override
+    public void warn(Marker marker, String msg) {
+        target().warn(marker, msg);
+    }
+
+    @Override
+    public void warn(Marker marker, String format, Object arg) {
+        target().warn(marker, format, arg);
+    }
+
+    @Override
+    public void warn(Marker marker, String format, Object arg1, Object arg2) {
+        target().warn(marker, format, arg1, arg2);
+    }
+
+    @Override
+    public void warn(Marker marker, String format, Object... arguments) {
+        target().warn(marker, format, arguments);
+    }
+
+    @Override
+    public void warn(Marker marker, String msg, Throwable t) {
+        target().warn(marker, msg, t);
+    }
+
+    /* ERROR */
+
+    @Override
+    public boolean isErrorEnabled() {
+        return target().isErrorEnabled();
+    }
+
+    @Override
+    public boolean isErrorEnabled(Marker marker) {
+        return target().isErrorEnabled(marker);
+    }
+
+    @Override
+    public void error(String msg) {
+        target().error(msg);
+    }
+
+    @Override
+    public void error(String format, Object arg) {
+        target().error(format, arg);
+    }
+
+    @Override
+    public void error(String format, Object arg1, Object arg2) {
+        target().error(format, arg1, arg2);
+    }
+
+    @Override
+    public void error(String format, Object... arguments) {
+        target().error(format, arguments);
+    }
+
+    @Override
+    public void error(String msg, Throwable t) {
+        target().error(msg, t);
+    }
+
+    @Override
+    public void error(Marker marker, String msg) {
+        target().error(marker, msg);
+    }
+
+    @Override
+    public void error(Marker marker, String format, Object arg) {
+        target().error(marker, format, arg);
+    }
+
+    @Override
+    public void error(Marker marker, String format, Object arg1, Object arg2) {
+        target().error(marker, format, arg1, arg2);
+    }
+
+    @Override
+    public void error(Marker marker, String format, Object... arguments) {
+        target().error(marker, format, arguments);
+    }
+
+    @Override
+    public void error(Marker marker, String msg, Throwable t) {
+        target().error(marker, msg, t);
+    }
+
+    /* FLUENT API, the builders are the target's so events never come back through here */
+
+    @Override
+    public LoggingEventBuilder makeLoggingEventBuilder(Level level) {
+        return target().makeLoggingEventBuilder(level);
+    }
+
+    @Override
+    public LoggingEventBuilder atLevel(Level level) {
+        return target().atLevel(level);
+    }
+
+    @Override
+    public boolean isEnabledForLevel(Level level) {
+        return target().isEnabledForLevel(level);
+    }
+
+    @Override
+    public LoggingEventBuilder atTrace() {
+        return target().atTrace();
+    }
+
+    @Override
+    public LoggingEventBuilder atDebug() {
+        return target().atDebug();
+    }
+
+    @Override
+    public LoggingEventBuilder atInfo() {
+        return target().atInfo();
+    }
+
+    @Override
+    public LoggingEventBuilder atWarn() {
+        return target().atWarn();
+    }
+
+    @Override
+    public LoggingEventBuilder atError() {
+        return target().atError();
+    }
+
+    @Override
+    public void log(LoggingEvent event) {
+        target().log(event);
+    }
+}
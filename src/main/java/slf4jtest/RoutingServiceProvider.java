@@ -0,0 +1,70 @@
+package slf4jtest;
+
+import org.slf4j.ILoggerFactory;
+import org.slf4j.IMarkerFactory;
+import org.slf4j.helpers.BasicMDCAdapter;
+import org.slf4j.helpers.BasicMarkerFactory;
+import org.slf4j.spi.MDCAdapter;
+import org.slf4j.spi.SLF4JServiceProvider;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An optional SLF4J binding for code that calls the static org.slf4j.LoggerFactory, eg third party libraries.
+ * Each call to one of its loggers is routed to the TestLoggerFactory that the calling thread has bound with
+ * TestLoggerFactory.bind(), so tests running concurrently on different threads still see only their own logging.
+ * Calls from threads without a binding go to unbound().
+ * <p>
+ * It is not registered as a service, so it never competes with the real binding by accident; select it for a test
+ * run with -Dslf4j.provider=slf4jtest.RoutingServiceProvider, or list it in a
+ * META-INF/services/org.slf4j.spi.SLF4JServiceProvider file on the test classpath.
+ * <pre>
+ * try (TestLoggerFactory.Binding binding = loggerFactory.bind()) {
+ *     new ThirdPartyClient().call();
+ * }
+ * assertTrue(loggerFactory.matches(".*connected.*"));
+ * </pre>
+ */
+public class RoutingServiceProvider implements SLF4JServiceProvider {
+    // the SLF4J api this binding was written against
+    private static final String RequestedApiVersion = "2.0.99";
+
+    private ILoggerFactory loggerFactory;
+    private IMarkerFactory markerFactory;
+    private MDCAdapter mdcAdapter;
+
+    /**
+     * where calls from threads without a bound factory go; by default Settings it prints and captures errors only
+     */
+    public static TestLoggerFactory unbound() {
+        return Routing.unbound();
+    }
+
+    @Override
+    public void initialize() {
+        ConcurrentHashMap<String, RoutingLogger> loggers = new ConcurrentHashMap<>();
+        loggerFactory = name -> loggers.computeIfAbsent(name, RoutingLogger::new);
+        markerFactory = new BasicMarkerFactory();
+        mdcAdapter = new BasicMDCAdapter();
+    }
+
+    @Override
+    public ILoggerFactory getLoggerFactory() {
+        return loggerFactory;
+    }
+
+    @Override
+    public IMarkerFactory getMarkerFactory() {
+        return markerFactory;
+    }
+
+    @Override
+    public MDCAdapter getMDCAdapter() {
+        return mdcAdapter;
+    }
+
+    @Override
+    public String getRequestedApiVersion() {
+        return RequestedApiVersion;
+    }
+}
@@ -0,0 +1,49 @@
+package slf4jtest;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/* merges the rows of several loggers into the order the factory recorded them, by LogMessage.sequence.
+ * each source is read once, one row ahead, so nothing is copied; it must already be in sequence order, as a logger's
+ * rows are since LoggerExtensionsImpl.record takes the sequence and the row together.
+ */
+class SequencedRows implements Iterator<LogMessage> {
+    private static final class Head {
+        final Iterator<LogMessage> rows;
+        LogMessage row;
+
+        Head(Iterator<LogMessage> rows) {
+            this.rows = rows;
+            this.row = rows.next();
+        }
+    }
+
+    private final PriorityQueue<Head> heads = new PriorityQueue<>(Comparator.comparingLong((Head h) -> h.row.sequence));
+
+    SequencedRows(List<? extends Iterable<LogMessage>> sources) {
+        for (Iterable<LogMessage> source : sources) {
+            Iterator<LogMessage> rows = source.iterator();
+            if (rows.hasNext())
+                heads.add(new Head(rows));
+        }
+    }
+
+    public boolean hasNext() {
+        return !heads.isEmpty();
+    }
+
+    public LogMessage next() {
+        Head head = heads.poll();
+        if (head == null)
+            throw new NoSuchElementException();
+        LogMessage row = head.row;
+        if (head.rows.hasNext()) {
+            head.row = head.rows.next();
+            heads.add(head);
+        }
+        return row;
+    }
+}
@@ -1,12 +1,19 @@
 package slf4jtest;
 
 import org.slf4j.Logger;
+import org.slf4j.MDC;
+import org.slf4j.spi.MDCAdapter;
 
 import java.io.PrintStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
 import java.util.regex.Pattern;
 
 public class Settings {
+    /* the system property giving the default aggregateTo directory */
+    public static final String AggregateProperty = "slf4jtest.aggregateTo";
+
     // controls whether printing to console occurs
     final boolean printingEnabled;
     // override console print streams per log level
@@ -18,17 +25,73 @@ public class Settings {
     final Set<LogLevel> enabledLevels;
     // push the call down onto a provided instance
     final Map<String, Logger> delegates;
+    // source of MDC snapshots recorded on each LogMessage, null if MDC capture is off
+    final MDCAdapter mdcAdapter;
+    // record the caller of every n'th message, 0 for never
+    final int callerLocationEveryNth;
+    // per logger name overrides of callerLocationEveryNth
+    final Map<String, Integer> callerLocationSampling;
+    // call site analysis: unparameterised messages to a disabled level before a site is suspected of concatenation, 0 for off
+    final int analysisThreshold;
+    // keep captured rows in a ColumnarStore rather than as LogMessage objects
+    final boolean columnarCapture;
+    // heap held by a logger's captured messages before they spill to disk, 0 for never
+    final long spillThreshold;
+    // where spill segments are written, null for java.io.tmpdir
+    final Path spillDirectory;
+    // where failed assertions export the capture, null for not at all
+    final Path dumpDirectory;
+    // hand console lines to a writer thread instead of printing on the logging thread
+    final boolean printInBackground;
+    // capture only the first few messages of each format template and count the rest, 0 for capture everything
+    final int templateSamples;
+    // by logger name prefix, "" for every logger: the CapturePolicy of each level, by LogLevel.ordinal
+    final Map<String, CapturePolicy[]> capturePolicies;
+    // what a failed assertMatches reports of the messages closest to what it looked for
+    final NearMatches nearMatches;
+    // where every captured message is also appended for a suite wide view, null for nowhere
+    final Path aggregateDirectory;
+
+    // derived: per level (indexed by LogLevel.ordinal) whether a message could reach a print stream at all
+    final boolean[] printingLevels;
 
     private Settings(boolean print,
                      Map<LogLevel, PrintStream> printStreams,
                      List<Predicate<LogMessage>> suppressionPatterns,
                      Set<LogLevel> enabledLevels,
-                     Map<String, Logger> delegates) {
+                     Map<String, Logger> delegates,
+                     MDCAdapter mdcAdapter,
+                     int callerLocationEveryNth,
+                     Map<String, Integer> callerLocationSampling,
+                     int analysisThreshold,
+                     boolean columnarCapture,
+                     long spillThreshold,
+                     Path spillDirectory,
+                     Path dumpDirectory,
+                     boolean printInBackground,
+                     int templateSamples,
+                     Map<String, CapturePolicy[]> capturePolicies,
+                     NearMatches nearMatches,
+                     Path aggregateDirectory) {
         this.printingEnabled = print;
         this.printStreams = readonlyMap(printStreams);
         this.printSuppressions = readonlyList(suppressionPatterns);
         this.enabledLevels = readonlySet(enabledLevels);
         this.delegates = readonlyMap(delegates);
+        this.mdcAdapter = mdcAdapter;
+        this.callerLocationEveryNth = callerLocationEveryNth;
+        this.callerLocationSampling = readonlyMap(callerLocationSampling);
+        this.analysisThreshold = analysisThreshold;
+        this.columnarCapture = columnarCapture;
+        this.spillThreshold = spillThreshold;
+        this.spillDirectory = spillDirectory;
+        this.dumpDirectory = dumpDirectory;
+        this.printInBackground = printInBackground;
+        this.templateSamples = templateSamples;
+        this.capturePolicies = readonlyMap(capturePolicies);
+        this.nearMatches = nearMatches;
+        this.aggregateDirectory = aggregateDirectory;
+        this.printingLevels = printingLevels(this.printingEnabled, this.printStreams, this.enabledLevels);
     }
 
     public Settings() {
@@ -49,6 +112,21 @@ public class Settings {
         }});
 
         delegates = readonlyMap();
+        mdcAdapter = null;
+        callerLocationEveryNth = 0;
+        callerLocationSampling = readonlyMap();
+        analysisThreshold = 0;
+        columnarCapture = false;
+        spillThreshold = 0;
+        spillDirectory = null;
+        dumpDirectory = null;
+        printInBackground = false;
+        templateSamples = 0;
+        capturePolicies = readonlyMap();
+        nearMatches = NearMatches.Default;
+        String aggregateTo = System.getProperty(AggregateProperty);
+        aggregateDirectory = aggregateTo != null && !aggregateTo.isEmpty() ? Paths.get(aggregateTo) : null;
+        printingLevels = printingLevels(printingEnabled, printStreams, enabledLevels);
     }
 
     public static Settings instance() {
@@ -60,7 +138,7 @@ public class Settings {
     }
 
     public Settings printingEnabled(boolean print) {
-        return new Settings(print, printStreams, printSuppressions, enabledLevels, delegates);
+        return new Settings(print, printStreams, printSuppressions, enabledLevels, delegates, mdcAdapter, callerLocationEveryNth, callerLocationSampling, analysisThreshold, columnarCapture, spillThreshold, spillDirectory, dumpDirectory, printInBackground, templateSamples, capturePolicies, nearMatches, aggregateDirectory);
     }
 
     /* filters what gets written to the output streams (eg the console or by redirectPrintStream).
@@ -94,7 +172,7 @@ public class Settings {
 
         newSuppressions.add(pred);
 
-        return new Settings(printingEnabled, printStreams, newSuppressions, enabledLevels, delegates);
+        return new Settings(printingEnabled, printStreams, newSuppressions, enabledLevels, delegates, mdcAdapter, callerLocationEveryNth, callerLocationSampling, analysisThreshold, columnarCapture, spillThreshold, spillDirectory, dumpDirectory, printInBackground, templateSamples, capturePolicies, nearMatches, aggregateDirectory);
     }
 
     public Settings enableAll() {
@@ -109,14 +187,14 @@ public class Settings {
         Set<LogLevel> newLevels = new HashSet<>(enabledLevels);
         newLevels.addAll(Arrays.asList(levels));
 
-        return new Settings(printingEnabled, printStreams, printSuppressions, newLevels, delegates);
+        return new Settings(printingEnabled, printStreams, printSuppressions, newLevels, delegates, mdcAdapter, callerLocationEveryNth, callerLocationSampling, analysisThreshold, columnarCapture, spillThreshold, spillDirectory, dumpDirectory, printInBackground, templateSamples, capturePolicies, nearMatches, aggregateDirectory);
     }
 
     public Settings disable(LogLevel... levels) {
         Set<LogLevel> newLevels = new HashSet<>(enabledLevels);
         newLevels.removeAll(Arrays.asList(levels));
 
-        return new Settings(printingEnabled, printStreams, printSuppressions, newLevels, delegates);
+        return new Settings(printingEnabled, printStreams, printSuppressions, newLevels, delegates, mdcAdapter, callerLocationEveryNth, callerLocationSampling, analysisThreshold, columnarCapture, spillThreshold, spillDirectory, dumpDirectory, printInBackground, templateSamples, capturePolicies, nearMatches, aggregateDirectory);
     }
 
     /*
@@ -136,7 +214,158 @@ public class Settings {
         Map<LogLevel, PrintStream> newPrintStreams = new HashMap<>(printStreams);
         newPrintStreams.put(level, ps);
 
-        return new Settings(printingEnabled, newPrintStreams, printSuppressions, enabledLevels, delegates);
+        return new Settings(printingEnabled, newPrintStreams, printSuppressions, enabledLevels, delegates, mdcAdapter, callerLocationEveryNth, callerLocationSampling, analysisThreshold, columnarCapture, spillThreshold, spillDirectory, dumpDirectory, printInBackground, templateSamples, capturePolicies, nearMatches, aggregateDirectory);
+    }
+
+    /* discard the console output of the given levels; the levels are still recorded.
+     * Unlike redirecting to an arbitrary PrintStream, discarded levels skip the print suppression checks and the
+     * layout entirely.
+     */
+    public Settings discard(LogLevel... levels) {
+        Map<LogLevel, PrintStream> newPrintStreams = new HashMap<>(printStreams);
+        for (LogLevel level : levels) {
+            newPrintStreams.put(level, NoopOutputStream.NoopPrintStream);
+        }
+
+        return new Settings(printingEnabled, newPrintStreams, printSuppressions, enabledLevels, delegates, mdcAdapter, callerLocationEveryNth, callerLocationSampling, analysisThreshold, columnarCapture, spillThreshold, spillDirectory, dumpDirectory, printInBackground, templateSamples, capturePolicies, nearMatches, aggregateDirectory);
+    }
+
+    /* record a snapshot of the MDC on each captured LogMessage, taken from org.slf4j.MDC's adapter.
+     */
+    public Settings captureMdc(boolean capture) {
+        return captureMdc(capture ? MDC.getMDCAdapter() : null);
+    }
+
+    /* record a snapshot of the given adapter's context on each captured LogMessage; null turns MDC capture off.
+     * Passing an adapter explicitly avoids depending on whichever SLF4J binding happens to be on the classpath.
+     */
+    public Settings captureMdc(MDCAdapter adapter) {
+        return new Settings(printingEnabled, printStreams, printSuppressions, enabledLevels, delegates, adapter, callerLocationEveryNth, callerLocationSampling, analysisThreshold, columnarCapture, spillThreshold, spillDirectory, dumpDirectory, printInBackground, templateSamples, capturePolicies, nearMatches, aggregateDirectory);
+    }
+
+    /* record the CallerLocation of each captured LogMessage.
+     */
+    public Settings captureCallerLocation(boolean capture) {
+        return captureCallerLocation(capture ? 1 : 0);
+    }
+
+    /* record the CallerLocation of every n'th captured LogMessage of each logger; 0 turns capture off.
+     * Locating the caller walks a few stack frames so sampling keeps the cost down in high volume tests.
+     */
+    public Settings captureCallerLocation(int everyNth) {
+        return new Settings(printingEnabled, printStreams, printSuppressions, enabledLevels, delegates, mdcAdapter, everyNth, callerLocationSampling, analysisThreshold, columnarCapture, spillThreshold, spillDirectory, dumpDirectory, printInBackground, templateSamples, capturePolicies, nearMatches, aggregateDirectory);
+    }
+
+    /* as captureCallerLocation(int) but for a single logger, overriding the setting for all other loggers */
+    public Settings captureCallerLocation(String loggerName, int everyNth) {
+        Map<String, Integer> newSampling = new HashMap<>(callerLocationSampling);
+        newSampling.put(loggerName, everyNth);
+
+        return new Settings(printingEnabled, printStreams, printSuppressions, enabledLevels, delegates, mdcAdapter, callerLocationEveryNth, newSampling, analysisThreshold, columnarCapture, spillThreshold, spillDirectory, dumpDirectory, printInBackground, templateSamples, capturePolicies, nearMatches, aggregateDirectory);
+    }
+
+    /* keep captured messages compactly, for tests that capture millions of them.
+     * Level, time stamp and thread are held in primitive columns and the text and arguments as UTF-8, so a message
+     * costs little more than its text; each LogMessage returned by the query methods is rebuilt as it is read, with
+     * its arguments as strings.
+     */
+    public Settings columnarCapture(boolean columnar) {
+        return new Settings(printingEnabled, printStreams, printSuppressions, enabledLevels, delegates, mdcAdapter, callerLocationEveryNth, callerLocationSampling, analysisThreshold, columnar, spillThreshold, spillDirectory, dumpDirectory, printInBackground, templateSamples, capturePolicies, nearMatches, aggregateDirectory);
+    }
+
+    /* keep each logger's captured messages on the heap until they take roughly heapThresholdBytes, then move them
+     * to memory-mapped files in a temp directory. Queries read the files in place; for rows read back from disk
+     * the arguments and key values are their String.valueOf and markers are detached markers with the same name.
+     * The files go on clear() or TestLoggerFactory.close(). 0 turns spilling off.
+     */
+    public Settings spillToDisk(long heapThresholdBytes) {
+        return new Settings(printingEnabled, printStreams, printSuppressions, enabledLevels, delegates, mdcAdapter, callerLocationEveryNth, callerLocationSampling, analysisThreshold, columnarCapture, heapThresholdBytes, spillDirectory, dumpDirectory, printInBackground, templateSamples, capturePolicies, nearMatches, aggregateDirectory);
+    }
+
+    /* as spillToDisk(long) with the temp directory created under the given directory */
+    public Settings spillToDisk(Path directory, long heapThresholdBytes) {
+        return new Settings(printingEnabled, printStreams, printSuppressions, enabledLevels, delegates, mdcAdapter, callerLocationEveryNth, callerLocationSampling, analysisThreshold, columnarCapture, heapThresholdBytes, directory, dumpDirectory, printInBackground, templateSamples, capturePolicies, nearMatches, aggregateDirectory);
+    }
+
+    /* when assertMatches fails export the whole capture as JSON Lines to a new file in the directory and give its
+     * path in the AssertionError, so a failure on CI leaves the logging that wasn't printed behind.
+     * null turns this off.
+     */
+    public Settings dumpOnFailure(Path directory) {
+        return new Settings(printingEnabled, printStreams, printSuppressions, enabledLevels, delegates, mdcAdapter, callerLocationEveryNth, callerLocationSampling, analysisThreshold, columnarCapture, spillThreshold, spillDirectory, directory, printInBackground, templateSamples, capturePolicies, nearMatches, aggregateDirectory);
+    }
+
+    /* print from a writer thread of the factory's own: loggers hand their lines over without taking any lock and
+     * carry on, so a virtual thread never blocks in a PrintStream while pinned to its carrier.
+     * Lines appear shortly after the call; TestLoggerFactory.awaitPrinting() waits for them, eg before asserting on a
+     * redirected stream.
+     */
+    public Settings printInBackground(boolean background) {
+        return new Settings(printingEnabled, printStreams, printSuppressions, enabledLevels, delegates, mdcAdapter, callerLocationEveryNth, callerLocationSampling, analysisThreshold, columnarCapture, spillThreshold, spillDirectory, dumpDirectory, background, templateSamples, capturePolicies, nearMatches, aggregateDirectory);
+    }
+
+    /* for tests that log the same statements millions of times: each logger captures the first samples messages of
+     * each format template and only counts the others, which are not captured, and not formatted unless printed, so
+     * memory grows with the number of distinct statements rather than with the number of calls.
+     * Query with countWithTemplate, linesWithTemplate and templateCounts. The messages that were only counted show in
+     * LoggerMetrics.counted and count towards assertAtMostMessages but not towards assertAtMostBytes.
+     */
+    public Settings deduplicateTemplates(int samples) {
+        if (samples < 1)
+            throw new IllegalArgumentException("keep at least one sample of each template, not " + samples);
+        return new Settings(printingEnabled, printStreams, printSuppressions, enabledLevels, delegates, mdcAdapter, callerLocationEveryNth, callerLocationSampling, analysisThreshold, columnarCapture, spillThreshold, spillDirectory, dumpDirectory, printInBackground, samples, capturePolicies, nearMatches, aggregateDirectory);
+    }
+
+    /* capture only some of the messages at the given level, eg CapturePolicy.everyNth(100) for DEBUG in a load test.
+     * The policy runs before the message is formatted and decides capture only; the ones it passes over are counted
+     * and still printed, see CapturePolicy.
+     */
+    public Settings capturePolicy(LogLevel level, CapturePolicy policy) {
+        return capturePolicy("", level, policy);
+    }
+
+    /* as capturePolicy(level, policy) but only for the loggers named loggerPrefix or below it, eg "com.acme.cache"
+     * for com.acme.cache.Loader. The longest matching prefix wins; each logger keeps its own count or bucket.
+     */
+    public Settings capturePolicy(String loggerPrefix, LogLevel level, CapturePolicy policy) {
+        Map<String, CapturePolicy[]> newPolicies = new HashMap<>(capturePolicies);
+        CapturePolicy[] byLevel = newPolicies.get(loggerPrefix);
+        byLevel = byLevel != null ? byLevel.clone() : new CapturePolicy[LogLevel.All.size()];
+        byLevel[level.ordinal] = policy;
+        newPolicies.put(loggerPrefix, byLevel);
+
+        return new Settings(printingEnabled, printStreams, printSuppressions, enabledLevels, delegates, mdcAdapter, callerLocationEveryNth, callerLocationSampling, analysisThreshold, columnarCapture, spillThreshold, spillDirectory, dumpDirectory, printInBackground, templateSamples, newPolicies, nearMatches, aggregateDirectory);
+    }
+
+    /* when assertMatches fails, list the count captured messages closest to the probe passed to assertMatches or the
+     * predicate's toString, reading at most maxRows messages for at most maxMillis; with neither, eg for a lambda, list
+     * the last count messages logged. count 0 lists none. The default lists 5 from up to a million messages or 250ms.
+     */
+    public Settings nearMatches(int count, long maxRows, long maxMillis) {
+        return new Settings(printingEnabled, printStreams, printSuppressions, enabledLevels, delegates, mdcAdapter, callerLocationEveryNth, callerLocationSampling, analysisThreshold, columnarCapture, spillThreshold, spillDirectory, dumpDirectory, printInBackground, templateSamples, capturePolicies, new NearMatches(count, maxRows, maxMillis), aggregateDirectory);
+    }
+
+    /* also append every captured message to memory-mapped files in the directory, one set per JVM, so that the
+     * capture of forked test JVMs can be brought together with TestLoggerFactory.replayAggregate at the end of the build.
+     * Defaults to the slf4jtest.aggregateTo system property, eg from a Gradle test task's systemProperty.
+     * null turns it off.
+     */
+    public Settings aggregateTo(Path directory) {
+        return new Settings(printingEnabled, printStreams, printSuppressions, enabledLevels, delegates, mdcAdapter, callerLocationEveryNth, callerLocationSampling, analysisThreshold, columnarCapture, spillThreshold, spillDirectory, dumpDirectory, printInBackground, templateSamples, capturePolicies, nearMatches, directory);
+    }
+
+    /* analyse the cost of each logging call site, see TestLoggerFactory.analysis().
+     * Every call walks the stack to find its call site so this is for finding expensive logging, not for everyday tests.
+     */
+    public Settings analyse(boolean analyse) {
+        return analyse(analyse ? 100 : 0);
+    }
+
+    /* as analyse(true), suspecting a call site of building its messages by concatenation once it has sent this many
+     * unparameterised messages to a disabled level; 0 turns analysis off.
+     */
+    public Settings analyse(int concatenationThreshold) {
+        return new Settings(printingEnabled, printStreams, printSuppressions, enabledLevels, delegates, mdcAdapter, callerLocationEveryNth, callerLocationSampling, concatenationThreshold, columnarCapture, spillThreshold, spillDirectory, dumpDirectory, printInBackground, templateSamples, capturePolicies, nearMatches, aggregateDirectory);
     }
 
     /*
@@ -154,7 +383,7 @@ public class Settings {
         Map<String, Logger> newDelegates = new HashMap<>(delegates);
         newDelegates.put(loggerName, logger);
 
-        return new Settings(printingEnabled, printStreams, printSuppressions, enabledLevels, newDelegates);
+        return new Settings(printingEnabled, printStreams, printSuppressions, enabledLevels, newDelegates, mdcAdapter, callerLocationEveryNth, callerLocationSampling, analysisThreshold, columnarCapture, spillThreshold, spillDirectory, dumpDirectory, printInBackground, templateSamples, capturePolicies, nearMatches, aggregateDirectory);
     }
 
     /* true if the given level is enabled in these settings */
@@ -162,6 +391,47 @@ public class Settings {
         return enabledLevels.contains(level);
     }
 
+    /* caller location sampling for the given logger, 0 for none */
+    int callerLocationEveryNth(String loggerName) {
+        Integer everyNth = callerLocationSampling.get(loggerName);
+        return everyNth != null ? everyNth : callerLocationEveryNth;
+    }
+
+    /* the CapturePolicy for a logger's messages at the given level, null to capture them all */
+    CapturePolicy capturePolicy(String loggerName, LogLevel level) {
+        CapturePolicy policy = null;
+        int longest = -1;
+        for (Map.Entry<String, CapturePolicy[]> e : capturePolicies.entrySet()) {
+            String prefix = e.getKey();
+            CapturePolicy p = e.getValue()[level.ordinal];
+            if (p != null && prefix.length() > longest && isAtOrBelow(loggerName, prefix)) {
+                policy = p;
+                longest = prefix.length();
+            }
+        }
+        return policy;
+    }
+
+    private static boolean isAtOrBelow(String loggerName, String prefix) {
+        return prefix.isEmpty() || loggerName.equals(prefix)
+                || loggerName.startsWith(prefix) && loggerName.charAt(prefix.length()) == '.';
+    }
+
+    /* true if a message at the given level can reach a print stream */
+    boolean isPrinting(LogLevel level) {
+        return printingLevels[level.ordinal];
+    }
+
+    private static boolean[] printingLevels(boolean print, Map<LogLevel, PrintStream> printStreams, Set<LogLevel> enabledLevels) {
+        boolean[] printing = new boolean[LogLevel.All.size()];
+        for (LogLevel l : LogLevel.All) {
+            printing[l.ordinal] = print
+                    && enabledLevels.contains(l)
+                    && printStreams.get(l) != NoopOutputStream.NoopPrintStream;
+        }
+        return printing;
+    }
+
     private static <a,b> Map<a,b> readonlyMap(){
         return Collections.unmodifiableMap(new HashMap<a,b>());
     }
@@ -0,0 +1,425 @@
+package slf4jtest;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.ReentrantLock;
+
+/* A CaptureStore for captures too big for the heap, see Settings.spillToDisk.
+ *
+ * Messages are appended to a heap buffer. Once the buffer's estimated size reaches the threshold its rows are
+ * encoded with RecordCodec into an append-only memory-mapped segment file and the buffer starts again.
+ * Spilled rows are read straight from the mapping: contains() searches the UTF-8 text in place and a LogMessage is
+ * only decoded for a row that is asked for. Every 64th record's offset is remembered to find rows by number.
+ *
+ * Appends and spills are serialised by a lock rather than a monitor, as a spill does file I/O and a virtual thread
+ * must not be pinned to its carrier meanwhile; spilled rows are published through spilledRows.
+ * Segment files are deleted by clear() and by TestLoggerFactory.close(), and otherwise when the JVM exits.
+ * clearUpTo hides rows below a sequence floor and deletes segments with nothing left in them; views taken by upTo
+ * keep their own list of segments and copy of the buffer.
+ */
+class SpillStore implements CaptureStore {
+    static final int SegmentBytes = 16 << 20;
+    private static final int SampleBits = 6;
+    // rough heap cost of a buffered LogMessage besides its text
+    private static final int MessageOverhead = 96;
+
+    private final FactoryContext context;
+    private final String logName;
+    private final long thresholdBytes;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // guarded by lock
+    private final List<LogMessage> buffer = new ArrayList<>();
+    private long bufferedBytes;
+    private long size;
+
+    private volatile List<Segment> segments = Collections.emptyList();
+    private volatile long spilledRows;
+    // rows with a sequence up to the floor have been cleared by clearUpTo, removed of them
+    private volatile long floor;
+    private long removed;
+
+    SpillStore(FactoryContext context, String logName, long thresholdBytes) {
+        this.context = context;
+        this.logName = logName;
+        this.thresholdBytes = thresholdBytes;
+    }
+
+    private static final class Segment {
+        final Path path;
+        final MappedByteBuffer map;
+        final long firstRow;
+        // written by the appending thread only, published by spilledRows
+        private final ByteBuffer writer;
+        int rows;
+        volatile int[] samples = new int[64];
+
+        Segment(Path path, MappedByteBuffer map, long firstRow) {
+            this.path = path;
+            this.map = map;
+            this.firstRow = firstRow;
+            this.writer = map.duplicate();
+        }
+
+        boolean fits(ByteBuffer record) {
+            return writer.remaining() >= record.remaining();
+        }
+
+        void put(ByteBuffer record) {
+            int sample = rows >>> SampleBits;
+            if ((rows & ((1 << SampleBits) - 1)) == 0) {
+                if (sample == samples.length)
+                    samples = Arrays.copyOf(samples, samples.length * 2);
+                samples[sample] = writer.position();
+            }
+            writer.put(record);
+            rows++;
+        }
+
+        int offset(long row) {
+            int r = (int) (row - firstRow);
+            int pos = samples[r >>> SampleBits];
+            for (int i = r & ((1 << SampleBits) - 1); i > 0; i--) {
+                pos += RecordCodec.size(map, pos);
+            }
+            return pos;
+        }
+    }
+
+    public long append(LogMessage message) {
+        lock.lock();
+        try {
+            buffer.add(message);
+            bufferedBytes += MessageOverhead + message.text.length();
+            long row = size++;
+            if (bufferedBytes >= thresholdBytes)
+                spill();
+            return row;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void spill() {
+        List<Segment> spilled = segments;
+        Segment segment = spilled.isEmpty() ? null : spilled.get(spilled.size() - 1);
+        long row = spilledRows;
+        for (LogMessage m : buffer) {
+            ByteBuffer record = RecordCodec.encode(m);
+            if (segment == null || !segment.fits(record)) {
+                segment = newSegment(row, record.remaining());
+                spilled = new ArrayList<>(spilled);
+                spilled.add(segment);
+            }
+            segment.put(record);
+            row++;
+        }
+        segments = Collections.unmodifiableList(spilled);
+        // publishes the segments' rows
+        spilledRows = row;
+        buffer.clear();
+        bufferedBytes = 0;
+    }
+
+    private Segment newSegment(long firstRow, int recordSize) {
+        try {
+            Path path = Files.createTempFile(context.spillDirectory(), fileName(logName), ".seg");
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(SegmentBytes, recordSize));
+                return new Segment(path, map, firstRow);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("cannot spill captured logging of " + logName, e);
+        }
+    }
+
+    private static String fileName(String logName) {
+        String name = logName.replaceAll("[^A-Za-z0-9._-]", "_");
+        return (name.length() > 40 ? name.substring(name.length() - 40) : name) + "-";
+    }
+
+    public LogMessage get(long row) {
+        if (row >= 0 && row < spilledRows)
+            return spilled(segments, row, floor);
+
+        lock.lock();
+        try {
+            if (row >= 0 && row < spilledRows)
+                return spilled(segments, row, floor);
+            LogMessage m = buffered(row);
+            return m != null && m.sequence > floor ? m : null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private LogMessage buffered(long row) {
+        lock.lock();
+        try {
+            return row >= spilledRows ? buffered(buffer, row - spilledRows) : null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static LogMessage buffered(List<LogMessage> buffer, long i) {
+        return i >= 0 && i < buffer.size() ? buffer.get((int) i) : null;
+    }
+
+    private static LogMessage spilled(List<Segment> segments, long row, long floor) {
+        Segment segment = segment(segments, row);
+        if (segment == null)
+            return null;
+        int offset = segment.offset(row);
+        return RecordCodec.sequence(segment.map, offset) > floor ? RecordCodec.decode(segment.map, offset) : null;
+    }
+
+    private static Segment segment(List<Segment> segments, long row) {
+        int low = 0;
+        int high = segments.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            Segment s = segments.get(mid);
+            if (row < s.firstRow)
+                high = mid - 1;
+            else if (row >= s.firstRow + s.rows)
+                low = mid + 1;
+            else
+                return s;
+        }
+        return null;
+    }
+
+    public long size() {
+        lock.lock();
+        try {
+            return size - removed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long end() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Iterator<LogMessage> iterator() {
+        return new Rows(null, null, 0, 0, Long.MAX_VALUE);
+    }
+
+    public Iterable<LogMessage> upTo(long cut) {
+        lock.lock();
+        try {
+            List<Segment> frozen = segments;
+            List<LogMessage> buffered = new ArrayList<>(buffer);
+            long cleared = floor;
+            long rows = spilledRows;
+            return () -> new Rows(frozen, buffered, rows, cleared, cut);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /* the rows of the live store, or of a frozen list of segments and copy of the buffer */
+    private final class Rows implements Iterator<LogMessage> {
+        private final List<Segment> frozen;
+        private final List<LogMessage> buffered;
+        private final long frozenRows;
+        private final long floor;
+        private final long cut;
+        private long row;
+        private Segment segment;
+        private int offset;
+        private LogMessage next;
+
+        Rows(List<Segment> frozen, List<LogMessage> buffered, long frozenRows, long floor, long cut) {
+            this.frozen = frozen;
+            this.buffered = buffered;
+            this.frozenRows = frozenRows;
+            this.floor = floor;
+            this.cut = cut;
+        }
+
+        public boolean hasNext() {
+            while (next == null) {
+                if (!read())
+                    return false;
+            }
+            return true;
+        }
+
+        public LogMessage next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            LogMessage m = next;
+            next = null;
+            return m;
+        }
+
+        // walks the segments sequentially rather than finding each row from the samples.
+        // false at the end, otherwise moves on a row, setting next unless the row is hidden
+        private boolean read() {
+            long spilled = frozen != null ? frozenRows : spilledRows;
+            if (row < spilled) {
+                if (segment == null || row >= segment.firstRow + segment.rows) {
+                    segment = segment(frozen != null ? frozen : segments, row);
+                    if (segment == null) {
+                        // a segment deleted by clearUpTo
+                        row = nextSegmentRow(row, spilled);
+                        return true;
+                    }
+                    offset = segment.offset(row);
+                }
+                long sequence = RecordCodec.sequence(segment.map, offset);
+                if (sequence > floor() && sequence <= cut)
+                    next = RecordCodec.decode(segment.map, offset);
+                offset += RecordCodec.size(segment.map, offset);
+                row++;
+                return true;
+            }
+            LogMessage m = frozen != null ? buffered(buffered, row - spilled) : buffered(row);
+            if (m == null)
+                // the end, or spilled since spilledRows was read
+                return frozen == null && row < spilledRows;
+            if (m.sequence > floor() && m.sequence <= cut)
+                next = m;
+            row++;
+            return true;
+        }
+
+        private long floor() {
+            return frozen != null ? floor : SpillStore.this.floor;
+        }
+
+        private long nextSegmentRow(long row, long spilled) {
+            for (Segment s : frozen != null ? frozen : segments) {
+                if (s.firstRow > row)
+                    return s.firstRow;
+            }
+            return spilled;
+        }
+    }
+
+    public boolean contains(LogLevel level, String substring) {
+        byte[] needle = substring.getBytes(StandardCharsets.UTF_8);
+        List<LogMessage> buffered;
+        List<Segment> spilled;
+        long rows;
+        lock.lock();
+        try {
+            buffered = new ArrayList<>(buffer);
+            spilled = segments;
+            rows = spilledRows;
+        } finally {
+            lock.unlock();
+        }
+
+        long cleared = floor;
+        for (Segment segment : spilled) {
+            int n = (int) Math.min(segment.rows, rows - segment.firstRow);
+            int pos = 0;
+            for (int i = 0; i < n; i++) {
+                if ((level == null || RecordCodec.level(segment.map, pos) == level)
+                        && RecordCodec.sequence(segment.map, pos) > cleared
+                        && RecordCodec.textContains(segment.map, pos, needle))
+                    return true;
+                pos += RecordCodec.size(segment.map, pos);
+            }
+        }
+        for (LogMessage m : buffered) {
+            if ((level == null || m.level == level) && m.sequence > cleared && m.text.contains(substring))
+                return true;
+        }
+        return false;
+    }
+
+    public void clearUpTo(long cut) {
+        lock.lock();
+        try {
+            clearRowsUpTo(cut);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void clearRowsUpTo(long cut) {
+        long from = floor;
+        if (cut <= from)
+            return;
+
+        long count = 0;
+        List<Segment> kept = new ArrayList<>();
+        for (Segment segment : segments) {
+            boolean empty = true;
+            int pos = 0;
+            for (int i = 0; i < segment.rows; i++) {
+                long sequence = RecordCodec.sequence(segment.map, pos);
+                if (sequence > cut)
+                    empty = false;
+                else if (sequence > from)
+                    count++;
+                pos += RecordCodec.size(segment.map, pos);
+            }
+            if (empty)
+                delete(segment);
+            else
+                kept.add(segment);
+        }
+        for (LogMessage m : buffer) {
+            if (m.sequence > from && m.sequence <= cut)
+                count++;
+        }
+        segments = Collections.unmodifiableList(kept);
+        removed += count;
+        floor = cut;
+    }
+
+    private static void delete(Segment segment) {
+        try {
+            // the mapping itself is released when it is collected
+            Files.deleteIfExists(segment.path);
+        } catch (IOException e) {
+            // left for FactoryContext.close
+        }
+    }
+
+    /* segments aren't worth keeping, the buffer is */
+    public void reset(long cut) {
+        clear();
+    }
+
+    public void clear() {
+        lock.lock();
+        try {
+            for (Segment segment : segments) {
+                delete(segment);
+            }
+            segments = Collections.emptyList();
+            spilledRows = 0;
+            buffer.clear();
+            bufferedBytes = 0;
+            size = 0;
+            removed = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
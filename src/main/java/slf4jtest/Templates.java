@@ -0,0 +1,108 @@
+package slf4jtest;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongPredicate;
+
+/* counts of one logger's messages by format template, with the row numbers of the samples that were captured,
+ * see Settings.deduplicateTemplates.
+ * Once a template has its samples, an occurrence costs a map lookup and a LongAdder increment.
+ */
+class Templates {
+    private static final class Template {
+        // occurrences that asked for a sample, may overshoot the number of samples
+        final AtomicInteger taken = new AtomicInteger();
+        // occurrences that were only counted
+        final LongAdder counted = new LongAdder();
+        final Queue<Long> rows = new ConcurrentLinkedQueue<>();
+    }
+
+    private final int samples;
+    private final ConcurrentHashMap<String, Template> byTemplate = new ConcurrentHashMap<>();
+
+    Templates(int samples) {
+        this.samples = samples;
+    }
+
+    /* count an occurrence of the template, returning true if it is one of the samples to capture */
+    boolean occurred(String template) {
+        Template t = byTemplate.get(template);
+        if (t == null)
+            t = byTemplate.computeIfAbsent(template, k -> new Template());
+        if (t.taken.get() < samples && t.taken.incrementAndGet() <= samples)
+            return true;
+        t.counted.increment();
+        return false;
+    }
+
+    /* count an occurrence of the template that was not captured for some other reason */
+    void counted(String template) {
+        Template t = byTemplate.get(template);
+        if (t == null)
+            t = byTemplate.computeIfAbsent(template, k -> new Template());
+        t.counted.increment();
+    }
+
+    /* the captured row of a sample */
+    void sampled(String template, long row) {
+        Template t = byTemplate.get(template);
+        if (t != null)
+            t.rows.add(row);
+    }
+
+    long count(String template) {
+        Template t = byTemplate.get(template);
+        return t != null ? count(t) : 0;
+    }
+
+    private long count(Template t) {
+        return Math.min(t.taken.get(), samples) + t.counted.sum();
+    }
+
+    Collection<Long> rows(String template) {
+        Template t = byTemplate.get(template);
+        if (t == null)
+            return Collections.emptyList();
+        return new ArrayList<>(t.rows);
+    }
+
+    Map<String, Long> counts() {
+        Map<String, Long> counts = new HashMap<>();
+        for (Map.Entry<String, Template> e : byTemplate.entrySet()) {
+            counts.put(e.getKey(), count(e.getValue()));
+        }
+        return ranked(counts);
+    }
+
+    /* most frequent first */
+    static Map<String, Long> ranked(Map<String, Long> counts) {
+        List<Map.Entry<String, Long>> entries = new ArrayList<>(counts.entrySet());
+        entries.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+        Map<String, Long> ranked = new LinkedHashMap<>();
+        for (Map.Entry<String, Long> e : entries) {
+            ranked.put(e.getKey(), e.getValue());
+        }
+        return ranked;
+    }
+
+    /* forget samples that are no longer live, eg after a clearUpTo; the counts carry on, like the metrics */
+    void prune(LongPredicate live) {
+        for (Template t : byTemplate.values()) {
+            t.rows.removeIf(row -> !live.test(row));
+        }
+    }
+
+    void clear() {
+        byTemplate.clear();
+    }
+}
@@ -1,7 +1,10 @@
 package slf4jtest;
 
 import org.slf4j.Logger;
+import org.slf4j.spi.LoggingEventAware;
 
-/* combined interface returned by the TestLoggerFactory but only instantiated virtually in the proxy invocation handler */
-public interface TestLogger extends LoggerExtensions, Logger {
+/* combined interface returned by the TestLoggerFactory, implemented by TestLoggerImpl.
+ * being LoggingEventAware means events built with the SLF4J 2 fluent api reach the TestLogger unformatted.
+ */
+public interface TestLogger extends LoggerExtensions, Logger, LoggingEventAware {
 }
@@ -1,34 +1,37 @@
 package slf4jtest;
 
-import org.slf4j.Logger;
-import org.slf4j.Marker;
-import org.slf4j.helpers.FormattingTuple;
-import org.slf4j.helpers.MessageFormatter;
-
-import java.io.PrintWriter;
-import java.io.StringWriter;
-import java.lang.reflect.InvocationHandler;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
-import java.lang.reflect.Proxy;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.regex.Pattern;
 
-public class TestLoggerFactory implements LoggerFactoryExtensions, LoggerExtensions {
-    private final long startTime = System.currentTimeMillis();
-
+public class TestLoggerFactory implements LoggerFactoryExtensions, LoggerExtensions, AutoCloseable {
     private final Settings settings;
 
-    private final ConcurrentMap<String, TestLogger> loggers = new ConcurrentHashMap<>();
+    private final FactoryContext context;
+
+    private final ConcurrentMap<String, TestLoggerImpl> loggers = new ConcurrentHashMap<>();
+
+    // the loggers that RoutingLoggers send calls to, by RoutingLogger id; copied on write
+    private volatile TestLogger[] routed = new TestLogger[0];
+    private final ReentrantLock routeLock = new ReentrantLock();
 
     public TestLoggerFactory(final Settings settings) {
         this.settings = settings;
+        this.context = new FactoryContext(settings, this);
     }
 
     public TestLoggerFactory() {
-        this.settings = new Settings();
+        this(new Settings());
     }
 
     /**
@@ -76,6 +79,99 @@ public class TestLoggerFactory implements LoggerFactoryExtensions, LoggerExtensi
         return Collections.unmodifiableCollection(lm);
     }
 
+    @Override
+    public Collection<LogMessage> linesWithMdc(String key, String value) {
+        ArrayList<LogMessage> lm = new ArrayList<>();
+
+        for (TestLogger l : loggers.values()) {
+            lm.addAll(l.linesWithMdc(key, value));
+        }
+        return Collections.unmodifiableCollection(lm);
+    }
+
+    @Override
+    public Collection<LogMessage> linesWithKeyValue(String key, Object value) {
+        ArrayList<LogMessage> lm = new ArrayList<>();
+
+        for (TestLogger l : loggers.values()) {
+            lm.addAll(l.linesWithKeyValue(key, value));
+        }
+        return Collections.unmodifiableCollection(lm);
+    }
+
+    @Override
+    public Collection<LogMessage> linesWithMarker(String markerName) {
+        ArrayList<LogMessage> lm = new ArrayList<>();
+
+        for (TestLogger l : loggers.values()) {
+            lm.addAll(l.linesWithMarker(markerName));
+        }
+        return Collections.unmodifiableCollection(lm);
+    }
+
+    @Override
+    public long countWithTemplate(String template) {
+        long count = 0;
+        for (TestLogger l : loggers.values()) {
+            count += l.countWithTemplate(template);
+        }
+        return count;
+    }
+
+    @Override
+    public Collection<LogMessage> linesWithTemplate(String template) {
+        ArrayList<LogMessage> lm = new ArrayList<>();
+
+        for (TestLogger l : loggers.values()) {
+            lm.addAll(l.linesWithTemplate(template));
+        }
+        return Collections.unmodifiableCollection(lm);
+    }
+
+    @Override
+    public Map<String, Long> templateCounts() {
+        Map<String, Long> counts = new HashMap<>();
+        for (TestLogger l : loggers.values()) {
+            for (Map.Entry<String, Long> e : l.templateCounts().entrySet()) {
+                counts.merge(e.getKey(), e.getValue(), Long::sum);
+            }
+        }
+        return Collections.unmodifiableMap(Templates.ranked(counts));
+    }
+
+    /**
+     * the messages of all loggers with a timeStamp from from to to, inclusive, in the order they were logged.
+     * each logger only reads the rows it logged around the window.
+     */
+    @Override
+    public Collection<LogMessage> linesBetween(long from, long to) {
+        List<Iterable<LogMessage>> found = new ArrayList<>();
+        for (TestLogger l : loggers.values()) {
+            found.add(l.linesBetween(from, to));
+        }
+        List<LogMessage> lm = new ArrayList<>();
+        new SequencedRows(found).forEachRemaining(lm::add);
+        return Collections.unmodifiableList(lm);
+    }
+
+    @Override
+    public boolean matchesBetween(long from, long to, Predicate<LogMessage> predicate) {
+        for (TestLogger l : loggers.values()) {
+            if (l.matchesBetween(from, to, predicate))
+                return true;
+        }
+        return false;
+    }
+
+    @Override
+    public long countWithMarker(String markerName) {
+        long count = 0;
+        for (TestLogger l : loggers.values()) {
+            count += l.countWithMarker(markerName);
+        }
+        return count;
+    }
+
     /**
      * check if a regex exists in any of the loggers output.
      * matches using Pattern.DOTALL
@@ -101,9 +197,19 @@ public class TestLoggerFactory implements LoggerFactoryExtensions, LoggerExtensi
 
     @Override
     public boolean assertMatches(Predicate<LogMessage> predicate) throws Error {
+        return assertMatches(predicate, null);
+    }
+
+    @Override
+    public boolean assertMatches(Predicate<LogMessage> predicate, String probe) throws Error {
         boolean matched = matches(predicate);
         if (!matched) {
-            throw new AssertionError("did not match " + predicate.toString());
+            List<Iterable<LogMessage>> tails = new ArrayList<>();
+            for (TestLoggerImpl l : loggers.values()) {
+                tails.add(l.tail(settings.nearMatches.count));
+            }
+            throw new AssertionError(context.failure("did not match " + predicate.toString()
+                    + settings.nearMatches.report(liveInOrder(), new SequencedRows(tails), predicate, probe)));
         }
         return true;
     }
@@ -129,12 +235,335 @@ public class TestLoggerFactory implements LoggerFactoryExtensions, LoggerExtensi
     }
 
     /**
-     * clear all registered loggers
+     * fail if more than max messages were captured across all loggers since they were last cleared
+     */
+    public void assertAtMostMessages(long max) throws Error {
+        LogBudget.assertAtMostMessages(counters(), max);
+    }
+
+    /**
+     * fail if the messages captured across all loggers exceed maxPerOperation for each of the given operations
+     */
+    public void assertAtMostMessagesPerOperation(long operations, double maxPerOperation) throws Error {
+        LogBudget.assertAtMostMessagesPerOperation(counters(), operations, maxPerOperation);
+    }
+
+    /**
+     * fail if the text captured across all loggers at the given level and the more severe ones exceeds maxBytes,
+     * UTF-8 encoded
+     */
+    public void assertAtMostBytes(LogLevel atOrAbove, long maxBytes) throws Error {
+        LogBudget.assertAtMostBytes(counters(), atOrAbove, maxBytes);
+    }
+
+    /**
+     * fail if any logger was called at the level while it was disabled with a finished message rather than a {} format,
+     * see LoggerExtensions.assertNotCalledWhenDisabled
+     */
+    public void assertNotCalledWhenDisabled(LogLevel level) throws Error {
+        LogBudget.assertNotCalledWhenDisabled(counters(), level);
+    }
+
+    /**
+     * fail unless messages matching each of the steps were logged in that order, to any of the loggers, with anything
+     * in between. the capture is read once, in the order it was logged, and only as far as the last step.
+     */
+    @SafeVarargs
+    public final void assertSequence(Predicate<LogMessage>... steps) throws Error {
+        // copied so the generic array goes no further
+        List<Predicate<LogMessage>> sequence = new ArrayList<>(steps.length);
+        for (Predicate<LogMessage> step : steps) {
+            sequence.add(step);
+        }
+        String failure = LogOrder.sequence(inOrder(), sequence);
+        if (failure != null)
+            throw new AssertionError(context.failure(failure));
+    }
+
+    /**
+     * fail if a message matching unwanted was logged after one matching start and before the next one matching end,
+     * to any of the loggers. a start that is never ended stays open to the end of the capture.
+     */
+    public void assertNotBetween(Predicate<LogMessage> start, Predicate<LogMessage> unwanted, Predicate<LogMessage> end) throws Error {
+        String failure = LogOrder.notBetween(inOrder(), start, unwanted, end);
+        if (failure != null)
+            throw new AssertionError(context.failure(failure));
+    }
+
+    /**
+     * fail unless everything captured by all loggers, in the order it was logged and with times and thread names
+     * masked, matches the golden file line by line. see assertMatchesGolden(Path, LogNormaliser).
+     */
+    public void assertMatchesGolden(Path golden) throws Error {
+        assertMatchesGolden(golden, LogNormaliser.standard());
+    }
+
+    /**
+     * fail unless everything captured by all loggers, in the order it was logged and normalised, matches the golden
+     * file line by line. the capture and the file are both streamed and the failure shows the first few differing
+     * lines with the lines before them. write the file with writeGolden.
+     */
+    public void assertMatchesGolden(Path golden, LogNormaliser normaliser) throws Error {
+        if (!Files.exists(golden))
+            throw new AssertionError(context.failure("no golden file " + golden + ", write one with writeGolden"));
+        String failure;
+        try {
+            failure = GoldenLog.compare(inOrder(), normaliser, context.startTime, golden);
+        } catch (IOException e) {
+            throw new UncheckedIOException("cannot read golden file " + golden, e);
+        }
+        if (failure != null)
+            throw new AssertionError(context.failure(failure));
+    }
+
+    /**
+     * write everything captured by all loggers, in the order it was logged and normalised, as a golden file for
+     * assertMatchesGolden. returns the number of lines written.
+     */
+    public long writeGolden(Path golden, LogNormaliser normaliser) {
+        try {
+            return GoldenLog.write(inOrder(), normaliser, context.startTime, golden);
+        } catch (IOException e) {
+            throw new UncheckedIOException("cannot write golden file " + golden, e);
+        }
+    }
+
+    // everything captured so far across all loggers in the order it was logged, without gaps left by loggers in flight
+    private Iterator<LogMessage> inOrder() {
+        long cut = context.inFlight.cut(context.sequence);
+        List<Iterable<LogMessage>> views = new ArrayList<>();
+        for (TestLoggerImpl l : loggers.values()) {
+            views.add(l.rows.upTo(cut));
+        }
+        return new SequencedRows(views);
+    }
+
+    private Iterator<LogMessage> liveInOrder() {
+        List<CaptureStore> stores = new ArrayList<>();
+        for (TestLoggerImpl l : loggers.values()) {
+            stores.add(l.rows);
+        }
+        return new SequencedRows(stores);
+    }
+
+    private List<MetricsCounters> counters() {
+        List<MetricsCounters> counters = new ArrayList<>();
+        for (TestLoggerImpl l : loggers.values()) {
+            counters.add(l.metrics);
+        }
+        return counters;
+    }
+
+    /**
+     * write everything captured by all loggers to a file, in the order it was logged.
+     * messages are streamed to the file one at a time. returns the number written.
+     */
+    public long export(Path file, ExportFormat format) {
+        try {
+            return LogExport.write(liveInOrder(), file, format);
+        } catch (IOException e) {
+            throw new UncheckedIOException("cannot export captured logging to " + file, e);
+        }
+    }
+
+    /**
+     * load a file written by export(file, ExportFormat.Binary) so the usual assertions can be made against it.
+     * messages go straight into the stores of loggers of the same name, whatever levels are enabled, and are
+     * not printed. returns the number loaded.
+     */
+    public long replay(Path file) {
+        try {
+            if (!Replay.isBinaryExport(file))
+                throw new IllegalArgumentException(file + " is not a binary export, give its LogLayout to replay it as text");
+            long[] count = {0};
+            long maxSequence = Replay.binary(file, m -> {
+                logger(m.logName).replay(m);
+                count[0]++;
+            });
+            context.sequence.accumulateAndGet(maxSequence, Math::max);
+            return count[0];
+        } catch (IOException e) {
+            throw new UncheckedIOException("cannot replay " + file, e);
+        }
+    }
+
+    /**
+     * load everything aggregated in the directory by Settings.aggregateTo, from any number of JVMs, merged in time
+     * order, each JVM's messages in the order it captured them, and numbered after anything already captured.
+     * messages are stored as replay(Path) does, so the usual assertions and metrics() give a view of the whole run.
+     * returns the number loaded. fails if this JVM's aggregation to the directory stopped on an error.
+     */
+    public long replayAggregate(Path directory) {
+        Aggregator aggregator = Aggregator.existing(directory);
+        if (aggregator != null)
+            aggregator.check();
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> listing = Files.newDirectoryStream(directory, "*" + Aggregator.Suffix)) {
+            for (Path file : listing) {
+                files.add(file);
+            }
+            Collections.sort(files);
+            return Replay.merged(files, context.sequence, m -> logger(m.logName).replay(m));
+        } catch (IOException e) {
+            throw new UncheckedIOException("cannot replay the aggregate in " + directory, e);
+        }
+    }
+
+    /**
+     * load a plain text log written with the given layout, eg a production log, as replay(Path) does.
+     * lines that don't match the layout continue the message before them.
+     */
+    public long replay(Path file, LogLayout layout) {
+        try {
+            long[] count = {0};
+            Replay.text(file, layout, context, m -> {
+                logger(m.logName).replay(m);
+                count[0]++;
+            });
+            return count[0];
+        } catch (IOException e) {
+            throw new UncheckedIOException("cannot replay " + file, e);
+        }
+    }
+
+    /**
+     * a copy of the record time counters of every logger, eg to find the loggers flooding a test.
+     * counters restart from zero when the logger is cleared.
+     */
+    public LoggingMetrics metrics() {
+        Map<String, LoggerMetrics> byLogger = new HashMap<>();
+        for (TestLoggerImpl l : loggers.values()) {
+            byLogger.put(l.logName, l.metrics.snapshot(l.logName));
+        }
+        return new LoggingMetrics(Collections.unmodifiableMap(byLogger));
+    }
+
+    /**
+     * expose metrics() through JMX on the platform MBean server.
+     * unregister the returned name when done with the factory.
+     */
+    public ObjectName registerMBean(String name) {
+        try {
+            ObjectName objectName = new ObjectName("slf4jtest:type=TestLoggerFactory,name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new LoggingMetricsBean(this), objectName);
+            return objectName;
+        } catch (JMException e) {
+            throw new IllegalArgumentException("cannot register metrics as " + name, e);
+        }
+    }
+
+    /**
+     * the logging call sites seen so far ranked by cost, with unguarded and concatenating calls to disabled levels
+     * flagged. empty unless Settings.analyse is on.
+     */
+    public LogAnalysis analysis() {
+        if (context.analysis == null)
+            return new LogAnalysis(Collections.<CallSiteCost>emptyList());
+        return context.analysis.report();
+    }
+
+    /**
+     * an immutable view of what all loggers have captured as of one instant. loggers carry on while it is taken; every
+     * message logged before the call is in it, and no message is in it without all the earlier ones, whatever logger
+     * they went to.
+     */
+    public LogSnapshot snapshot() {
+        long cut = context.inFlight.cut(context.sequence);
+        Map<String, Iterable<LogMessage>> views = new HashMap<>();
+        for (TestLoggerImpl l : loggers.values()) {
+            views.put(l.logName, l.rows.upTo(cut));
+        }
+        return new LogSnapshot(cut, Collections.unmodifiableMap(views));
+    }
+
+    /**
+     * clear from every logger the messages in the snapshot, keeping those logged since it was taken.
+     * unlike clear(), nothing logged concurrently is lost; metrics and call site analysis are left alone.
+     */
+    public void clearUpTo(LogSnapshot snapshot) {
+        for (TestLoggerImpl l : loggers.values()) {
+            l.clearUpTo(snapshot.sequence);
+        }
+    }
+
+    /**
+     * clear all registered loggers and any call site analysis.
+     * messages logged while this runs may or may not survive it, use clearUpTo(snapshot()) if that matters.
      */
     public void clear() {
         for (TestLogger l : loggers.values()) {
             l.clear();
         }
+        if (context.analysis != null)
+            context.analysis.clear();
+    }
+
+    /**
+     * send the calls that the calling thread, and threads it starts from now on, make to loggers of the static
+     * org.slf4j.LoggerFactory to this factory until the binding is closed; see RoutingServiceProvider, without which
+     * this has no effect. bindings nest, closing one restores the factory bound before it.
+     */
+    public Binding bind() {
+        return Routing.bind(this);
+    }
+
+    /** A TestLoggerFactory bound to a thread by bind(), close it on the same thread */
+    public static final class Binding implements AutoCloseable {
+        private final Thread thread;
+        private final TestLoggerFactory previous;
+
+        Binding(Thread thread, TestLoggerFactory previous) {
+            this.thread = thread;
+            this.previous = previous;
+        }
+
+        @Override
+        public void close() {
+            if (Thread.currentThread() != thread)
+                throw new IllegalStateException("a binding must be closed by the thread that made it, " + thread.getName());
+            Routing.restore(previous);
+        }
+    }
+
+    /**
+     * with Settings.printInBackground, wait until everything logged before the call has been printed.
+     * returns straight away otherwise.
+     */
+    public void awaitPrinting() {
+        if (context.console != null)
+            context.console.await();
+    }
+
+    /* ready a pooled factory for its next test: the loggers are kept and their stores emptied in place, and anything
+     * still in flight from the last test is let through first. the clock that console and golden file times are
+     * relative to restarts, so they don't depend on the tests that used the factory before. see TestLoggerFactoryPool
+     */
+    void reset() {
+        awaitPrinting();
+        long cut = context.inFlight.cut(context.sequence);
+        for (TestLoggerImpl l : loggers.values()) {
+            l.reset(cut);
+        }
+        if (context.analysis != null)
+            context.analysis.clear();
+        context.startTime = System.currentTimeMillis();
+    }
+
+    Settings settings() {
+        return settings;
+    }
+
+    /**
+     * clear all loggers, delete any files that Settings.spillToDisk created and stop any background printing once
+     * it has caught up. fails if Settings.aggregateTo stopped on an error, after all that is done.
+     */
+    public void close() {
+        if (context.console != null)
+            context.console.close();
+        clear();
+        context.close();
+        if (context.aggregator != null)
+            context.aggregator.check();
     }
 
     /**
@@ -142,14 +571,38 @@ public class TestLoggerFactory implements LoggerFactoryExtensions, LoggerExtensi
      */
     @Override
     public TestLogger getLogger(String name) {
+        return logger(name);
+    }
+
+    /* the logger a RoutingLogger's calls go to; an array read once it has been seen */
+    TestLogger routed(int id, String name) {
+        TestLogger[] r = routed;
+        TestLogger logger = id < r.length ? r[id] : null;
+        return logger != null ? logger : route(id, name);
+    }
 
-        TestLogger cached = loggers.get(name);
+    // a lock rather than a monitor, the first call of each RoutingLogger comes through here
+    private TestLogger route(int id, String name) {
+        routeLock.lock();
+        try {
+            TestLogger[] r = Arrays.copyOf(routed, Math.max(routed.length, id + 1));
+            if (r[id] == null)
+                r[id] = logger(name);
+            routed = r;
+            return r[id];
+        } finally {
+            routeLock.unlock();
+        }
+    }
+
+    private TestLoggerImpl logger(String name) {
+        TestLoggerImpl cached = loggers.get(name);
         if (cached != null)
             return cached;
 
-        TestLogger newLogger = createMock(settings, name);
+        TestLoggerImpl newLogger = createLogger(settings, name);
 
-        TestLogger oldLogger = loggers.putIfAbsent(name, newLogger);
+        TestLoggerImpl oldLogger = loggers.putIfAbsent(name, newLogger);
         if (oldLogger != null) return oldLogger;
         return newLogger;
     }
@@ -175,116 +628,7 @@ public class TestLoggerFactory implements LoggerFactoryExtensions, LoggerExtensi
         return loggers.containsKey(name.getName());
     }
 
-    private final static Map<String, LogLevel> logFnNameToLogLevel = new HashMap<String, LogLevel>() {{
-        this.put("error", LogLevel.ErrorLevel);
-        this.put("warn", LogLevel.WarnLevel);
-        this.put("info", LogLevel.InfoLevel);
-        this.put("debug", LogLevel.DebugLevel);
-        this.put("trace", LogLevel.TraceLevel);
-    }};
-
-    private final static Map<String, LogLevel> isEnabledFnNameToLogLevel = new HashMap<String, LogLevel>() {{
-        this.put("isErrorEnabled", LogLevel.ErrorLevel);
-        this.put("isWarnEnabled", LogLevel.WarnLevel);
-        this.put("isInfoEnabled", LogLevel.InfoLevel);
-        this.put("isDebugEnabled", LogLevel.DebugLevel);
-        this.put("isTraceEnabled", LogLevel.TraceLevel);
-    }};
-
-    private TestLogger createMock(final Settings settings, final String logName) {
-
-        InvocationHandler handler = new InvocationHandler() {
-            LoggerExtensionsImpl extension = new LoggerExtensionsImpl(settings, startTime);
-
-            @Override
-            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
-                String name = method.getName();
-
-                Class<?> declaringClass = method.getDeclaringClass();
-                if (declaringClass == LoggerExtensions.class) {
-                    try {
-                        return method.invoke(extension, args);
-                    } catch (InvocationTargetException ite) {
-                        throw ite.getCause();
-                    }
-                }
-
-                try {
-                    if ("getName".equals(name)) {
-                        return logName;
-                    }
-
-                    if (isEnabledFnNameToLogLevel.containsKey(name)) {
-                        LogLevel l = isEnabledFnNameToLogLevel.get(name);
-                        return settings.enabledLevels.contains(l);
-                    }
-
-                    if (logFnNameToLogLevel.containsKey(name)) {
-                        LogLevel l = logFnNameToLogLevel.get(name);
-                        String s = formatLogMessage(method, args);
-                        LogMessage message = new LogMessage(logName, l, s);
-                        extension.record(message);
-                    }
-
-                    return null;
-                } finally {
-                    callDelegate(method, args);
-                }
-            }
-
-            private void callDelegate(Method method, Object[] args) throws IllegalAccessException, InvocationTargetException {
-                /* call the same method on the delegate.
-                 typical usage would be to allow the user to supply a Mockito/EasyMock
-                 as a delegate so that they can do some assertions or whatever.
-                 thus ignore return value as this expected to be a verification mock.
-                 no need to specify any expectation (when's) on that mock either.
-                 */
-                Logger delegate = settings.delegates.get(logName);
-                if (delegate != null) method.invoke(delegate, args); // ignore return value ignore return value
-            }
-        };
-
-        return (TestLogger) Proxy.newProxyInstance(
-                Logger.class.getClassLoader(),
-                new Class<?>[]{TestLogger.class},
-                handler);
-    }
-
-    private String formatLogMessage(Method method, Object[] args) {
-        Class<?>[] paramTypes = method.getParameterTypes();
-        StringBuilder s = new StringBuilder();
-
-        int p = 0;
-        if (paramTypes[0] == Marker.class) {
-            p++;
-        }
-
-        if (paramTypes.length - p == 1) {
-            s.append(args[p].toString());
-        } else {
-            String format = args[p].toString();
-
-            FormattingTuple ft;
-            if (paramTypes[p + 1] == Object[].class) {
-                ft = MessageFormatter.arrayFormat(format, (Object[]) args[p + 1]);
-            } else {
-                Object[] arr = new Object[args.length - 1 - p];
-                for (int i = 0; i < args.length - p - 1; i++) {
-                    arr[i] = args[i + 1 + p];
-                }
-
-                ft = MessageFormatter.arrayFormat(format, arr);
-            }
-            s.append(ft.getMessage());
-
-            if (null != ft.getThrowable()) {
-                StringWriter sw = new StringWriter();
-                ft.getThrowable().printStackTrace(new PrintWriter(sw));
-                s.append("\n");
-                s.append(sw.toString());
-            }
-
-        }
-        return s.toString();
+    private TestLoggerImpl createLogger(final Settings settings, final String logName) {
+        return new TestLoggerImpl(settings, logName, context);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,83 @@
+package slf4jtest;
+
+import org.junit.jupiter.api.extension.AfterEachCallback;
+import org.junit.jupiter.api.extension.BeforeEachCallback;
+import org.junit.jupiter.api.extension.ExtensionContext;
+import org.junit.jupiter.api.extension.ParameterContext;
+import org.junit.jupiter.api.extension.ParameterResolver;
+
+/**
+ * A JUnit 5 extension giving each test a factory from a TestLoggerFactoryPool, as a TestLoggerFactory parameter of
+ * the test or its @BeforeEach and @AfterEach methods, bound to the test's thread for RoutingServiceProvider.
+ * The factory goes back to the pool after the test. JUnit 5 is only needed if this class is used.
+ * <p>
+ * &#64;ExtendWith(TestLoggerFactoryExtension.class) uses a shared pool with the default Settings; for others register
+ * an instance:
+ * <pre>
+ * &#64;RegisterExtension
+ * static final TestLoggerFactoryExtension logging =
+ *         new TestLoggerFactoryExtension(new TestLoggerFactoryPool(Settings.instance().enableAll()));
+ *
+ * &#64;Test
+ * void logsTheOrder(TestLoggerFactory loggerFactory) {
+ *     new OrderService(loggerFactory).place(order);
+ *     assertTrue(loggerFactory.matches(".*placed.*"));
+ * }
+ * </pre>
+ */
+public class TestLoggerFactoryExtension implements BeforeEachCallback, AfterEachCallback, ParameterResolver {
+    private static final ExtensionContext.Namespace Namespace = ExtensionContext.Namespace.create(TestLoggerFactoryExtension.class);
+
+    private static final class DefaultPool {
+        static final TestLoggerFactoryPool Pool = new TestLoggerFactoryPool();
+    }
+
+    private final TestLoggerFactoryPool pool;
+
+    public TestLoggerFactoryExtension() {
+        this(DefaultPool.Pool);
+    }
+
+    public TestLoggerFactoryExtension(TestLoggerFactoryPool pool) {
+        this.pool = pool;
+    }
+
+    @Override
+    public void beforeEach(ExtensionContext context) {
+        ExtensionContext.Store store = context.getStore(Namespace);
+        store.put(TestLoggerFactory.Binding.class, factory(context).bind());
+    }
+
+    @Override
+    public void afterEach(ExtensionContext context) {
+        ExtensionContext.Store store = context.getStore(Namespace);
+        TestLoggerFactory.Binding binding = store.remove(TestLoggerFactory.Binding.class, TestLoggerFactory.Binding.class);
+        TestLoggerFactory factory = store.remove(TestLoggerFactory.class, TestLoggerFactory.class);
+        try {
+            if (binding != null)
+                binding.close();
+        } finally {
+            if (factory != null)
+                pool.release(factory);
+        }
+    }
+
+    /* only for a test and its @BeforeEach and @AfterEach methods; a factory for @BeforeAll would go in the class's
+     * store, and afterEach would never give it back
+     */
+    @Override
+    public boolean supportsParameter(ParameterContext parameterContext, ExtensionContext extensionContext) {
+        return parameterContext.getParameter().getType() == TestLoggerFactory.class
+                && extensionContext.getTestMethod().isPresent();
+    }
+
+    @Override
+    public Object resolveParameter(ParameterContext parameterContext, ExtensionContext extensionContext) {
+        return factory(extensionContext);
+    }
+
+    private TestLoggerFactory factory(ExtensionContext context) {
+        return context.getStore(Namespace)
+                .getOrComputeIfAbsent(TestLoggerFactory.class, k -> pool.acquire(), TestLoggerFactory.class);
+    }
+}
@@ -0,0 +1,56 @@
+package slf4jtest;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Hands out TestLoggerFactories built from one Settings and takes them back for reuse, for suites where building a
+ * factory and its loggers for every test shows up in the run time.
+ * A released factory keeps its loggers, and their capture buffers, which are emptied in place for the next test;
+ * a test may see loggers that an earlier test created, but never their messages or metrics. Console and golden file
+ * times count from when the factory was handed out.
+ * Snapshots taken from a factory are not valid once it is released.
+ * <p>
+ * Keep the pool in a static field and acquire/release around each test, or use TestLoggerFactoryRule (JUnit 4)
+ * or TestLoggerFactoryExtension (JUnit 5) which also bind the factory for RoutingServiceProvider.
+ */
+public class TestLoggerFactoryPool implements AutoCloseable {
+    private final Settings settings;
+    private final ConcurrentLinkedQueue<TestLoggerFactory> idle = new ConcurrentLinkedQueue<>();
+
+    public TestLoggerFactoryPool(Settings settings) {
+        this.settings = settings;
+    }
+
+    public TestLoggerFactoryPool() {
+        this(new Settings());
+    }
+
+    /**
+     * an empty factory, reused if one has been released
+     */
+    public TestLoggerFactory acquire() {
+        TestLoggerFactory factory = idle.poll();
+        return factory != null ? factory : settings.buildLogging();
+    }
+
+    /**
+     * empty the factory and keep it for a later acquire(); don't use it afterwards
+     */
+    public void release(TestLoggerFactory factory) {
+        if (factory.settings() != settings)
+            throw new IllegalArgumentException("the factory was not acquired from this pool");
+        factory.reset();
+        idle.offer(factory);
+    }
+
+    /**
+     * close the idle factories, deleting any spill files
+     */
+    @Override
+    public void close() {
+        TestLoggerFactory factory;
+        while ((factory = idle.poll()) != null) {
+            factory.close();
+        }
+    }
+}
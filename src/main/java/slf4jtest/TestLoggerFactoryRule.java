@@ -0,0 +1,62 @@
+package slf4jtest;
+
+import org.junit.rules.TestRule;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+
+/**
+ * A JUnit 4 rule giving each test a factory from a TestLoggerFactoryPool, bound to the test's thread for
+ * RoutingServiceProvider, and giving it back afterwards. JUnit 4 is only needed if this class is used.
+ * <pre>
+ * private static final TestLoggerFactoryPool Pool = new TestLoggerFactoryPool(Settings.instance().enableAll());
+ *
+ * &#64;Rule
+ * public final TestLoggerFactoryRule logging = new TestLoggerFactoryRule(Pool);
+ *
+ * &#64;Test
+ * public void logsTheOrder() {
+ *     new OrderService(logging.factory()).place(order);
+ *     assertTrue(logging.factory().matches(".*placed.*"));
+ * }
+ * </pre>
+ */
+public class TestLoggerFactoryRule implements TestRule {
+    private final TestLoggerFactoryPool pool;
+    private volatile TestLoggerFactory factory;
+
+    public TestLoggerFactoryRule(TestLoggerFactoryPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * the factory of the running test
+     */
+    public TestLoggerFactory factory() {
+        TestLoggerFactory f = factory;
+        if (f == null)
+            throw new IllegalStateException("there is only a factory while a test runs");
+        return f;
+    }
+
+    @Override
+    public Statement apply(Statement base, Description description) {
+        return new Statement() {
+            @Override
+            public void evaluate() throws Throwable {
+                TestLoggerFactory f = pool.acquire();
+                factory = f;
+                TestLoggerFactory.Binding binding = f.bind();
+                try {
+                    base.evaluate();
+                } finally {
+                    try {
+                        binding.close();
+                    } finally {
+                        factory = null;
+                        pool.release(f);
+                    }
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,635 @@
+package slf4jtest;
+
+import org.slf4j.Logger;
+import org.slf4j.Marker;
+import org.slf4j.event.KeyValuePair;
+import org.slf4j.event.LoggingEvent;
+import org.slf4j.helpers.FormattingTuple;
+import org.slf4j.helpers.MessageFormatter;
+import org.slf4j.spi.LoggingEventAware;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/* The TestLogger handed out by TestLoggerFactory.
+ * Each call checks a precomputed per level flag before doing anything else so calls to disabled levels allocate
+ * nothing; enabled calls are formatted and recorded by the LoggerExtensionsImpl this extends.
+ * Every call, enabled or not, is then passed on to the delegate logger if one is configured.
+ * The SLF4J 2 fluent api comes from Logger's default methods, which build events that arrive at log(LoggingEvent).
+ */
+final class TestLoggerImpl extends LoggerExtensionsImpl implements TestLogger {
+    private static final Object[] NoArguments = new Object[0];
+
+    private final Logger delegate;
+    // null unless Settings.analyse is on
+    private final CallSiteAnalysis analysis;
+
+    private final boolean traceEnabled;
+    private final boolean debugEnabled;
+    private final boolean infoEnabled;
+    private final boolean warnEnabled;
+    private final boolean errorEnabled;
+
+    TestLoggerImpl(Settings settings, String logName, FactoryContext context) {
+        super(settings, logName, context);
+        this.delegate = settings.delegates.get(logName);
+        this.analysis = context.analysis;
+
+        this.traceEnabled = settings.isEnabled(LogLevel.TraceLevel);
+        this.debugEnabled = settings.isEnabled(LogLevel.DebugLevel);
+        this.infoEnabled = settings.isEnabled(LogLevel.InfoLevel);
+        this.warnEnabled = settings.isEnabled(LogLevel.WarnLevel);
+        this.errorEnabled = settings.isEnabled(LogLevel.ErrorLevel);
+    }
+
+    @Override
+    public String getName() {
+        if (delegate != null) delegate.getName();
+        return logName;
+    }
+
+    /* TRACE */
+
+    @Override
+    public boolean isTraceEnabled() {
+        if (analysis != null) analysis.guarded(LogLevel.TraceLevel);
+        if (delegate != null) delegate.isTraceEnabled();
+        return traceEnabled;
+    }
+
+    @Override
+    public boolean isTraceEnabled(Marker marker) {
+        if (analysis != null) analysis.guarded(LogLevel.TraceLevel);
+        if (delegate != null) delegate.isTraceEnabled(marker);
+        return traceEnabled;
+    }
+
+    @Override
+    public void trace(String msg) {
+        if (traceEnabled) log(LogLevel.TraceLevel, null, msg);
+        else dropped(LogLevel.TraceLevel, msg, false);
+        if (delegate != null) delegate.trace(msg);
+    }
+
+    @Override
+    public void trace(String format, Object arg) {
+        if (traceEnabled) log(LogLevel.TraceLevel, null, format, new Object[]{arg});
+        else dropped(LogLevel.TraceLevel, format, true);
+        if (delegate != null) delegate.trace(format, arg);
+    }
+
+    @Override
+    public void trace(String format, Object arg1, Object arg2) {
+        if (traceEnabled) log(LogLevel.TraceLevel, null, format, new Object[]{arg1, arg2});
+        else dropped(LogLevel.TraceLevel, format, true);
+        if (delegate != null) delegate.trace(format, arg1, arg2);
+    }
+
+    @Override
+    public void trace(String format, Object... arguments) {
+        if (traceEnabled) log(LogLevel.TraceLevel, null, format, arguments);
+        else dropped(LogLevel.TraceLevel, format, true);
+        if (delegate != null) delegate.trace(format, arguments);
+    }
+
+    @Override
+    public void trace(String msg, Throwable t) {
+        if (traceEnabled) log(LogLevel.TraceLevel, null, msg, new Object[]{t});
+        else dropped(LogLevel.TraceLevel, msg, false);
+        if (delegate != null) delegate.trace(msg, t);
+    }
+
+    @Override
+    public void trace(Marker marker, String msg) {
+        if (traceEnabled) log(LogLevel.TraceLevel, marker, msg);
+        else dropped(LogLevel.TraceLevel, msg, false);
+        if (delegate != null) delegate.trace(marker, msg);
+    }
+
+    @Override
+    public void trace(Marker marker, String format, Object arg) {
+        if (traceEnabled) log(LogLevel.TraceLevel, marker, format, new Object[]{arg});
+        else dropped(LogLevel.TraceLevel, format, true);
+        if (delegate != null) delegate.trace(marker, format, arg);
+    }
+
+    @Override
+    public void trace(Marker marker, String format, Object arg1, Object arg2) {
+        if (traceEnabled) log(LogLevel.TraceLevel, marker, format, new Object[]{arg1, arg2});
+        else dropped(LogLevel.TraceLevel, format, true);
+        if (delegate != null) delegate.trace(marker, format, arg1, arg2);
+    }
+
+    @Override
+    public void trace(Marker marker, String format, Object... arguments) {
+        if (traceEnabled) log(LogLevel.TraceLevel, marker, format, arguments);
+        else dropped(LogLevel.TraceLevel, format, true);
+        if (delegate != null) delegate.trace(marker, format, arguments);
+    }
+
+    @Override
+    public void trace(Marker marker, String msg, Throwable t) {
+        if (traceEnabled) log(LogLevel.TraceLevel, marker, msg, new Object[]{t});
+        else dropped(LogLevel.TraceLevel, msg, false);
+        if (delegate != null) delegate.trace(marker, msg, t);
+    }
+
+    /* DEBUG */
+
+    @Override
+    public boolean isDebugEnabled() {
+        if (analysis != null) analysis.guarded(LogLevel.DebugLevel);
+        if (delegate != null) delegate.isDebugEnabled();
+        return debugEnabled;
+    }
+
+    @Override
+    public boolean isDebugEnabled(Marker marker) {
+        if (analysis != null) analysis.guarded(LogLevel.DebugLevel);
+        if (delegate != null) delegate.isDebugEnabled(marker);
+        return debugEnabled;
+    }
+
+    @Override
+    public void debug(String msg) {
+        if (debugEnabled) log(LogLevel.DebugLevel, null, msg);
+        else dropped(LogLevel.DebugLevel, msg, false);
+        if (delegate != null) delegate.debug(msg);
+    }
+
+    @Override
+    public void debug(String format, Object arg) {
+        if (debugEnabled) log(LogLevel.DebugLevel, null, format, new Object[]{arg});
+        else dropped(LogLevel.DebugLevel, format, true);
+        if (delegate != null) delegate.debug(format, arg);
+    }
+
+    @Override
+    public void debug(String format, Object arg1, Object arg2) {
+        if (debugEnabled) log(LogLevel.DebugLevel, null, format, new Object[]{arg1, arg2});
+        else dropped(LogLevel.DebugLevel, format, true);
+        if (delegate != null) delegate.debug(format, arg1, arg2);
+    }
+
+    @Override
+    public void debug(String format, Object... arguments) {
+        if (debugEnabled) log(LogLevel.DebugLevel, null, format, arguments);
+        else dropped(LogLevel.DebugLevel, format, true);
+        if (delegate != null) delegate.debug(format, arguments);
+    }
+
+    @Override
+    public void debug(String msg, Throwable t) {
+        if (debugEnabled) log(LogLevel.DebugLevel, null, msg, new Object[]{t});
+        else dropped(LogLevel.DebugLevel, msg, false);
+        if (delegate != null) delegate.debug(msg, t);
+    }
+
+    @Override
+    public void debug(Marker marker, String msg) {
+        if (debugEnabled) log(LogLevel.DebugLevel, marker, msg);
+        else dropped(LogLevel.DebugLevel, msg, false);
+        if (delegate != null) delegate.debug(marker, msg);
+    }
+
+    @Override
+    public void debug(Marker marker, String format, Object arg) {
+        if (debugEnabled) log(LogLevel.DebugLevel, marker, format, new Object[]{arg});
+        else dropped(LogLevel.DebugLevel, format, true);
+        if (delegate != null) delegate.debug(marker, format, arg);
+    }
+
+    @Override
+    public void debug(Marker marker, String format, Object arg1, Object arg2) {
+        if (debugEnabled) log(LogLevel.DebugLevel, marker, format, new Object[]{arg1, arg2});
+        else dropped(LogLevel.DebugLevel, format, true);
+        if (delegate != null) delegate.debug(marker, format, arg1, arg2);
+    }
+
+    @Override
+    public void debug(Marker marker, String format, Object... arguments) {
+        if (debugEnabled) log(LogLevel.DebugLevel, marker, format, arguments);
+        else dropped(LogLevel.DebugLevel, format, true);
+        if (delegate != null) delegate.debug(marker, format, arguments);
+    }
+
+    @Override
+    public void debug(Marker marker, String msg, Throwable t) {
+        if (debugEnabled) log(LogLevel.DebugLevel, marker, msg, new Object[]{t});
+        else dropped(LogLevel.DebugLevel, msg, false);
+        if (delegate != null) delegate.debug(marker, msg, t);
+    }
+
+    /* INFO */
+
+    @Override
+    public boolean isInfoEnabled() {
+        if (analysis != null) analysis.guarded(LogLevel.InfoLevel);
+        if (delegate != null) delegate.isInfoEnabled();
+        return infoEnabled;
+    }
+
+    @Override
+    public boolean isInfoEnabled(Marker marker) {
+        if (analysis != null) analysis.guarded(LogLevel.InfoLevel);
+        if (delegate != null) delegate.isInfoEnabled(marker);
+        return infoEnabled;
+    }
+
+    @Override
+    public void info(String msg) {
+        if (infoEnabled) log(LogLevel.InfoLevel, null, msg);
+        else dropped(LogLevel.InfoLevel, msg, false);
+        if (delegate != null) delegate.info(msg);
+    }
+
+    @Override
+    public void info(String format, Object arg) {
+        if (infoEnabled) log(LogLevel.InfoLevel, null, format, new Object[]{arg});
+        else dropped(LogLevel.InfoLevel, format, true);
+        if (delegate != null) delegate.info(format, arg);
+    }
+
+    @Override
+    public void info(String format, Object arg1, Object arg2) {
+        if (infoEnabled) log(LogLevel.InfoLevel, null, format, new Object[]{arg1, arg2});
+        else dropped(LogLevel.InfoLevel, format, true);
+        if (delegate != null) delegate.info(format, arg1, arg2);
+    }
+
+    @Override
+    public void info(String format, Object... arguments) {
+        if (infoEnabled) log(LogLevel.InfoLevel, null, format, arguments);
+        else dropped(LogLevel.InfoLevel, format, true);
+        if (delegate != null) delegate.info(format, arguments);
+    }
+
+    @Override
+    public void info(String msg, Throwable t) {
+        if (infoEnabled) log(LogLevel.InfoLevel, null, msg, new Object[]{t});
+        else dropped(LogLevel.InfoLevel, msg, false);
+        if (delegate != null) delegate.info(msg, t);
+    }
+
+    @Override
+    public void info(Marker marker, String msg) {
+        if (infoEnabled) log(LogLevel.InfoLevel, marker, msg);
+        else dropped(LogLevel.InfoLevel, msg, false);
+        if (delegate != null) delegate.info(marker, msg);
+    }
+
+    @Override
+    public void info(Marker marker, String format, Object arg) {
+        if (infoEnabled) log(LogLevel.InfoLevel, marker, format, new Object[]{arg});
+        else dropped(LogLevel.InfoLevel, format, true);
+        if (delegate != null) delegate.info(marker, format, arg);
+    }
+
+    @Override
+    public void info(Marker marker, String format, Object arg1, Object arg2) {
+        if (infoEnabled) log(LogLevel.InfoLevel, marker, format, new Object[]{arg1, arg2});
+        else dropped(LogLevel.InfoLevel, format, true);
+        if (delegate != null) delegate.info(marker, format, arg1, arg2);
+    }
+
+    @Override
+    public void info(Marker marker, String format, Object... arguments) {
+        if (infoEnabled) log(LogLevel.InfoLevel, marker, format, arguments);
+        else dropped(LogLevel.InfoLevel, format, true);
+        if (delegate != null) delegate.info(marker, format, arguments);
+    }
+
+    @Override
+    public void info(Marker marker, String msg, Throwable t) {
+        if (infoEnabled) log(LogLevel.InfoLevel, marker, msg, new Object[]{t});
+        else dropped(LogLevel.InfoLevel, msg, false);
+        if (delegate != null) delegate.info(marker, msg, t);
+    }
+
+    /* WARN */
+
+    @Override
+    public boolean isWarnEnabled() {
+        if (analysis != null) analysis.guarded(LogLevel.WarnLevel);
+        if (delegate != null) delegate.isWarnEnabled();
+        return warnEnabled;
+    }
+
+    @Override
+    public boolean isWarnEnabled(Marker marker) {
+        if (analysis != null) analysis.guarded(LogLevel.WarnLevel);
+        if (delegate != null) delegate.isWarnEnabled(marker);
+        return warnEnabled;
+    }
+
+    @Override
+    public void warn(String msg) {
+        if (warnEnabled) log(LogLevel.WarnLevel, null, msg);
+        else dropped(LogLevel.WarnLevel, msg, false);
+        if (delegate != null) delegate.warn(msg);
+    }
+
+    @Override
+    public void warn(String format, Object arg) {
+        if (warnEnabled) log(LogLevel.WarnLevel, null, format, new Object[]{arg});
+        else dropped(LogLevel.WarnLevel, format, true);
+        if (delegate != null) delegate.warn(format, arg);
+    }
+
+    @Override
+    public void warn(String format, Object arg1, Object arg2) {
+        if (warnEnabled) log(LogLevel.WarnLevel, null, format, new Object[]{arg1, arg2});
+        else dropped(LogLevel.WarnLevel, format, true);
+        if (delegate != null) delegate.warn(format, arg1, arg2);
+    }
+
+    @Override
+    public void warn(String format, Object... arguments) {
+        if (warnEnabled) log(LogLevel.WarnLevel, null, format, arguments);
+        else dropped(LogLevel.WarnLevel, format, true);
+        if (delegate != null) delegate.warn(format, arguments);
+    }
+
+    @Override
+    public void warn(String msg, Throwable t) {
+        if (warnEnabled) log(LogLevel.WarnLevel, null, msg, new Object[]{t});
+        else dropped(LogLevel.WarnLevel, msg, false);
+        if (delegate != null) delegate.warn(msg, t);
+    }
+
+    @Override
+    public void warn(Marker marker, String msg) {
+        if (warnEnabled) log(LogLevel.WarnLevel, marker, msg);
+        else dropped(LogLevel.WarnLevel, msg, false);
+        if (delegate != null) delegate.warn(marker, msg);
+    }
+
+    @Override
+    public void warn(Marker marker, String format, Object arg) {
+        if (warnEnabled) log(LogLevel.WarnLevel, marker, format, new Object[]{arg});
+        else dropped(LogLevel.WarnLevel, format, true);
+        if (delegate != null) delegate.warn(marker, format, arg);
+    }
+
+    @Override
+    public void warn(Marker marker, String format, Object arg1, Object arg2) {
+        if (warnEnabled) log(LogLevel.WarnLevel, marker, format, new Object[]{arg1, arg2});
+        else dropped(LogLevel.WarnLevel, format, true);
+        if (delegate != null) delegate.warn(marker, format, arg1, arg2);
+    }
+
+    @Override
+    public void warn(Marker marker, String format, Object... arguments) {
+        if (warnEnabled) log(LogLevel.WarnLevel, marker, format, arguments);
+        else dropped(LogLevel.WarnLevel, format, true);
+        if (delegate != null) delegate.warn(marker, format, arguments);
+    }
+
+    @Override
+    public void warn(Marker marker, String msg, Throwable t) {
+        if (warnEnabled) log(LogLevel.WarnLevel, marker, msg, new Object[]{t});
+        else dropped(LogLevel.WarnLevel, msg, false);
+        if (delegate != null) delegate.warn(marker, msg, t);
+    }
+
+    /* ERROR */
+
+    @Override
+    public boolean isErrorEnabled() {
+        if (analysis != null) analysis.guarded(LogLevel.ErrorLevel);
+        if (delegate != null) delegate.isErrorEnabled();
+        return errorEnabled;
+    }
+
+    @Override
+    public boolean isErrorEnabled(Marker marker) {
+        if (analysis != null) analysis.guarded(LogLevel.ErrorLevel);
+        if (delegate != null) delegate.isErrorEnabled(marker);
+        return errorEnabled;
+    }
+
+    @Override
+    public void error(String msg) {
+        if (errorEnabled) log(LogLevel.ErrorLevel, null, msg);
+        else dropped(LogLevel.ErrorLevel, msg, false);
+        if (delegate != null) delegate.error(msg);
+    }
+
+    @Override
+    public void error(String format, Object arg) {
+        if (errorEnabled) log(LogLevel.ErrorLevel, null, format, new Object[]{arg});
+        else dropped(LogLevel.ErrorLevel, format, true);
+        if (delegate != null) delegate.error(format, arg);
+    }
+
+    @Override
+    public void error(String format, Object arg1, Object arg2) {
+        if (errorEnabled) log(LogLevel.ErrorLevel, null, format, new Object[]{arg1, arg2});
+        else dropped(LogLevel.ErrorLevel, format, true);
+        if (delegate != null) delegate.error(format, arg1, arg2);
+    }
+
+    @Override
+    public void error(String format, Object... arguments) {
+        if (errorEnabled) log(LogLevel.ErrorLevel, null, format, arguments);
+        else dropped(LogLevel.ErrorLevel, format, true);
+        if (delegate != null) delegate.error(format, arguments);
+    }
+
+    @Override
+    public void error(String msg, Throwable t) {
+        if (errorEnabled) log(LogLevel.ErrorLevel, null, msg, new Object[]{t});
+        else dropped(LogLevel.ErrorLevel, msg, false);
+        if (delegate != null) delegate.error(msg, t);
+    }
+
+    @Override
+    public void error(Marker marker, String msg) {
+        if (errorEnabled) log(LogLevel.ErrorLevel, marker, msg);
+        else dropped(LogLevel.ErrorLevel, msg, false);
+        if (delegate != null) delegate.error(marker, msg);
+    }
+
+    @Override
+    public void error(Marker marker, String format, Object arg) {
+        if (errorEnabled) log(LogLevel.ErrorLevel, marker, format, new Object[]{arg});
+        else dropped(LogLevel.ErrorLevel, format, true);
+        if (delegate != null) delegate.error(marker, format, arg);
+    }
+
+    @Override
+    public void error(Marker marker, String format, Object arg1, Object arg2) {
+        if (errorEnabled) log(LogLevel.ErrorLevel, marker, format, new Object[]{arg1, arg2});
+        else dropped(LogLevel.ErrorLevel, format, true);
+        if (delegate != null) delegate.error(marker, format, arg1, arg2);
+    }
+
+    @Override
+    public void error(Marker marker, String format, Object... arguments) {
+        if (errorEnabled) log(LogLevel.ErrorLevel, marker, format, arguments);
+        else dropped(LogLevel.ErrorLevel, format, true);
+        if (delegate != null) delegate.error(marker, format, arguments);
+    }
+
+    @Override
+    public void error(Marker marker, String msg, Throwable t) {
+        if (errorEnabled) log(LogLevel.ErrorLevel, marker, msg, new Object[]{t});
+        else dropped(LogLevel.ErrorLevel, msg, false);
+        if (delegate != null) delegate.error(marker, msg, t);
+    }
+
+    /* FLUENT API */
+
+    @Override
+    public void log(LoggingEvent event) {
+        try {
+            LogLevel level = LogLevel.from(event.getLevel());
+            if (settings.isEnabled(level))
+                logEvent(level, event);
+            else {
+                Object[] arguments = event.getArgumentArray();
+                dropped(level, event.getMessage(), arguments != null && arguments.length > 0);
+            }
+        } finally {
+            delegateEvent(event);
+        }
+    }
+
+    /* a format with arguments builds nothing while the level is disabled, a finished message was built by the caller */
+    private void dropped(LogLevel level, String message, boolean arguments) {
+        metrics.dropped(level);
+        if (!arguments && message != null && !message.contains("{}")) metrics.built(level);
+        if (analysis != null) analysis.dropped(level, message);
+    }
+
+    /* an unformatted message, as SLF4J loggers treat the single argument methods */
+    private void log(LogLevel level, Marker marker, String msg) {
+        if (analysis != null) analysis.logged(level);
+        String text = String.valueOf(msg);
+        boolean capture = captures(level, text);
+        if (!capture && !settings.isPrinting(level))
+            return;
+        record(capture, level, text, text, markers(marker), Collections.emptyList(), Collections.<KeyValuePair>emptyList());
+    }
+
+    private void log(LogLevel level, Marker marker, String format, Object[] arguments) {
+        CallSiteAnalysis.Site site = analysis != null ? analysis.logged(level) : null;
+        String template = String.valueOf(format);
+        boolean capture = captures(level, template);
+        if (!capture && !settings.isPrinting(level))
+            return;
+        Object[] rendered = analysis != null ? CallSiteAnalysis.render(site, arguments) : arguments;
+
+        long start = System.nanoTime();
+        FormattingTuple ft = MessageFormatter.arrayFormat(format, rendered);
+        String text = formatLogMessage(ft);
+        metrics.formatted(System.nanoTime() - start);
+
+        record(capture, level, template, text, markers(marker), argumentList(arguments, ft.getArgArray()), Collections.<KeyValuePair>emptyList());
+    }
+
+    private void logEvent(LogLevel level, LoggingEvent event) {
+        Object[] arguments = event.getArgumentArray();
+        String message = String.valueOf(event.getMessage());
+
+        CallSiteAnalysis.Site site = analysis != null ? analysis.logged(level) : null;
+        boolean capture = captures(level, message);
+        if (!capture && !settings.isPrinting(level))
+            return;
+
+        String s;
+        if ((arguments == null || arguments.length == 0) && event.getThrowable() == null) {
+            s = message;
+        } else {
+            // MessageFormatter ignores the throwable when there are no arguments
+            Object[] rendered = arguments != null ? CallSiteAnalysis.render(site, arguments) : NoArguments;
+            long start = System.nanoTime();
+            s = formatLogMessage(MessageFormatter.arrayFormat(message, rendered, event.getThrowable()));
+            metrics.formatted(System.nanoTime() - start);
+        }
+
+        record(capture, level, message, s,
+                readonly(event.getMarkers()),
+                argumentList(arguments),
+                readonly(event.getKeyValuePairs()));
+    }
+
+    private void delegateEvent(LoggingEvent event) {
+        if (delegate == null)
+            return;
+
+        if (delegate instanceof LoggingEventAware) {
+            ((LoggingEventAware) delegate).log(event);
+        } else {
+            // eg a mock, replay through the classic api so verifications look like any other call
+            replay(delegate, event);
+        }
+    }
+
+    private static void replay(Logger delegate, LoggingEvent event) {
+        String message = event.getMessage();
+        List<Object> args = new ArrayList<>();
+        if (event.getArguments() != null)
+            args.addAll(event.getArguments());
+        if (event.getThrowable() != null)
+            args.add(event.getThrowable());
+        Object[] argArray = args.toArray();
+
+        Marker marker = event.getMarkers() == null || event.getMarkers().isEmpty() ? null : event.getMarkers().get(0);
+
+        switch (event.getLevel()) {
+            case ERROR:
+                if (marker == null) delegate.error(message, argArray); else delegate.error(marker, message, argArray);
+                break;
+            case WARN:
+                if (marker == null) delegate.warn(message, argArray); else delegate.warn(marker, message, argArray);
+                break;
+            case INFO:
+                if (marker == null) delegate.info(message, argArray); else delegate.info(marker, message, argArray);
+                break;
+            case DEBUG:
+                if (marker == null) delegate.debug(message, argArray); else delegate.debug(marker, message, argArray);
+                break;
+            default:
+                if (marker == null) delegate.trace(message, argArray); else delegate.trace(marker, message, argArray);
+        }
+    }
+
+    private static List<Marker> markers(Marker marker) {
+        if (marker == null)
+            return Collections.emptyList();
+        return Collections.singletonList(marker);
+    }
+
+    private static <T> List<T> readonly(List<T> list) {
+        if (list == null || list.isEmpty())
+            return Collections.emptyList();
+        return Collections.unmodifiableList(new ArrayList<>(list));
+    }
+
+    private static List<Object> argumentList(Object[] arguments) {
+        if (arguments == null || arguments.length == 0)
+            return Collections.emptyList();
+        return Collections.unmodifiableList(Arrays.asList(arguments));
+    }
+
+    /* the original arguments that the formatter kept, ie without a trailing throwable */
+    private static List<Object> argumentList(Object[] arguments, Object[] formatted) {
+        if (arguments == formatted || formatted == null || formatted.length == 0)
+            return argumentList(formatted);
+        return argumentList(Arrays.copyOf(arguments, formatted.length));
+    }
+
+    private static String formatLogMessage(FormattingTuple ft) {
+        if (null == ft.getThrowable())
+            return ft.getMessage();
+
+        StringWriter sw = new StringWriter();
+        ft.getThrowable().printStackTrace(new PrintWriter(sw));
+        return ft.getMessage() + "\n" + sw.toString();
+    }
+}
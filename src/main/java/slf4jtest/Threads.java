@@ -0,0 +1,40 @@
+package slf4jtest;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/* what LogMessage records about the logging thread.
+ * Thread.isVirtual() is only there from java 21, so it is looked up once; a constant handle costs about as much as
+ * a direct call once compiled.
+ */
+final class Threads {
+    private static final MethodHandle IsVirtual = isVirtualHandle();
+
+    private Threads() {
+    }
+
+    static boolean isVirtual(Thread thread) {
+        if (IsVirtual == null)
+            return false;
+        try {
+            return (boolean) IsVirtual.invokeExact(thread);
+        } catch (Throwable e) {
+            return false;
+        }
+    }
+
+    /* unique for the life of the JVM, and unlike the name also for virtual threads, which are usually unnamed */
+    @SuppressWarnings("deprecation")
+    static long id(Thread thread) {
+        return thread.getId();
+    }
+
+    private static MethodHandle isVirtualHandle() {
+        try {
+            return MethodHandles.publicLookup().findVirtual(Thread.class, "isVirtual", MethodType.methodType(boolean.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            return null;
+        }
+    }
+}
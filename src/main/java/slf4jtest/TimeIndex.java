@@ -0,0 +1,106 @@
+package slf4jtest;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongPredicate;
+
+/* index of captured row numbers by LogMessage.timeStamp.
+ * Rows are summarised in segments of consecutive row numbers, each with the lowest and highest timestamp added to it,
+ * so a window only reads the rows of the segments that overlap it. Rows arrive close to time order, so few do.
+ *
+ * Concurrent loggers can append a little out of time order and replayed logs in any order, so the summaries are
+ * walked rather than binary searched; at two longs per thousand rows that is ten thousand checks for ten million rows.
+ * Summaries are widened with a compare and set, which is only needed at the start of a segment and when the clock
+ * ticks. They live in blocks that are never copied, so growing doesn't lose a concurrent update.
+ */
+class TimeIndex {
+    private static final int SegmentBits = 10;
+    private static final int BlockBits = 10;
+    private static final int BlockSize = 1 << BlockBits;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private volatile AtomicLongArray[] blocks = new AtomicLongArray[0];
+    // one past the highest row added
+    private final AtomicLong end = new AtomicLong();
+
+    void add(long row, long timeStamp) {
+        long segment = row >>> SegmentBits;
+        AtomicLongArray block = block((int) (segment >>> BlockBits));
+        int i = (int) (segment & (BlockSize - 1)) * 2;
+        if (timeStamp < block.get(i))
+            block.accumulateAndGet(i, timeStamp, Math::min);
+        if (timeStamp > block.get(i + 1))
+            block.accumulateAndGet(i + 1, timeStamp, Math::max);
+        if (row >= end.get())
+            end.accumulateAndGet(row + 1, Math::max);
+    }
+
+    private AtomicLongArray block(int b) {
+        AtomicLongArray[] current = blocks;
+        if (b < current.length)
+            return current[b];
+        lock.lock();
+        try {
+            current = blocks;
+            if (b >= current.length) {
+                AtomicLongArray[] grown = new AtomicLongArray[Math.max(b + 1, current.length * 2)];
+                System.arraycopy(current, 0, grown, 0, current.length);
+                for (int i = current.length; i < grown.length; i++) {
+                    grown[i] = emptyBlock();
+                }
+                blocks = grown;
+                current = grown;
+            }
+            return current[b];
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static AtomicLongArray emptyBlock() {
+        AtomicLongArray block = new AtomicLongArray(BlockSize * 2);
+        for (int i = 0; i < BlockSize * 2; i += 2) {
+            block.set(i, Long.MAX_VALUE);
+            block.set(i + 1, Long.MIN_VALUE);
+        }
+        return block;
+    }
+
+    /* visit in order the rows that may have a timestamp from from to to inclusive, until visit returns false.
+     * returns false if the visit was stopped
+     */
+    boolean rows(long from, long to, LongPredicate visit) {
+        // in this order, a row is counted in end only once its block exists
+        long last = end.get();
+        AtomicLongArray[] current = blocks;
+        long segments = (last + (1 << SegmentBits) - 1) >>> SegmentBits;
+        for (long segment = 0; segment < segments; segment++) {
+            int b = (int) (segment >>> BlockBits);
+            // cleared since end was read
+            if (b >= current.length)
+                break;
+            AtomicLongArray block = current[b];
+            int i = (int) (segment & (BlockSize - 1)) * 2;
+            if (block.get(i) > to || block.get(i + 1) < from)
+                continue;
+            long row = segment << SegmentBits;
+            long segmentEnd = Math.min(last, row + (1 << SegmentBits));
+            for (; row < segmentEnd; row++) {
+                if (!visit.test(row))
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    void clear() {
+        lock.lock();
+        try {
+            blocks = new AtomicLongArray[0];
+            end.set(0);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
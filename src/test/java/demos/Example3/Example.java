@@ -94,7 +94,7 @@ public class Example {
 
             throw new RuntimeException("ought to have failed");
         } catch (AssertionError ex) {
-            assert(ex.getMessage().equals("did not match NOTGOOD"));
+            assert(ex.getMessage().startsWith("did not match NOTGOOD" + System.lineSeparator() + "closest of the "));
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,85 @@
+package slf4jtest;
+
+import junit.framework.TestCase;
+import org.slf4j.Marker;
+import org.slf4j.helpers.BasicMarkerFactory;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/* Bytes allocated per logging call, checked against explicit budgets.
+ * A change that allocates more on these paths fails the build; raise a budget only deliberately.
+ */
+public class AllocationBudgetUnitTest extends TestCase {
+
+    // calls to disabled levels must not allocate at all
+    private static final long DisabledBudget = 0;
+    // format "{}" with one argument, LogMessage and its capture
+    private static final long CaptureBudget = 384;
+    // as above plus the layout and encoding of the console line
+    private static final long ConsoleBudget = 576;
+
+    private static final int Warmup = 100_000;
+    private static final int Calls = 20_000;
+
+    private final Exception failure = new Exception("failure");
+    private final Marker marker = new BasicMarkerFactory().getDetachedMarker("M");
+    private final Integer arg = 42;
+
+    public void testDisabledLevelsDoNotAllocate() {
+        TestLoggerFactory f = Settings.instance().printingEnabled(false).buildLogging();
+        TestLogger log = f.getLogger("budget");
+
+        assertBudget("isDebugEnabled", DisabledBudget, () -> log.isDebugEnabled());
+        assertBudget("debug(msg)", DisabledBudget, () -> log.debug("msg"));
+        assertBudget("debug(format, arg)", DisabledBudget, () -> log.debug("v {}", arg));
+        assertBudget("debug(format, arg1, arg2)", DisabledBudget, () -> log.debug("v {} {}", arg, arg));
+        assertBudget("debug(msg, throwable)", DisabledBudget, () -> log.debug("failed", failure));
+        assertBudget("debug(marker, format, arg)", DisabledBudget, () -> log.debug(marker, "v {}", arg));
+        assertBudget("atDebug()", DisabledBudget, () -> log.atDebug().log("v {}", arg));
+    }
+
+    public void testCaptureStaysWithinBudget() {
+        TestLoggerFactory f = Settings.instance().printingEnabled(false).enable(LogLevel.InfoLevel).buildLogging();
+        TestLogger log = f.getLogger("budget");
+
+        assertBudget("info(format, arg) captured", CaptureBudget, () -> log.info("v {}", arg));
+    }
+
+    public void testConsoleStaysWithinBudget() {
+        TestLoggerFactory f = Settings.instance()
+                .enable(LogLevel.InfoLevel)
+                .redirectPrintStream(LogLevel.InfoLevel, new PrintStream(NoopOutputStream.Instance))
+                .buildLogging();
+        TestLogger log = f.getLogger("budget");
+
+        assertBudget("info(format, arg) captured and printed", ConsoleBudget, () -> log.info("v {}", arg));
+    }
+
+    private static void assertBudget(String call, long budget, Runnable op) {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            System.out.println("skipping allocation budget, unsupported by this JVM: " + call);
+            return;
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        if (!threads.isThreadAllocatedMemorySupported() || !threads.isThreadAllocatedMemoryEnabled()) {
+            System.out.println("skipping allocation budget, unsupported by this JVM: " + call);
+            return;
+        }
+
+        for (int i = 0; i < Warmup; i++) {
+            op.run();
+        }
+
+        long thread = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < Calls; i++) {
+            op.run();
+        }
+        long perCall = (threads.getThreadAllocatedBytes(thread) - before) / Calls;
+
+        assertTrue(call + " allocated " + perCall + " bytes per call, budget is " + budget, perCall <= budget);
+    }
+}
@@ -1,10 +1,32 @@
 package slf4jtest;
 
+import ch.qos.logback.classic.util.LogbackMDCAdapter;
 import junit.framework.TestCase;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
 import org.mockito.Mockito;
 import org.slf4j.Logger;
+import org.slf4j.Marker;
+import org.slf4j.event.KeyValuePair;
+import org.slf4j.helpers.BasicMDCAdapter;
+import org.slf4j.helpers.BasicMarkerFactory;
+import org.slf4j.spi.MDCAdapter;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.File;
+import java.io.IOException;
 import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 
 public class TestLoggerUnitTest extends TestCase {
 
@@ -166,6 +188,1452 @@ public class TestLoggerUnitTest extends TestCase {
         assert (log.contains(ShouldBePrintSuppressed));
     }
 
+    public void testDiscardedLevelsSkipConsoleButAreStillRecorded() {
+        final int[] suppressionChecks = {0};
+
+        TestLoggerFactory f = Settings.instance()
+                .enable(LogLevel.WarnLevel)
+                .suppressPrinting(new Predicate<LogMessage>() {
+                    public boolean matches(LogMessage row) {
+                        suppressionChecks[0]++;
+                        return false;
+                    }
+                })
+                .discard(LogLevel.ErrorLevel)
+                .redirectPrintStream(LogLevel.WarnLevel, NoopOutputStream.NoopPrintStream)
+                .buildLogging();
+
+        TestLogger log = f.getLogger("john");
+        log.error("anError");
+        log.warn("aWarning");
+
+        assertEquals(0, suppressionChecks[0]);
+        assert (log.contains("anError"));
+        assert (log.contains("aWarning"));
+    }
+
+    public void testMdcIsCapturedAndSharedWhileUnchanged() {
+        BasicMDCAdapter mdc = new BasicMDCAdapter();
+        TestLoggerFactory f = Settings.instance().printingEnabled(false).captureMdc(mdc).buildLogging();
+        TestLogger log = f.getLogger("john");
+
+        log.error("no context");
+        mdc.put("requestId", "r1");
+        log.error("first");
+        log.error("second");
+        mdc.put("requestId", "r2");
+        log.error("third");
+        mdc.clear();
+
+        List<LogMessage> lines = new ArrayList<>(log.lines());
+        assertTrue(lines.get(0).mdc.isEmpty());
+        assertEquals("r1", lines.get(1).mdc.get("requestId"));
+        assertSame(lines.get(1).mdc, lines.get(2).mdc);
+        assertEquals("r2", lines.get(3).mdc.get("requestId"));
+
+        assertEquals(2, log.linesWithMdc("requestId", "r1").size());
+        assertEquals(1, f.linesWithMdc("requestId", "r2").size());
+        assertTrue(f.linesWithMdc("requestId", "r3").isEmpty());
+    }
+
+    public void testMdcSnapshotsAreSharedPerThreadWhenRequestsInterleave() throws Exception {
+        // logback hands out its own copy-on-write map, other adapters a copy compared with the thread's last snapshot
+        for (MDCAdapter mdc : new MDCAdapter[]{new LogbackMDCAdapter(), new BasicMDCAdapter()}) {
+            TestLoggerFactory f = Settings.instance().printingEnabled(false).captureMdc(mdc).buildLogging();
+            TestLogger log = f.getLogger("john");
+
+            mdc.put("requestId", "r1");
+            log.error("first");
+            Thread other = new Thread(() -> {
+                mdc.put("requestId", "r2");
+                log.error("other");
+            });
+            other.start();
+            other.join();
+            log.error("second");
+            mdc.clear();
+
+            List<LogMessage> r1 = new ArrayList<>(log.linesWithMdc("requestId", "r1"));
+            assertEquals(2, r1.size());
+            assertSame(mdc.getClass().getName(), r1.get(0).mdc, r1.get(1).mdc);
+            assertEquals(1, log.linesWithMdc("requestId", "r2").size());
+        }
+    }
+
+    public void testMarkersAreCapturedAndIndexed() {
+        BasicMarkerFactory markers = new BasicMarkerFactory();
+        Marker security = markers.getDetachedMarker("SECURITY");
+        Marker audit = markers.getDetachedMarker("AUDIT");
+        audit.add(security);
+
+        TestLoggerFactory f = Settings.instance().printingEnabled(false).buildLogging();
+        TestLogger log = f.getLogger("john");
+
+        log.error("unmarked");
+        log.error(audit, "login {}", "bob");
+        log.error(security, "denied");
+
+        LogMessage audited = log.linesWithMarker("AUDIT").iterator().next();
+        assertEquals("login bob", audited.text);
+        assertSame(audit, audited.markers.get(0));
+
+        assertEquals(1, log.countWithMarker("AUDIT"));
+        assertEquals(2, f.countWithMarker("SECURITY"));
+        assertEquals(2, f.linesWithMarker("SECURITY").size());
+        assertEquals(0, f.countWithMarker("OTHER"));
+    }
+
+    public void testColumnarCaptureAnswersTheSameQueries() throws Exception {
+        BasicMarkerFactory markers = new BasicMarkerFactory();
+        Marker audit = markers.getDetachedMarker("AUDIT");
+        BasicMDCAdapter mdc = new BasicMDCAdapter();
+
+        TestLoggerFactory f = Settings.instance()
+                .printingEnabled(false)
+                .enableAll()
+                .captureMdc(mdc)
+                .columnarCapture(true)
+                .buildLogging();
+        final TestLogger log = f.getLogger("john");
+
+        long before = System.currentTimeMillis();
+        log.info("plain");
+        log.warn(audit, "login {}", "b\u00f8b");
+        mdc.put("request", "42");
+        log.atDebug().addKeyValue("orderId", 7).log("gr\u00f6\u00dfe \u20ac");
+        mdc.clear();
+        Thread other = new Thread(() -> log.error("from another thread"), "other-thread");
+        other.start();
+        other.join();
+
+        List<LogMessage> lines = new ArrayList<>(log.lines());
+        assertEquals(4, lines.size());
+        assertEquals(new LogMessage("john", LogLevel.InfoLevel, "plain").toString(), lines.get(0).toString());
+        assertEquals(Thread.currentThread().getName(), lines.get(0).threadName);
+        assertTrue(lines.get(0).timeStamp >= before);
+        assertEquals("other-thread", lines.get(3).threadName);
+        assertEquals(LogLevel.ErrorLevel, lines.get(3).level);
+
+        assertTrue(log.contains("b\u00f8b"));
+        assertTrue(log.contains(LogLevel.DebugLevel, "\u00dfe \u20ac"));
+        assertFalse(log.contains(LogLevel.InfoLevel, "\u00dfe \u20ac"));
+        assertFalse(log.contains("login b\u00f8b plain"));
+        assertTrue(log.matches(LogLevel.WarnLevel, "login b.b"));
+
+        assertEquals("login b\u00f8b", log.linesWithMarker("AUDIT").iterator().next().text);
+        assertSame(audit, log.linesWithMarker("AUDIT").iterator().next().markers.get(0));
+        assertEquals("gr\u00f6\u00dfe \u20ac", log.linesWithMdc("request", "42").iterator().next().text);
+        assertEquals(7, log.linesWithKeyValue("orderId", 7).iterator().next().keyValue("orderId"));
+
+        log.clear();
+        assertTrue(log.lines().isEmpty());
+        assertFalse(log.contains("plain"));
+    }
+
+    public void testColumnarCaptureHoldsManyRows() {
+        TestLoggerFactory f = Settings.instance()
+                .printingEnabled(false)
+                .columnarCapture(true)
+                .buildLogging();
+        TestLogger log = f.getLogger("john");
+
+        int rows = 3 * ColumnarStore.ChunkSize + 5;
+        for (int i = 0; i < rows; i++) {
+            log.error("row {} padded to fill the text arena ......................................", i);
+        }
+
+        assertEquals(rows, log.lines().size());
+        int i = 0;
+        for (LogMessage row : log.lines()) {
+            assertTrue(row.text, row.text.startsWith("row " + i + " "));
+            // held in the arena as text, not as the Integer passed
+            assertEquals(Collections.singletonList(String.valueOf(i)), row.arguments);
+            i++;
+        }
+        assertEquals(rows, i);
+        log.error("no arguments");
+        log.error("{} and {} of {}", "b\u00f8b", null, new int[]{1, 2});
+        List<LogMessage> last = new ArrayList<>(log.linesBetween(0, Long.MAX_VALUE)).subList(rows, rows + 2);
+        assertTrue(last.get(0).arguments.isEmpty());
+        assertEquals(Arrays.asList("b\u00f8b", "null"), last.get(1).arguments.subList(0, 2));
+        assertTrue(last.get(1).arguments.get(2) instanceof String);
+        assertTrue(last.get(1).text.startsWith("b\u00f8b and null of [1, 2]"));
+        assertTrue(log.contains("row " + (rows - 1) + " "));
+        assertTrue(f.contains(LogLevel.ErrorLevel, "row 4096 "));
+    }
+
+    public void testSpilledCaptureIsQueriedFromDiskAndDeleted() throws Exception {
+        Path dir = Files.createTempDirectory("spill-test");
+        BasicMarkerFactory markers = new BasicMarkerFactory();
+        Marker audit = markers.getDetachedMarker("AUDIT");
+        BasicMDCAdapter mdc = new BasicMDCAdapter();
+
+        TestLoggerFactory f = Settings.instance()
+                .printingEnabled(false)
+                .enableAll()
+                .captureMdc(mdc)
+                .captureCallerLocation(true)
+                .spillToDisk(dir, 10_000)
+                .buildLogging();
+        TestLogger log = f.getLogger("john");
+
+        for (int i = 0; i < 1000; i++) {
+            mdc.put("request", "r" + (i % 10));
+            if (i % 100 == 0)
+                log.atWarn().addMarker(audit).addKeyValue("orderId", i).log("audited {} \u00e9t\u00e9", i);
+            else
+                log.info("row {}", i);
+        }
+        mdc.clear();
+
+        File[] spillDirs = dir.toFile().listFiles();
+        assertEquals(1, spillDirs.length);
+        assertTrue(spillDirs[0].listFiles().length > 0);
+
+        List<LogMessage> lines = new ArrayList<>(log.lines());
+        assertEquals(1000, lines.size());
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(lines.get(i).text, lines.get(i).text.startsWith(i % 100 == 0 ? "audited " + i : "row " + i));
+        }
+        LogMessage first = lines.get(0);
+        assertEquals(LogLevel.WarnLevel, first.level);
+        assertEquals(Thread.currentThread().getName(), first.threadName);
+        assertEquals("r0", first.mdc.get("request"));
+        assertEquals("AUDIT", first.markers.get(0).getName());
+        assertEquals("0", first.keyValue("orderId"));
+        assertEquals("testSpilledCaptureIsQueriedFromDiskAndDeleted", first.callerLocation.getMethodName());
+
+        assertTrue(log.contains("row 1"));
+        assertTrue(log.contains("row 999"));
+        assertTrue(log.contains(LogLevel.WarnLevel, "audited 500 \u00e9t\u00e9"));
+        assertFalse(log.contains(LogLevel.InfoLevel, "audited"));
+        assertTrue(log.matches("row 12"));
+        assertEquals(10, log.linesWithMarker("AUDIT").size());
+        assertEquals(100, log.linesWithMdc("request", "r3").size());
+        assertEquals("row 503", new ArrayList<>(log.linesWithMdc("request", "r3")).get(50).text);
+
+        log.clear();
+        assertTrue(log.lines().isEmpty());
+        assertEquals(0, spillDirs[0].listFiles().length);
+
+        log.info("after clear");
+        assertTrue(log.contains("after clear"));
+        f.close();
+        assertEquals(0, dir.toFile().listFiles().length);
+        Files.delete(dir);
+    }
+
+    public void testSpillMovesToNewSegmentsWhenFull() throws Exception {
+        TestLoggerFactory f = Settings.instance()
+                .printingEnabled(false)
+                .spillToDisk(1)
+                .buildLogging();
+        TestLogger log = f.getLogger("john");
+
+        char[] big = new char[SpillStore.SegmentBytes / 8];
+        Arrays.fill(big, 'x');
+        String text = new String(big);
+        for (int i = 0; i < 20; i++) {
+            log.error(i + text + i);
+        }
+
+        int i = 0;
+        for (LogMessage row : log.lines()) {
+            assertTrue(row.text.startsWith(i + "x") && row.text.endsWith("x" + i));
+            i++;
+        }
+        assertEquals(20, i);
+        assertTrue(log.contains("x19"));
+        f.close();
+    }
+
+    public void testExportWritesAllLoggersInTheOrderTheyLogged() throws Exception {
+        Path dir = Files.createTempDirectory("export-test");
+        TestLoggerFactory f = Settings.instance().printingEnabled(false).enableAll().buildLogging();
+        TestLogger a = f.getLogger("a");
+        TestLogger b = f.getLogger("b");
+
+        a.info("one");
+        b.debug("two \"quoted\"\nnext line");
+        a.atWarn().addKeyValue("k", 1).log("three {}", "x");
+        b.trace("four");
+
+        Path json = dir.resolve("capture.jsonl");
+        assertEquals(4, f.export(json, ExportFormat.JsonLines));
+        List<String> lines = Files.readAllLines(json);
+        assertEquals(4, lines.size());
+        assertTrue(lines.get(0), lines.get(0).matches("\\{\"seq\":1,\"time\":\\d+,\"level\":\"INFO\",\"logger\":\"a\",\"thread\":\".*\",\"threadId\":\\d+,\"text\":\"one\"}"));
+        assertTrue(lines.get(1), lines.get(1).endsWith("\"text\":\"two \\\"quoted\\\"\\nnext line\"}"));
+        assertTrue(lines.get(2), lines.get(2).endsWith("\"text\":\"three x\",\"arguments\":[\"x\"],\"keyValues\":{\"k\":\"1\"}}"));
+        assertTrue(lines.get(3), lines.get(3).contains("\"text\":\"four\""));
+
+        Path binary = dir.resolve("capture.bin");
+        assertEquals(4, f.export(binary, ExportFormat.Binary));
+        ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(binary));
+        assertEquals(LogExport.Magic, in.getLong(0));
+        List<String> texts = new ArrayList<>();
+        for (int pos = 8; RecordCodec.size(in, pos) > 0; pos += RecordCodec.size(in, pos)) {
+            texts.add(RecordCodec.decode(in, pos).text);
+        }
+        assertEquals(Arrays.asList("one", "two \"quoted\"\nnext line", "three x", "four"), texts);
+
+        Files.delete(json);
+        Files.delete(binary);
+        Files.delete(dir);
+    }
+
+    public void testBinaryExportCanBeReplayed() throws Exception {
+        Path file = Files.createTempFile("replay-test", ".bin");
+        TestLoggerFactory recorded = Settings.instance().printingEnabled(false).enableAll().buildLogging();
+        recorded.getLogger("a").info("one");
+        recorded.getLogger("b").atDebug().addKeyValue("k", 1).log("two");
+        recorded.getLogger("a").error("three");
+        recorded.export(file, ExportFormat.Binary);
+
+        // only ERROR is enabled but replay keeps everything
+        TestLoggerFactory replayed = Settings.instance().printingEnabled(false).buildLogging();
+        assertEquals(3, replayed.replay(file));
+
+        assertTrue(replayed.getLogger("a").contains(LogLevel.InfoLevel, "one"));
+        assertTrue(replayed.getLogger("b").matches(LogLevel.DebugLevel, "two"));
+        assertEquals("1", replayed.linesWithKeyValue("k", "1").iterator().next().keyValue("k"));
+        assertEquals(Arrays.asList(1L, 3L), sequences(replayed.getLogger("a")));
+
+        replayed.getLogger("a").error("live");
+        assertEquals(Arrays.asList(1L, 3L, 4L), sequences(replayed.getLogger("a")));
+        Files.delete(file);
+    }
+
+    private static List<Long> sequences(TestLogger log) {
+        List<Long> sequences = new ArrayList<>();
+        for (LogMessage m : log.lines()) sequences.add(m.sequence);
+        return sequences;
+    }
+
+    public void testTextLogsCanBeReplayedWithALayout() throws Exception {
+        Path file = Files.createTempFile("replay-test", ".log");
+        Files.write(file, Arrays.asList(
+                "2024-03-01 10:15:30.123 INFO  [main] com.acme.Orders req=r1 - order 1 accepted",
+                "2024-03-01 10:15:30.124 ERROR [pool-1 thread-2] com.acme.Payments req=r1 - payment failed",
+                "java.lang.IllegalStateException: declined",
+                "\tat com.acme.Payments.charge(Payments.java:42)",
+                "2024-03-01 10:15:31.000 WARN  [main] com.acme.Orders req= - order 1 cancelled"));
+
+        TestLoggerFactory f = Settings.instance().printingEnabled(false).buildLogging();
+        LogLayout layout = LogLayout.of("%d{yyyy-MM-dd HH:mm:ss.SSS} %-5level [%thread] %logger req=%X{req} - %msg%n");
+        assertEquals(3, f.replay(file, layout));
+
+        TestLogger payments = f.getLogger("com.acme.Payments");
+        LogMessage failed = payments.lines().iterator().next();
+        assertEquals(LogLevel.ErrorLevel, failed.level);
+        assertEquals("pool-1 thread-2", failed.threadName);
+        assertEquals("payment failed\njava.lang.IllegalStateException: declined\n\tat com.acme.Payments.charge(Payments.java:42)", failed.text);
+        assertEquals(java.time.LocalDateTime.of(2024, 3, 1, 10, 15, 30, 124_000_000)
+                .atZone(java.time.ZoneId.systemDefault()).toInstant().toEpochMilli(), failed.timeStamp);
+        assertEquals(2, f.linesWithMdc("req", "r1").size());
+        assertTrue(f.getLogger("com.acme.Orders").lines().toArray(new LogMessage[0])[1].mdc.isEmpty());
+        assertTrue(f.getLogger("com.acme.Orders").contains(LogLevel.WarnLevel, "cancelled"));
+        Files.delete(file);
+    }
+
+    public void testTextLogsWithOnlyATimeOfDayCanBeReplayed() throws Exception {
+        Path file = Files.createTempFile("replay-test", ".log");
+        Files.write(file, Arrays.asList(
+                "10:15:30.123 [main] INFO  com.acme.Orders - order 1 accepted",
+                "25:61:00.000 [main] INFO  com.acme.Orders - not a time, so a continuation",
+                "10:15:31.000 [main] WARN  com.acme.Orders - order 1 cancelled"));
+
+        TestLoggerFactory f = Settings.instance().printingEnabled(false).buildLogging();
+        assertEquals(2, f.replay(file, LogLayout.of("%d{HH:mm:ss.SSS} [%thread] %-5level %logger{36} - %msg%n")));
+
+        List<LogMessage> lines = new ArrayList<>(f.getLogger("com.acme.Orders").lines());
+        assertEquals("order 1 accepted\n25:61:00.000 [main] INFO  com.acme.Orders - not a time, so a continuation",
+                lines.get(0).text);
+        assertEquals(java.time.LocalTime.of(10, 15, 30, 123_000_000).atDate(java.time.LocalDate.EPOCH)
+                .atZone(java.time.ZoneId.systemDefault()).toInstant().toEpochMilli(), lines.get(0).timeStamp);
+        assertEquals(877, lines.get(1).timeStamp - lines.get(0).timeStamp);
+        assertEquals(LogLevel.WarnLevel, lines.get(1).level);
+        Files.delete(file);
+    }
+
+    public void testConsoleOutputCanBeReplayed() throws Exception {
+        StringPrintStream console = StringPrintStream.newStream();
+        TestLoggerFactory recorded = Settings.instance().redirectPrintStream(LogLevel.ErrorLevel, console).buildLogging();
+        recorded.getLogger("john").error("first");
+        recorded.getLogger("john").error("second {}", 2);
+
+        Path file = Files.createTempFile("replay-test", ".log");
+        Files.write(file, console.toString().getBytes(java.nio.charset.StandardCharsets.UTF_8));
+
+        TestLoggerFactory replayed = Settings.instance().printingEnabled(false).buildLogging();
+        assertEquals(2, replayed.replay(file, LogLayout.Console));
+        assertTrue(replayed.getLogger("john").matches(LogLevel.ErrorLevel, "second 2"));
+        Files.delete(file);
+    }
+
+    public void testFailedAssertionsDumpTheCapture() throws Exception {
+        Path dir = Files.createTempDirectory("dump-test");
+        TestLoggerFactory f = Settings.instance()
+                .printingEnabled(false)
+                .dumpOnFailure(dir)
+                .buildLogging();
+        TestLogger log = f.getLogger("john");
+        log.error("the only line");
+
+        try {
+            log.assertMatches(new Predicate<LogMessage>() {
+                public boolean matches(LogMessage row) {
+                    return row.text.equals("missing");
+                }
+            });
+            fail();
+        } catch (AssertionError expected) {
+            if (expected.getMessage() == null || !expected.getMessage().startsWith("did not match"))
+                throw expected;
+            String message = expected.getMessage();
+            assertTrue(message, message.contains("captured logging written to "));
+            Path dump = Paths.get(message.substring(message.indexOf(" to ") + 4).trim());
+            assertTrue(Files.readAllLines(dump).get(0).contains("\"text\":\"the only line\""));
+            Files.delete(dump);
+        }
+
+        // factories failing together don't overwrite each other's dumps
+        List<Path> dumps = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            TestLoggerFactory other = Settings.instance().printingEnabled(false).dumpOnFailure(dir).buildLogging();
+            other.getLogger("john").error("factory " + i);
+            String message = failure(() -> other.assertMatches(text("missing")));
+            dumps.add(Paths.get(message.substring(message.indexOf(" to ") + 4).trim()));
+        }
+        assertFalse(dumps.get(0).equals(dumps.get(1)));
+        for (int i = 0; i < 2; i++) {
+            assertTrue(Files.readAllLines(dumps.get(i)).get(0).contains("factory " + i));
+            Files.delete(dumps.get(i));
+        }
+        Files.delete(dir);
+    }
+
+    public void testSnapshotIsUnchangedByLaterLoggingAndClears() {
+        TestLoggerFactory f = Settings.instance().printingEnabled(false).enableAll().buildLogging();
+        TestLogger a = f.getLogger("a");
+        TestLogger b = f.getLogger("b");
+        a.info("one");
+        b.info("two");
+        a.info("three");
+
+        LogSnapshot snapshot = f.snapshot();
+        b.info("four");
+
+        assertEquals(3, snapshot.sequence);
+        assertEquals(Arrays.asList("one", "two", "three"), texts(snapshot.lines()));
+        assertEquals(Arrays.asList("two"), texts(snapshot.lines("b")));
+        assertTrue(snapshot.contains(LogLevel.InfoLevel, "three"));
+        assertFalse(snapshot.contains("four"));
+
+        f.clearUpTo(snapshot);
+        assertEquals(Arrays.asList("four"), texts(f.lines()));
+        assertEquals(0, a.lines().size());
+        assertEquals(1, b.lines().size());
+
+        f.clear();
+        assertEquals(Arrays.asList("one", "two", "three"), texts(snapshot.lines()));
+    }
+
+    public void testSnapshotsAreConsistentAndClearUpToLosesNothing() throws Exception {
+        Settings[] stores = {
+                Settings.instance(),
+                Settings.instance().columnarCapture(true),
+                Settings.instance().spillToDisk(20_000)
+        };
+        for (Settings settings : stores) {
+            TestLoggerFactory f = settings.printingEnabled(false).enableAll().buildLogging();
+            int producers = 4;
+            int each = 20_000;
+            Thread[] threads = new Thread[producers];
+            for (int p = 0; p < producers; p++) {
+                TestLogger log = f.getLogger("producer" + p);
+                threads[p] = new Thread(() -> {
+                    for (int i = 0; i < each; i++) {
+                        log.info("message {}", i);
+                    }
+                });
+                threads[p].start();
+            }
+
+            long cleared = 0;
+            long lastCut = 0;
+            boolean running = true;
+            while (running) {
+                running = false;
+                for (Thread t : threads) running |= t.isAlive();
+
+                LogSnapshot snapshot = f.snapshot();
+                // no gaps: everything numbered after the last clear and up to the cut, whatever logger it went to
+                long expected = lastCut;
+                for (LogMessage m : snapshot.lines()) {
+                    assertEquals(++expected, m.sequence);
+                }
+                assertEquals(snapshot.sequence, expected);
+
+                f.clearUpTo(snapshot);
+                cleared += snapshot.sequence - lastCut;
+                lastCut = snapshot.sequence;
+            }
+            for (Thread t : threads) t.join();
+
+            assertEquals(producers * each, cleared + f.lines().size());
+            f.close();
+        }
+    }
+
+    public void testRowsOfALoggerSharedByThreadsAreInSequenceOrder() throws Exception {
+        Settings[] stores = {
+                Settings.instance(),
+                Settings.instance().columnarCapture(true),
+                Settings.instance().spillToDisk(20_000)
+        };
+        for (Settings settings : stores) {
+            TestLoggerFactory f = settings.printingEnabled(false).enableAll().buildLogging();
+            TestLogger shared = f.getLogger("shared");
+            TestLogger other = f.getLogger("other");
+            Thread[] threads = new Thread[4];
+            for (int t = 0; t < threads.length; t++) {
+                threads[t] = new Thread(() -> {
+                    for (int i = 0; i < 20_000; i++) {
+                        shared.info("message {}", i);
+                        if (i % 100 == 0)
+                            other.info("message {}", i);
+                    }
+                });
+                threads[t].start();
+            }
+            for (Thread t : threads) t.join();
+
+            // the merge across loggers relies on each logger's rows being in sequence order
+            long last = 0;
+            for (LogMessage m : shared.lines()) {
+                assertTrue(m.sequence > last);
+                last = m.sequence;
+            }
+            long expected = 0;
+            for (LogMessage m : f.snapshot().lines()) {
+                assertEquals(++expected, m.sequence);
+            }
+            assertEquals(80_800, expected);
+            f.close();
+        }
+    }
+
+    private static List<String> texts(Collection<LogMessage> lines) {
+        List<String> texts = new ArrayList<>();
+        for (LogMessage m : lines) texts.add(m.text);
+        return texts;
+    }
+
+    public void testThreadIdAndVirtualnessAreRecordedByEveryStore() throws Exception {
+        Settings[] stores = {
+                Settings.instance(),
+                Settings.instance().columnarCapture(true),
+                Settings.instance().spillToDisk(1)
+        };
+        for (Settings settings : stores) {
+            TestLoggerFactory f = settings.printingEnabled(false).enableAll().buildLogging();
+            TestLogger log = f.getLogger("threads");
+            log.info("platform");
+            Thread virtual = startVirtualThread(() -> log.info("virtual"));
+
+            LogMessage platform = log.lines().iterator().next();
+            assertEquals(Thread.currentThread().getId(), platform.threadId);
+            assertFalse(platform.virtualThread);
+            // only from java 21
+            if (virtual != null) {
+                virtual.join();
+                List<LogMessage> lines = new ArrayList<>(log.lines());
+                assertEquals(virtual.getId(), lines.get(1).threadId);
+                assertTrue(lines.get(1).virtualThread);
+            }
+            f.close();
+        }
+    }
+
+    private static Thread startVirtualThread(Runnable task) throws Exception {
+        try {
+            return (Thread) Thread.class.getMethod("startVirtualThread", Runnable.class).invoke(null, task);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    public void testConsoleCanPrintInBackground() {
+        StringPrintStream console = StringPrintStream.newStream();
+        TestLoggerFactory f = Settings.instance()
+                .printInBackground(true)
+                .redirectPrintStream(LogLevel.ErrorLevel, console)
+                .buildLogging();
+        TestLogger a = f.getLogger("a");
+        TestLogger b = f.getLogger("b");
+
+        for (int i = 0; i < 1000; i++) {
+            (i % 2 == 0 ? a : b).error("line {}", i);
+        }
+        f.awaitPrinting();
+
+        String[] printed = console.toString().split(System.lineSeparator());
+        assertEquals(1000, printed.length);
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(printed[i], printed[i].endsWith((i % 2 == 0 ? "a" : "b") + " - line " + i));
+        }
+        assertEquals(1000, f.metrics().captured());
+
+        f.close();
+        a.error("after close");
+        f.awaitPrinting();
+        assertTrue(console.contains("after close"));
+        f.close();
+    }
+
+    public void testRoutingProviderSendsCallsToTheFactoryBoundToTheThread() throws Exception {
+        RoutingServiceProvider provider = new RoutingServiceProvider();
+        provider.initialize();
+        // as third party code would hold it
+        Logger thirdParty = provider.getLoggerFactory().getLogger("thirdparty");
+        assertSame(thirdParty, provider.getLoggerFactory().getLogger("thirdparty"));
+
+        TestLoggerFactory a = Settings.instance().printingEnabled(false).captureCallerLocation(true).buildLogging();
+        TestLoggerFactory b = Settings.instance().printingEnabled(false).buildLogging();
+
+        TestLoggerFactory.Binding binding = a.bind();
+        try {
+            thirdParty.error("from a");
+            thirdParty.atError().addKeyValue("k", 1).log("fluent in a");
+            Thread child = new Thread(() -> thirdParty.error("from a's child"));
+            child.start();
+            child.join();
+
+            Thread other = new Thread(() -> {
+                TestLoggerFactory.Binding nested = b.bind();
+                try {
+                    thirdParty.error("from b");
+                } finally {
+                    nested.close();
+                }
+            });
+            other.start();
+            other.join();
+        } finally {
+            binding.close();
+        }
+
+        TestLogger captured = a.getLogger("thirdparty");
+        assertEquals(Arrays.asList("from a", "fluent in a", "from a's child"), texts(captured.lines()));
+        assertEquals("testRoutingProviderSendsCallsToTheFactoryBoundToTheThread",
+                captured.lines().iterator().next().callerLocation.getMethodName());
+        assertEquals(Arrays.asList("from b"), texts(b.getLogger("thirdparty").lines()));
+
+        // closing the binding put the thread back to unbound
+        thirdParty.error("after the test");
+        assertEquals(3, captured.lines().size());
+        TestLogger unbound = RoutingServiceProvider.unbound().getLogger("thirdparty");
+        assertTrue(unbound.contains("after the test"));
+        unbound.clear();
+
+        // concurrent tests share the logger, each call still goes to its own thread's factory
+        TestLoggerFactory[] factories = new TestLoggerFactory[4];
+        Thread[] threads = new Thread[factories.length];
+        for (int t = 0; t < threads.length; t++) {
+            TestLoggerFactory f = factories[t] = Settings.instance().printingEnabled(false).buildLogging();
+            threads[t] = new Thread(() -> {
+                TestLoggerFactory.Binding bound = f.bind();
+                try {
+                    for (int i = 0; i < 1000; i++) {
+                        thirdParty.error("call {}", i);
+                    }
+                } finally {
+                    bound.close();
+                }
+            });
+            threads[t].start();
+        }
+        for (int t = 0; t < threads.length; t++) {
+            threads[t].join();
+            assertEquals(1000, factories[t].getLogger("thirdparty").lines().size());
+        }
+    }
+
+    public void testPooledFactoriesAreResetAndReused() throws Exception {
+        for (boolean columnar : new boolean[]{false, true}) {
+            try (TestLoggerFactoryPool pool = new TestLoggerFactoryPool(
+                    Settings.instance().printingEnabled(false).columnarCapture(columnar))) {
+                TestLoggerFactory f = pool.acquire();
+                TestLogger log = f.getLogger("john");
+                for (int i = 0; i < 5000; i++) {
+                    log.error("first test {}", i);
+                }
+                f.clearUpTo(f.snapshot());
+                log.error("left over");
+                Thread.sleep(5);
+                long released = System.currentTimeMillis();
+                pool.release(f);
+
+                TestLoggerFactory again = pool.acquire();
+                assertSame(f, again);
+                assertSame(log, again.getLogger("john"));
+                assertTrue(log.lines().isEmpty());
+                assertEquals(0, again.metrics().captured());
+                assertFalse(again.snapshot().contains("left over"));
+
+                log.error("second test");
+                assertEquals(Arrays.asList("second test"), texts(log.lines()));
+                assertEquals(1, again.snapshot().lines().size());
+                assertNotSame(f, pool.acquire());
+
+                // times are relative to the reset, not to when the factory was built
+                Path golden = Files.createTempFile("slf4jtest", ".golden");
+                try {
+                    again.writeGolden(golden, LogNormaliser.standard().keepTimes());
+                    long time = Long.parseLong(Files.readAllLines(golden).get(0).split(" ")[0]);
+                    assertTrue(log.lines().iterator().next().timeStamp - time >= released);
+                } finally {
+                    Files.delete(golden);
+                }
+
+                try {
+                    pool.release(Settings.instance().buildLogging());
+                    fail();
+                } catch (IllegalArgumentException e) {
+                    // not from this pool
+                }
+            }
+        }
+    }
+
+    public void testRuleLendsAFactoryBoundToTheTest() throws Throwable {
+        TestLoggerFactoryPool pool = new TestLoggerFactoryPool(Settings.instance().printingEnabled(false));
+        TestLoggerFactoryRule rule = new TestLoggerFactoryRule(pool);
+        TestLoggerFactory[] used = new TestLoggerFactory[1];
+
+        rule.apply(new Statement() {
+            @Override
+            public void evaluate() {
+                used[0] = rule.factory();
+                assertSame(used[0], Routing.current());
+                rule.factory().getLogger("john").error("in the test");
+            }
+        }, Description.EMPTY).evaluate();
+
+        assertNotSame(used[0], Routing.current());
+        try {
+            rule.factory();
+            fail();
+        } catch (IllegalStateException e) {
+            // only while a test runs
+        }
+        TestLoggerFactory next = pool.acquire();
+        assertSame(used[0], next);
+        assertFalse(next.contains(LogLevel.ErrorLevel, "in the test"));
+        pool.close();
+    }
+
+    public void testSequencesAreAssertedAcrossLoggersInTheOrderLogged() {
+        TestLoggerFactory f = Settings.instance().printingEnabled(false).buildLogging();
+        TestLogger client = f.getLogger("client");
+        TestLogger pool = f.getLogger("pool");
+        client.error("connecting");
+        pool.error("retry 1");
+        pool.error("connected");
+        client.error("ready");
+        client.error("connecting");
+        client.error("connected");
+
+        f.assertSequence(text("connecting"), text("connected"), text("ready"));
+        f.assertSequence(text("ready"), text("connecting"), text("connected"));
+        try {
+            f.assertSequence(text("connected"), text("ready"), text("retry 1"));
+            fail();
+        } catch (AssertionError e) {
+            long ready = client.lines().iterator().next().sequence + 3;
+            assertEquals("sequence not logged: step 3 of 3 text(retry 1) was not matched by any message after step 2"
+                    + " matched #" + ready + " client ERROR \"ready\"", e.getMessage());
+        }
+
+        // the retry came between the first connecting and connected, the second pair is clean
+        try {
+            f.assertNotBetween(text("connecting"), text("retry 1"), text("connected"));
+            fail();
+        } catch (AssertionError e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("pool ERROR \"retry 1\" matched text(retry 1) between"));
+        }
+        f.assertNotBetween(text("ready"), text("retry 1"), text("connected"));
+        f.assertNotBetween(text("connected"), text("connected"), text("connecting"));
+
+        // a window left open runs to the end
+        pool.error("retry 2");
+        try {
+            f.assertNotBetween(text("ready"), text("retry 2"), text("never"));
+            fail();
+        } catch (AssertionError e) {
+            // expected
+        }
+    }
+
+    private static Predicate<LogMessage> text(String text) {
+        return new Predicate<LogMessage>() {
+            public boolean matches(LogMessage row) {
+                return row.text.equals(text);
+            }
+
+            public String toString() {
+                return "text(" + text + ")";
+            }
+        };
+    }
+
+    public void testTimeWindowsAreServedFromTheTimestampIndex() {
+        Settings[] stores = {
+                Settings.instance(),
+                Settings.instance().columnarCapture(true),
+                Settings.instance().spillToDisk(20_000)
+        };
+        long base = 1_700_000_000_000L;
+        for (Settings settings : stores) {
+            try (TestLoggerFactory f = settings.printingEnabled(false).buildLogging()) {
+                TestLoggerImpl failover = (TestLoggerImpl) f.getLogger("failover");
+                TestLoggerImpl client = (TestLoggerImpl) f.getLogger("client");
+                long sequence = 0;
+                for (int i = 0; i < 5000; i++) {
+                    failover.replay(message("failover", LogLevel.InfoLevel, "tick " + i, base + i, ++sequence));
+                    client.replay(message("client", LogLevel.InfoLevel, "request " + i, base + i, ++sequence));
+                }
+                // arrived late, far from its neighbours in time
+                client.replay(message("client", LogLevel.ErrorLevel, "late error", base + 2001, ++sequence));
+
+                assertEquals(Arrays.asList("tick 2000", "request 2000", "tick 2001", "request 2001", "late error"),
+                        texts(f.linesBetween(base + 2000, base + 2001)));
+                assertEquals(Arrays.asList("request 4999"), texts(client.linesBetween(base + 4999, base + 10_000)));
+                assertTrue(client.linesBetween(base - 10, base - 1).isEmpty());
+
+                assertTrue(f.matchesBetween(base + 2000, base + 2500, m -> m.level == LogLevel.ErrorLevel));
+                assertFalse(f.matchesBetween(base + 2002, base + 2500, m -> m.level == LogLevel.ErrorLevel));
+                assertFalse(failover.matchesBetween(base, base + 5000, m -> m.text.equals("late error")));
+
+                f.clear();
+                assertTrue(f.linesBetween(base, base + 5000).isEmpty());
+            }
+        }
+    }
+
+    private static LogMessage message(String logName, LogLevel level, String text, long timeStamp, long sequence) {
+        return new LogMessage(logName, level, text, timeStamp, "main", 1, false,
+                Collections.<String, String>emptyMap(), Collections.<Marker>emptyList(), Collections.emptyList(),
+                Collections.<KeyValuePair>emptyList(), null, sequence);
+    }
+
+    public void testTemplatesAreCountedWithOnlyAFewSamplesCaptured() {
+        TestLoggerFactory f = Settings.instance().printingEnabled(false).enableAll().deduplicateTemplates(3).buildLogging();
+        TestLogger orders = f.getLogger("orders");
+        TestLogger stock = f.getLogger("stock");
+        for (int i = 0; i < 100_000; i++) {
+            orders.info("order {} placed", i);
+            if (i % 10 == 0)
+                stock.atDebug().addArgument(i).log("item {} reserved");
+        }
+        orders.error("failed");
+        stock.info("order {} placed", -1);
+
+        assertEquals(100_001, f.countWithTemplate("order {} placed"));
+        assertEquals(100_000, orders.countWithTemplate("order {} placed"));
+        assertEquals(10_000, stock.countWithTemplate("item {} reserved"));
+        assertEquals(1, f.countWithTemplate("failed"));
+        assertEquals(0, f.countWithTemplate("never logged"));
+
+        // only the samples were captured
+        assertEquals(Arrays.asList("order 0 placed", "order 1 placed", "order 2 placed"),
+                texts(orders.linesWithTemplate("order {} placed")));
+        assertEquals(Arrays.asList("item 0 reserved", "item 10 reserved", "item 20 reserved"),
+                texts(stock.linesWithTemplate("item {} reserved")));
+        assertEquals(4, orders.lines().size());
+        assertEquals(4, f.metrics().loggers.get("orders").captured());
+        assertEquals(99_997, f.metrics().loggers.get("orders").counted());
+
+        assertEquals(Arrays.asList("order {} placed", "item {} reserved", "failed"),
+                new ArrayList<>(f.templateCounts().keySet()));
+
+        f.clearUpTo(f.snapshot());
+        assertTrue(orders.linesWithTemplate("order {} placed").isEmpty());
+        assertEquals(100_000, orders.countWithTemplate("order {} placed"));
+        f.clear();
+        assertEquals(0, f.countWithTemplate("order {} placed"));
+        orders.info("order {} placed", 7);
+        assertEquals(Arrays.asList("order 7 placed"), texts(orders.linesWithTemplate("order {} placed")));
+
+        TestLoggerFactory plain = Settings.instance().printingEnabled(false).buildLogging();
+        plain.getLogger("orders").error("order {} placed", 1);
+        assertEquals(0, plain.countWithTemplate("order {} placed"));
+        assertTrue(plain.templateCounts().isEmpty());
+    }
+
+    public void testCapturePoliciesKeepSomeMessagesAndCountThemAll() {
+        TestLoggerFactory f = Settings.instance().printingEnabled(false).enableAll()
+                .capturePolicy(LogLevel.DebugLevel, CapturePolicy.everyNth(100))
+                .capturePolicy("com.acme", LogLevel.DebugLevel, CapturePolicy.firstThenEveryNth(5, 1000))
+                .capturePolicy("com.acme.cache", LogLevel.InfoLevel, CapturePolicy.perSecond(10))
+                .buildLogging();
+        TestLogger other = f.getLogger("other");
+        TestLogger acme = f.getLogger("com.acme.Service");
+        TestLogger cache = f.getLogger("com.acme.cache.Loader");
+        TestLogger lookalike = f.getLogger("com.acmecorp.Service");
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 10_000; i++) {
+            other.debug("other {}", i);
+            acme.debug("acme {}", i);
+            lookalike.debug("lookalike {}", i);
+            cache.info("loaded {}", i);
+            acme.info("unsampled {}", i);
+        }
+        long seconds = (System.nanoTime() - start) / 1_000_000_000L;
+
+        assertEquals(Arrays.asList("other 0", "other 100", "other 200"), texts(other.lines()).subList(0, 3));
+        assertEquals(100, other.lines().size());
+        assertEquals(100, lookalike.lines().size());
+        List<String> acmeDebug = new ArrayList<>();
+        for (LogMessage m : acme.lines()) {
+            if (m.level == LogLevel.DebugLevel)
+                acmeDebug.add(m.text);
+        }
+        assertEquals(Arrays.asList("acme 0", "acme 1", "acme 2", "acme 3", "acme 4", "acme 5", "acme 1005"),
+                acmeDebug.subList(0, 7));
+        assertEquals(15, acmeDebug.size());
+        assertEquals(15 + 10_000, acme.lines().size());
+        // a burst of ten, then ten a second
+        long cached = cache.lines().size();
+        assertTrue(String.valueOf(cached), cached >= 10 && cached <= 10 + 10 * (seconds + 1));
+
+        // counts stay exact, captured being what is kept
+        LoggingMetrics metrics = f.metrics();
+        assertEquals(100, metrics.loggers.get("other").captured());
+        assertEquals(9_900, metrics.loggers.get("other").counted());
+        assertEquals(10_015, metrics.loggers.get("com.acme.Service").captured());
+        assertEquals(9_985, metrics.loggers.get("com.acme.Service").counted());
+        assertEquals(cached, metrics.loggers.get("com.acme.cache.Loader").captured());
+        assertEquals(10_000, cached + metrics.loggers.get("com.acme.cache.Loader").counted());
+        f.assertAtMostMessages(50_000);
+        try {
+            f.assertAtMostMessages(49_999);
+            fail();
+        } catch (AssertionError e) {
+            // expected
+        }
+
+        // the console shows everything, captured or not
+        StringPrintStream console = StringPrintStream.newStream();
+        TestLoggerFactory printed = Settings.instance().enableAll().redirectPrintStream(LogLevel.InfoLevel, console)
+                .capturePolicy(LogLevel.InfoLevel, CapturePolicy.everyNth(3)).deduplicateTemplates(1).buildLogging();
+        TestLogger printing = printed.getLogger("printing");
+        for (int i = 0; i < 6; i++) {
+            printing.info("shown {}", i);
+        }
+        assertEquals(Arrays.asList("shown 0"), texts(printing.lines()));
+        for (int i = 0; i < 6; i++) {
+            assertTrue(console.contains("shown " + i));
+        }
+        assertEquals(5, printed.metrics().counted());
+
+        // sampling restarts with the capture
+        f.clear();
+        acme.debug("again");
+        assertEquals(Arrays.asList("again"), texts(acme.lines()));
+    }
+
+    public void testFailedMatchesListTheClosestMessagesWithinABudget() {
+        TestLoggerFactory f = Settings.instance().printingEnabled(false).buildLogging();
+        TestLogger db = f.getLogger("db");
+        TestLogger web = f.getLogger("web");
+        for (int i = 0; i < 1000; i++) {
+            web.error("request {} served", i);
+        }
+        db.error("connected to primary");
+        db.error("connection pool ready");
+
+        String failure = failure(() -> f.assertMatches(text("connecting to primary")));
+        String[] lines = failure.split(System.lineSeparator());
+        assertEquals("did not match text(connecting to primary)", lines[0]);
+        assertEquals("closest of the 1002 messages read:", lines[1]);
+        assertTrue(lines[2], lines[2].endsWith(" db ERROR \"connected to primary\""));
+        assertTrue(lines[3], lines[3].endsWith(" db ERROR \"connection pool ready\""));
+        assertEquals(7, lines.length);
+
+        // nothing to compare with, so the last ones logged, read from the end
+        lines = failure(() -> db.assertMatches(m -> false)).split(System.lineSeparator());
+        assertEquals("the last 2 messages logged:", lines[1]);
+        assertTrue(lines[3], lines[3].endsWith(" db ERROR \"connection pool ready\""));
+        lines = failure(() -> f.assertMatches(m -> false)).split(System.lineSeparator());
+        assertEquals("the last 5 messages logged:", lines[1]);
+        assertTrue(lines[4], lines[4].endsWith(" web ERROR \"request 999 served\""));
+        assertTrue(lines[6], lines[6].endsWith(" db ERROR \"connection pool ready\""));
+        assertEquals(7, lines.length);
+
+        // unless the assertion says what the lambda is after
+        lines = failure(() -> f.assertMatches(m -> m.text.startsWith("connecting"), "connecting to primary"))
+                .split(System.lineSeparator());
+        assertEquals("closest of the 1002 messages read:", lines[1]);
+        assertTrue(lines[2], lines[2].endsWith(" db ERROR \"connected to primary\""));
+
+        TestLoggerFactory budgeted = Settings.instance().printingEnabled(false).nearMatches(2, 100, 1000).buildLogging();
+        TestLogger big = budgeted.getLogger("big");
+        for (int i = 0; i < 1000; i++) {
+            big.error("row {}", i);
+        }
+        lines = failure(() -> big.assertMatches(text("row 9999"))).split(System.lineSeparator());
+        assertEquals("closest of the 100 messages read, stopped at the budget of 100 rows or 1000ms:", lines[1]);
+        assertEquals(4, lines.length);
+
+        TestLoggerFactory quiet = Settings.instance().printingEnabled(false).nearMatches(0, 0, 0).buildLogging();
+        quiet.getLogger("x").error("something");
+        assertEquals("did not match text(other)", failure(() -> quiet.assertMatches(text("other"))));
+    }
+
+    private static String failure(Runnable assertion) {
+        try {
+            assertion.run();
+        } catch (AssertionError expected) {
+            return expected.getMessage();
+        }
+        throw new AssertionError("expected the assertion to fail");
+    }
+
+    public void testCaptureOfSeveralJvmsIsAggregatedAndMerged() throws Exception {
+        Path dir = Files.createTempDirectory("slf4jtest-aggregate");
+        try {
+            // this JVM, from several threads and two factories
+            TestLoggerFactory worker = Settings.instance().printingEnabled(false).enableAll().aggregateTo(dir).buildLogging();
+            TestLoggerFactory another = Settings.instance().printingEnabled(false).aggregateTo(dir).buildLogging();
+            Thread[] threads = new Thread[4];
+            for (int t = 0; t < threads.length; t++) {
+                int thread = t;
+                threads[t] = new Thread(() -> {
+                    for (int i = 0; i < 5000; i++) {
+                        worker.getLogger("orders").info("order {} from {}", i, thread);
+                    }
+                });
+                threads[t].start();
+            }
+            for (Thread t : threads) {
+                t.join();
+            }
+            another.getLogger("orders").error("unexpected");
+            // not captured, so not aggregated
+            another.getLogger("orders").info("disabled");
+
+            // and another JVM's worker, writing files of its own
+            Aggregator other = new Aggregator(dir, "other-jvm");
+            other.append(message("payments", LogLevel.ErrorLevel, "declined", 0, 1));
+            other.append(message("payments", LogLevel.InfoLevel, "settled", Long.MAX_VALUE, 2));
+
+            TestLoggerFactory suite = Settings.instance().printingEnabled(false).buildLogging();
+            assertEquals(20_003, suite.replayAggregate(dir));
+
+            List<LogMessage> all = new ArrayList<>(suite.lines());
+            all.sort((a, b) -> Long.compare(a.sequence, b.sequence));
+            assertEquals("declined", all.get(0).text);
+            assertEquals("settled", all.get(all.size() - 1).text);
+            int[] next = new int[threads.length];
+            for (int i = 0; i < all.size(); i++) {
+                assertEquals(i + 1, all.get(i).sequence);
+                // each JVM's messages keep the order it captured them in
+                List<Object> args = all.get(i).arguments;
+                if (args.size() == 2)
+                    assertEquals(next[(Integer.parseInt((String) args.get(1)))]++, Integer.parseInt((String) args.get(0)));
+            }
+
+            assertEquals(2, suite.lines().stream().filter(m -> m.level == LogLevel.ErrorLevel).count());
+            assertEquals(20_001, suite.metrics().loggers.get("orders").captured());
+            assertTrue(suite.contains(LogLevel.InfoLevel, "order 4999 from 3"));
+
+            // each file is a binary export in its own right
+            Path file;
+            try (java.util.stream.Stream<Path> files = Files.list(dir)) {
+                file = files.filter(f -> f.getFileName().toString().startsWith("other-jvm")).findFirst().get();
+            }
+            TestLoggerFactory single = Settings.instance().printingEnabled(false).buildLogging();
+            assertEquals(2, single.replay(file));
+        } finally {
+            try (java.util.stream.Stream<Path> files = Files.list(dir)) {
+                for (Path f : (Iterable<Path>) files::iterator) {
+                    Files.delete(f);
+                }
+            }
+            Files.delete(dir);
+        }
+    }
+
+    public void testEachWritersSegmentsAreReplayedInTheOrderWritten() throws Exception {
+        Path dir = Files.createTempDirectory("slf4jtest-aggregate");
+        try {
+            // a clock that stepped back between two of a's segments, and a's segment 10 sorting before 2 by name
+            segment(dir, "a-0", message("orders", LogLevel.InfoLevel, "a 100", 100, 1),
+                    message("orders", LogLevel.InfoLevel, "a 300", 300, 2));
+            segment(dir, "a-1", message("orders", LogLevel.InfoLevel, "a 200", 200, 3));
+            segment(dir, "a-2", message("orders", LogLevel.InfoLevel, "a 250", 250, 4));
+            segment(dir, "a-10", message("orders", LogLevel.InfoLevel, "a 260", 260, 5));
+            segment(dir, "b-0", message("orders", LogLevel.InfoLevel, "b 150", 150, 1));
+
+            TestLoggerFactory suite = Settings.instance().printingEnabled(false).buildLogging();
+            assertEquals(6, suite.replayAggregate(dir));
+            List<LogMessage> all = new ArrayList<>(suite.lines());
+            all.sort((x, y) -> Long.compare(x.sequence, y.sequence));
+            List<String> texts = new ArrayList<>();
+            for (LogMessage m : all) {
+                texts.add(m.text);
+            }
+            assertEquals(Arrays.asList("a 100", "b 150", "a 300", "a 200", "a 250", "a 260"), texts);
+        } finally {
+            try (java.util.stream.Stream<Path> files = Files.list(dir)) {
+                for (Path f : (Iterable<Path>) files::iterator) {
+                    Files.delete(f);
+                }
+            }
+            Files.delete(dir);
+        }
+    }
+
+    private static void segment(Path dir, String name, LogMessage... messages) throws IOException {
+        LogExport.write(Arrays.asList(messages).iterator(), dir.resolve(name + Aggregator.Suffix), ExportFormat.Binary);
+    }
+
+    public void testAggregationErrorsAreReportedOnCloseNotWhenLogging() throws Exception {
+        // a file where the directory should be
+        Path notADirectory = Files.createTempFile("slf4jtest-aggregate", ".txt");
+        try {
+            TestLoggerFactory f = Settings.instance().printingEnabled(false).aggregateTo(notADirectory).buildLogging();
+            f.getLogger("orders").error("declined");
+            f.getLogger("orders").error("declined again");
+            assertTrue(f.contains(LogLevel.ErrorLevel, "declined again"));
+
+            try {
+                f.replayAggregate(notADirectory);
+                fail("expected the aggregation error");
+            } catch (java.io.UncheckedIOException expected) {
+                assertTrue(expected.getMessage(), expected.getMessage().contains("stopped"));
+            }
+            try {
+                f.close();
+                fail("expected the aggregation error");
+            } catch (java.io.UncheckedIOException expected) {
+                assertTrue(expected.getCause() instanceof java.nio.file.FileAlreadyExistsException);
+            }
+            assertEquals(0, f.lines().size());
+        } finally {
+            Files.delete(notADirectory);
+        }
+    }
+
+    public void testCaptureIsComparedWithAGoldenFileAfterNormalising() throws Exception {
+        Path golden = Files.createTempFile("slf4jtest", ".golden");
+        try {
+            LogNormaliser normaliser = LogNormaliser.standard().replace("order-[0-9a-f]{8}", "order-<id>");
+            TestLoggerFactory f = Settings.instance().printingEnabled(false).enableAll().buildLogging();
+            for (int i = 0; i < 20; i++) {
+                f.getLogger("orders").info("placed order-{} as\nline two", String.format("%08x", i * 7919));
+            }
+            f.getLogger("orders").error("failed");
+            assertEquals(41, f.writeGolden(golden, normaliser));
+            List<String> lines = Files.readAllLines(golden);
+            assertEquals("<time> INFO [<thread>] orders - placed order-<id> as", lines.get(0));
+            assertEquals("line two", lines.get(1));
+
+            // another run, other times, threads and ids
+            TestLoggerFactory again = Settings.instance().printingEnabled(false).enableAll().buildLogging();
+            Thread run = new Thread(() -> {
+                for (int i = 0; i < 20; i++) {
+                    again.getLogger("orders").info("placed order-{} as\nline two", String.format("%08x", i + 1));
+                }
+                again.getLogger("orders").error("failed");
+            });
+            run.start();
+            run.join();
+            again.assertMatchesGolden(golden, normaliser);
+            String unmasked = failure(() -> again.assertMatchesGolden(golden));
+            assertTrue(unmasked, unmasked.contains("showing the first " + GoldenLog.MaxDifferences + " differences"));
+
+            TestLoggerFactory differs = Settings.instance().printingEnabled(false).enableAll().buildLogging();
+            for (int i = 0; i < 20; i++) {
+                differs.getLogger("orders").info("placed order-{} as\nline {}", "12345678", i == 3 ? "three" : "two");
+            }
+            String[] report = failure(() -> differs.assertMatchesGolden(golden, normaliser)).split(System.lineSeparator());
+            assertEquals("log does not match golden file " + golden + ", showing the first 2 differences", report[0]);
+            assertEquals("line 8:", report[1]);
+            assertEquals("    line two", report[2]);
+            assertEquals("    <time> INFO [<thread>] orders - placed order-<id> as", report[3]);
+            assertEquals("  - line two", report[4]);
+            assertEquals("  + line three", report[5]);
+            assertEquals("line 41:", report[6]);
+            assertEquals("    line two", report[8]);
+            assertEquals("  - <time> ERROR [<thread>] orders - failed", report[9]);
+            assertEquals("  + (end of the capture, 1 more lines expected)", report[10]);
+            assertEquals(11, report.length);
+
+            assertTrue(failure(() -> differs.assertMatchesGolden(golden.resolveSibling("missing.golden")))
+                    .startsWith("no golden file"));
+        } finally {
+            Files.delete(golden);
+        }
+    }
+
+    public void testFluentApiKeepsKeyValuesAndArgumentsStructured() {
+        TestLoggerFactory f = Settings.instance().printingEnabled(false).buildLogging();
+        TestLogger log = f.getLogger("john");
+
+        log.atError().addKeyValue("orderId", 42).addArgument("bob").log("order for {}");
+        log.atInfo().addKeyValue("orderId", 43).log("disabled level");
+
+        LogMessage order = log.linesWithKeyValue("orderId", 42).iterator().next();
+        assertEquals("order for bob", order.text);
+        assertEquals(42, order.keyValue("orderId"));
+        assertEquals("bob", order.arguments.get(0));
+
+        assertTrue(f.linesWithKeyValue("orderId", "42").isEmpty());
+        assertTrue(f.linesWithKeyValue("orderId", 43).isEmpty());
+        assertEquals(1, log.lines().size());
+    }
+
+    public void testClassicCallsKeepArguments() {
+        TestLoggerFactory f = Settings.instance().printingEnabled(false).buildLogging();
+        TestLogger log = f.getLogger("john");
+
+        Exception failure = new Exception("boom");
+        log.error("order {} failed", 42, failure);
+
+        LogMessage row = log.lines().iterator().next();
+        assertEquals(1, row.arguments.size());
+        assertEquals(42, row.arguments.get(0));
+        assertTrue(row.text.startsWith("order 42 failed"));
+        assertTrue(row.text.contains("boom"));
+    }
+
+    public void testFluentCallsKeepTheCauseWithoutArguments() {
+        TestLoggerFactory f = Settings.instance().printingEnabled(false).buildLogging();
+        TestLogger log = f.getLogger("john");
+
+        log.atError().setCause(new Exception("boom")).log("failed");
+        log.error("failed too", new Exception("bang"));
+
+        List<LogMessage> lines = new ArrayList<>(log.lines());
+        assertTrue(lines.get(0).text.startsWith("failed"));
+        assertTrue(lines.get(0).text, lines.get(0).text.contains("java.lang.Exception: boom"));
+        assertTrue(lines.get(1).text.contains("java.lang.Exception: bang"));
+        assertTrue(lines.get(0).arguments.isEmpty());
+    }
+
+    public void testFluentCallsAreReplayedOnAMockDelegate() {
+        Logger mockLogger = Mockito.mock(Logger.class);
+        TestLoggerFactory f = Settings.instance()
+                .printingEnabled(false)
+                .delegate("john", mockLogger)
+                .buildLogging();
+
+        f.getLogger("john").atError().log("anError {}", 1);
+
+        Mockito.verify(mockLogger).error("anError {}", new Object[]{1});
+    }
+
+    public void testCallerLocationIsCapturedAndSampled() {
+        TestLoggerFactory f = Settings.instance()
+                .printingEnabled(false)
+                .captureCallerLocation(true)
+                .captureCallerLocation("sampled", 2)
+                .buildLogging();
+
+        TestLogger log = f.getLogger("john");
+        log.error("classic");
+        log.atError().log("fluent");
+
+        for (LogMessage row : log.lines()) {
+            assertEquals(TestLoggerUnitTest.class.getName(), row.callerLocation.getClassName());
+            assertEquals("testCallerLocationIsCapturedAndSampled", row.callerLocation.getMethodName());
+            assertTrue(row.callerLocation.getLineNumber() > 0);
+        }
+
+        TestLogger sampled = f.getLogger("sampled");
+        for (int i = 0; i < 4; i++) {
+            sampled.error("line " + i);
+        }
+        int located = 0;
+        for (LogMessage row : sampled.lines()) {
+            if (row.callerLocation != null) located++;
+        }
+        assertEquals(2, located);
+    }
+
+    public void testMetricsCountCapturedDroppedAndSuppressedMessages() {
+        TestLoggerFactory f = Settings.instance()
+                .redirectPrintStream(LogLevel.ErrorLevel, StringPrintStream.newStream())
+                .suppressPrinting(".*first.*")
+                .suppressPrinting(".*second.*")
+                .buildLogging();
+
+        TestLogger log = f.getLogger("john");
+        log.error("printed {}", 1);
+        log.error("first rule");
+        log.error("second rule");
+        log.error("second rule again");
+        log.info("disabled");
+        log.debug("disabled {}", 2);
+        f.getLogger("quiet");
+
+        LoggingMetrics metrics = f.metrics();
+        LoggerMetrics john = metrics.loggers.get("john");
+        assertEquals(4, john.captured());
+        assertEquals(4, (long) john.captured.get(LogLevel.ErrorLevel));
+        assertEquals(1, (long) john.dropped.get(LogLevel.InfoLevel));
+        assertEquals(1, (long) john.dropped.get(LogLevel.DebugLevel));
+        assertEquals(Arrays.asList(1L, 2L), john.suppressedByRule);
+        assertEquals("printed 1first rulesecond rulesecond rule again".length(), john.retainedTextBytes);
+        assertEquals(0, metrics.loggers.get("quiet").captured());
+        assertEquals(4, metrics.captured());
+        assertEquals(2, metrics.dropped());
+
+        log.clear();
+        assertEquals(0, f.metrics().captured());
+        assertEquals(0, f.metrics().dropped());
+    }
+
+    public void testLogVolumeBudgets() {
+        TestLoggerFactory f = Settings.instance()
+                .printingEnabled(false)
+                .enable(LogLevel.WarnLevel, LogLevel.InfoLevel)
+                .buildLogging();
+        final TestLogger log = f.getLogger("john");
+        TestLogger other = f.getLogger("other");
+
+        for (int op = 0; op < 1000; op++) {
+            log.info("op {}", op);
+            if (op % 2 == 0) other.warn("even");
+            if (log.isDebugEnabled()) log.debug("guarded " + op);
+        }
+
+        log.assertAtMostMessages(1000);
+        f.assertAtMostMessagesPerOperation(1000, 1.5);
+        f.assertAtMostBytes(LogLevel.WarnLevel, 500 * "even".length());
+        f.assertNotCalledWhenDisabled(LogLevel.DebugLevel);
+
+        assertTrue(budgetFailure(() -> f.assertAtMostMessagesPerOperation(1000, 1.4))
+                .contains("1500 messages logged in 1000 operations"));
+        assertTrue(budgetFailure(() -> f.assertAtMostBytes(LogLevel.WarnLevel, 500 * "even".length() - 1))
+                .contains("at WARN and above"));
+
+        // nothing is built for a {} format, with or without a throwable
+        for (int op = 0; op < 3; op++) {
+            log.debug("op {}", op);
+            log.debug("op {} failed", op, new Exception());
+        }
+        f.assertNotCalledWhenDisabled(LogLevel.DebugLevel);
+
+        // each call is caught, the first included
+        log.debug("unguarded " + 0);
+        assertTrue(budgetFailure(() -> log.assertNotCalledWhenDisabled(LogLevel.DebugLevel))
+                .startsWith("1 calls were made at DEBUG"));
+        for (int op = 1; op < 3; op++) {
+            log.debug("unguarded " + op);
+        }
+        assertTrue(budgetFailure(() -> log.assertNotCalledWhenDisabled(LogLevel.DebugLevel))
+                .startsWith("3 calls were made at DEBUG"));
+        assertTrue(budgetFailure(() -> f.assertNotCalledWhenDisabled(LogLevel.DebugLevel))
+                .contains("isDebugEnabled()"));
+        other.assertNotCalledWhenDisabled(LogLevel.DebugLevel);
+
+        f.clear();
+        f.assertAtMostMessages(0);
+        f.assertNotCalledWhenDisabled(LogLevel.DebugLevel);
+
+        // bytes as encoded in UTF-8, not chars
+        other.warn("gr\u00f6\u00dfe \u20ac \ud83d\ude00");
+        assertEquals(16, f.metrics().retainedTextBytes());
+        f.assertAtMostBytes(LogLevel.WarnLevel, 16);
+        assertTrue(budgetFailure(() -> f.assertAtMostBytes(LogLevel.WarnLevel, 15)).contains("16 bytes"));
+    }
+
+    private static String budgetFailure(Runnable assertion) {
+        try {
+            assertion.run();
+        } catch (AssertionError expected) {
+            return expected.getMessage();
+        }
+        throw new AssertionError("expected the budget to be exceeded");
+    }
+
+    public void testAnalysisRanksCallSitesAndFlagsConcatenation() {
+        TestLoggerFactory f = Settings.instance()
+                .printingEnabled(false)
+                .enable(LogLevel.InfoLevel)
+                .analyse(10)
+                .buildLogging();
+        TestLogger log = f.getLogger("john");
+
+        Object slow = new Object() {
+            @Override
+            public String toString() {
+                long until = System.nanoTime() + 1_000_000;
+                while (System.nanoTime() < until) ;
+                return "slow";
+            }
+        };
+
+        for (int i = 0; i < 20; i++) {
+            log.debug("concatenated " + i);
+            log.debug("constant");
+            if (log.isInfoEnabled()) log.info("guarded {}", i);
+        }
+        for (int i = 0; i < 5; i++) {
+            log.info("expensive {}", slow);
+        }
+
+        for (LogMessage row : log.lines()) {
+            if (row.text.equals("expensive slow"))
+                assertSame("arguments are kept as passed, not as rendered", slow, row.arguments.get(0));
+        }
+
+        LogAnalysis analysis = f.analysis();
+        assertEquals(4, analysis.sites.size());
+
+        CallSiteCost expensive = analysis.sites.get(0);
+        assertEquals(5, expensive.calls);
+        assertEquals(5, expensive.toStringCalls);
+        assertTrue(expensive.toStringNanos >= 5_000_000);
+
+        assertEquals(1, analysis.suspectedConcatenation().size());
+        CallSiteCost concatenated = analysis.suspectedConcatenation().get(0);
+        assertEquals(LogLevel.DebugLevel, concatenated.level);
+        assertEquals(20, concatenated.disabledCalls);
+        assertEquals(20, concatenated.unparameterisedDisabledCalls);
+
+        for (CallSiteCost c : analysis.sites) {
+            if (c.level == LogLevel.InfoLevel && c.toStringCalls == 0) {
+                assertEquals(20, c.calls);
+                assertEquals(20, c.guardedCalls);
+            }
+        }
+        assertTrue(analysis.toString().contains("testAnalysisRanksCallSitesAndFlagsConcatenation"));
+
+        f.clear();
+        assertTrue(f.analysis().sites.isEmpty());
+    }
+
+    public void testMetricsCanBeReadOverJmx() throws Exception {
+        TestLoggerFactory f = Settings.instance().printingEnabled(false).buildLogging();
+        f.getLogger("john").error("anError");
+
+        ObjectName name = f.registerMBean("testMetricsCanBeReadOverJmx");
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            assertEquals(1L, server.getAttribute(name, "Captured"));
+            f.getLogger("john").error("anotherError");
+            assertEquals(2L, server.getAttribute(name, "Captured"));
+        } finally {
+            server.unregisterMBean(name);
+        }
+    }
+
     public void testDelegateToAMockingLibrary() {
         Logger mockLogger = Mockito.mock(Logger.class);
         TestLoggerFactory f = Settings.instance()